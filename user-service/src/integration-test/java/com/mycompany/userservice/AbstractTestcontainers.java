@@ -12,7 +12,8 @@ public abstract class AbstractTestcontainers {
     @Container
     private static final MySQLContainer<?> mySQLContainer = new MySQLContainer<>("mysql:8.0.26")
             .withUrlParam("characterEncoding", "UTF-8")
-            .withUrlParam("serverTimezone", "UTC");
+            .withUrlParam("serverTimezone", "UTC")
+            .withUrlParam("useCursorFetch", "true");
 
     @DynamicPropertySource
     private static void dynamicProperties(DynamicPropertyRegistry registry) {
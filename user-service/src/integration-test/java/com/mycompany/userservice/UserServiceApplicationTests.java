@@ -1,17 +1,21 @@
 package com.mycompany.userservice;
 
+import com.mycompany.userservice.dto.CreateUserBatchRequest;
+import com.mycompany.userservice.dto.CreateUserBatchResponse;
 import com.mycompany.userservice.dto.CreateUserRequest;
 import com.mycompany.userservice.dto.UpdateUserRequest;
 import com.mycompany.userservice.dto.UserResponse;
 import com.mycompany.userservice.model.User;
 import com.mycompany.userservice.repository.UserRepository;
 import lombok.Value;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -19,15 +23,13 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-@SpringBootTest(
-        webEnvironment = WebEnvironment.RANDOM_PORT,
-        properties = "spring.jpa.hibernate.ddl-auto=create-drop"
-)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
 class UserServiceApplicationTests extends AbstractTestcontainers {
 
@@ -37,6 +39,12 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
     @Autowired
     private UserRepository userRepository;
 
+    // The schema comes from the migrations, so it isn't recreated with the context
+    @AfterEach
+    void tearDown() {
+        userRepository.deleteAllInBatch();
+    }
+
     /* GET /api/users */
 
     @Test
@@ -63,8 +71,73 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
         assertThat(responseEntity.getBody()[0].getBirthday()).isEqualTo(user.getBirthday());
     }
 
+    @Test
+    void testGetUsersInformingAfterAndLimit() {
+        User user1 = userRepository.save(new User("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+        User user2 = userRepository.save(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        User user3 = userRepository.save(new User("ivan3", "ivan3@test", LocalDate.parse("2018-03-03")));
+
+        String url = String.format(API_USERS_AFTER_LIMIT_URL, user1.getId(), 1);
+        ResponseEntity<UserResponse[]> responseEntity = testRestTemplate.getForEntity(url, UserResponse[].class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody()).extracting(UserResponse::getId).containsExactly(user2.getId());
+
+        url = String.format(API_USERS_AFTER_LIMIT_URL, user2.getId(), 10);
+        responseEntity = testRestTemplate.getForEntity(url, UserResponse[].class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody()).extracting(UserResponse::getId).containsExactly(user3.getId());
+    }
+
+    @Test
+    void testStreamUsers() {
+        User user1 = userRepository.save(new User("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+        User user2 = userRepository.save(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+
+        ResponseEntity<UserResponse[]> responseEntity = testRestTemplate.getForEntity(API_USERS_STREAM_URL, UserResponse[].class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody()).extracting(UserResponse::getId).containsExactly(user1.getId(), user2.getId());
+    }
+
+    /* GET /api/users/search */
+
+    @Test
+    void testSearchUsers() {
+        userRepository.save(new User("ivan", "ivan@test.com", LocalDate.parse("2018-01-01")));
+        User user2 = userRepository.save(new User("ivana", "ivana@test.com", LocalDate.parse("2018-06-01")));
+        userRepository.save(new User("ivan3", "ivan3@other.com", LocalDate.parse("2018-06-01")));
+        userRepository.save(new User("igor", "igor@test.com", LocalDate.parse("2018-06-01")));
+
+        String url = String.format(API_USERS_SEARCH_URL, "iv", "test.com", "2018-02-01", "2018-12-31");
+        ResponseEntity<UserResponse[]> responseEntity = testRestTemplate.getForEntity(url, UserResponse[].class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).extracting(UserResponse::getId).containsExactly(user2.getId());
+    }
+
     /* GET /api/users/username/{username} */
 
+    @Test
+    void testGetUserByUsernameWhenNotModified() {
+        User user = userRepository.save(getDefaultUser());
+        String url = String.format(API_USERS_USERNAME_USERNAME_URL, user.getUsername());
+        String eTag = testRestTemplate.getForEntity(url, UserResponse.class).getHeaders().getETag();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        ResponseEntity<UserResponse> responseEntity = testRestTemplate.exchange(
+                url, HttpMethod.GET, new HttpEntity<>(headers), UserResponse.class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(responseEntity.getHeaders().getETag()).isEqualTo(eTag);
+        assertThat(responseEntity.getBody()).isNull();
+    }
+
     @Test
     void testGetUserByUsernameWhenNonExistent() {
         String url = String.format(API_USERS_USERNAME_USERNAME_URL, "ivan");
@@ -211,6 +284,40 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
         assertThat(responseEntity.getBody().getErrors()).hasSize(1);
     }
 
+    /* POST /api/users/batch */
+
+    @Test
+    void testCreateUsersReportsDuplicatedItems() {
+        User user = getDefaultUser();
+        userRepository.save(user);
+
+        CreateUserBatchRequest createUserBatchRequest = new CreateUserBatchRequest(Arrays.asList(
+                new CreateUserRequest("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")),
+                new CreateUserRequest(user.getUsername(), "ivan3@test", LocalDate.parse("2018-03-03")),
+                new CreateUserRequest("ivan4", "ivan2@test", LocalDate.parse("2018-04-04"))));
+        ResponseEntity<CreateUserBatchResponse> responseEntity = testRestTemplate.postForEntity(
+                API_USERS_BATCH_URL, createUserBatchRequest, CreateUserBatchResponse.class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody().getCreated()).isEqualTo(1);
+        assertThat(responseEntity.getBody().getFailed()).isEqualTo(2);
+        assertThat(responseEntity.getBody().getItems()).extracting(CreateUserBatchResponse.Item::getStatus)
+                .containsExactly(201, 409, 409);
+        assertThat(responseEntity.getBody().getItems().get(1).getErrorCode()).isEqualTo(ERROR_CODE_USER_DATA_DUPLICATED);
+        assertThat(responseEntity.getBody().getItems().get(1).getMessage()).isEqualTo(MSG_USERNAME_EMAIL_ALREADY_EXISTS);
+
+        UserResponse userResponse = responseEntity.getBody().getItems().get(0).getUser();
+        Optional<User> userOptional = userRepository.findById(userResponse.getId());
+        assertThat(userOptional.isPresent()).isTrue();
+        userOptional.ifPresent(userCreated -> {
+            assertThat(userCreated.getUsername()).isEqualTo("ivan2");
+            assertThat(userCreated.getCreatedOn()).isNotNull();
+            assertThat(userCreated.getUpdatedOn()).isNotNull();
+        });
+        assertThat(userRepository.findUserByUsername("ivan4")).isNotPresent();
+    }
+
     /* PUT /api/users */
 
     @Test
@@ -318,6 +425,57 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
         });
     }
 
+    @Test
+    void testUpdateUserWhenPreferringMinimalReturn() {
+        User user = getDefaultUser();
+        userRepository.save(user);
+
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Prefer", "return=minimal");
+        HttpEntity<UpdateUserRequest> requestUpdate = new HttpEntity<>(updateUserRequest, headers);
+        String url = String.format(API_USERS_ID_URL, user.getId());
+        ResponseEntity<UserResponse> responseEntity = testRestTemplate.exchange(
+                url, HttpMethod.PUT, requestUpdate, UserResponse.class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(responseEntity.getBody()).isNull();
+
+        Optional<User> userOptional = userRepository.findById(user.getId());
+        assertThat(userOptional.isPresent()).isTrue();
+        userOptional.ifPresent(userUpdated -> {
+            assertThat(userUpdated.getUsername()).isEqualTo(updateUserRequest.getUsername());
+            assertThat(userUpdated.getEmail()).isEqualTo(user.getEmail());
+            assertThat(userUpdated.getVersion()).isEqualTo(user.getVersion() + 1);
+        });
+    }
+
+    @Test
+    void testUpdateUserWhenIfMatchIsStale() {
+        User user = userRepository.save(getDefaultUser());
+        String url = String.format(API_USERS_ID_URL, user.getId());
+        String eTag = testRestTemplate.getForEntity(String.format(API_USERS_USERNAME_USERNAME_URL, user.getUsername()),
+                UserResponse.class).getHeaders().getETag();
+
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setEmail("ivan2@test");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch(eTag);
+        testRestTemplate.exchange(url, HttpMethod.PUT, new HttpEntity<>(updateUserRequest, headers), UserResponse.class);
+
+        updateUserRequest.setEmail("ivan3@test");
+        ResponseEntity<MessageError> responseEntity = testRestTemplate.exchange(
+                url, HttpMethod.PUT, new HttpEntity<>(updateUserRequest, headers), MessageError.class);
+
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(responseEntity.getBody()).isNotNull();
+        assertThat(responseEntity.getBody().getErrorCode()).isEqualTo(ERROR_CODE_USER_VERSION_MISMATCH);
+        assertThat(userRepository.findById(user.getId())).hasValueSatisfying(
+                userUpdated -> assertThat(userUpdated.getEmail()).isEqualTo("ivan2@test"));
+    }
+
     @Test
     void testUpdateUserWhenUpdatingBirthday() {
         User user = getDefaultUser();
@@ -415,6 +573,10 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
     }
 
     private static final String API_USERS_URL = "/api/users";
+    private static final String API_USERS_AFTER_LIMIT_URL = "/api/users?after=%s&limit=%s";
+    private static final String API_USERS_STREAM_URL = "/api/users?stream=true";
+    private static final String API_USERS_BATCH_URL = "/api/users/batch";
+    private static final String API_USERS_SEARCH_URL = "/api/users/search?usernamePrefix=%s&emailDomain=%s&birthdayFrom=%s&birthdayTo=%s";
     private static final String API_USERS_USERNAME_USERNAME_URL = "/api/users/username/%s";
     private static final String API_USERS_ID_URL = "/api/users/%s";
 
@@ -424,6 +586,7 @@ class UserServiceApplicationTests extends AbstractTestcontainers {
     private static final String ERROR_CODE_BAD_REQUEST = "BadRequest";
     private static final String ERROR_CONFLICT = "Conflict";
     private static final String ERROR_CODE_USER_DATA_DUPLICATED = "UserDataDuplicated";
+    private static final String ERROR_CODE_USER_VERSION_MISMATCH = "UserVersionMismatch";
 
     private static final String MSG_USERNAME_EMAIL_ALREADY_EXISTS = "The username and/or email informed already exists.";
 
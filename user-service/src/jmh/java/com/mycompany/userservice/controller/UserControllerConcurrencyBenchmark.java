@@ -0,0 +1,99 @@
+package com.mycompany.userservice.controller;
+
+import com.mycompany.userservice.UserServiceApplication;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserController} under {@value #CONNECTIONS} concurrent connections, with Tomcat handling requests on its
+ * platform thread pool or on virtual threads. Each operation is a wave of {@value #CONNECTIONS} requests that all read
+ * a page of users from an in-memory H2 database. The {@code virtual} mode needs the benchmark JVM to be Java 21+.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserControllerConcurrencyBenchmark {
+
+    private static final int CONNECTIONS = 5000;
+    private static final int USERS = 1000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private List<HttpRequest> requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(UserServiceApplication.class)
+                .profiles("test")
+                .properties("spring.main.banner-mode=off", "logging.level.root=WARN", "server.port=0",
+                        "server.tomcat.max-connections=" + 2 * CONNECTIONS,
+                        "server.tomcat.accept-count=" + CONNECTIONS,
+                        "app.virtual-threads.enabled=" + "virtual".equals(threads))
+                .run();
+
+        UserService userService = context.getBean(UserService.class);
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User("ivan" + i, "ivan" + i + "@test", LocalDate.parse("2018-01-01")));
+        }
+        userService.saveUsers(users);
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+        requests = new ArrayList<>(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            URI uri = URI.create(String.format("http://localhost:%s/api/users?after=%s&limit=10", port, i % USERS));
+            requests.add(HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(1)).build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int concurrentGetUsers() {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(CONNECTIONS);
+        for (HttpRequest request : requests) {
+            responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        int ok = 0;
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            if (response.join().statusCode() == 200) {
+                ok++;
+            }
+        }
+        if (ok != CONNECTIONS) {
+            throw new IllegalStateException(String.format("Only %s of %s requests succeeded.", ok, CONNECTIONS));
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mycompany.userservice.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufFactory;
+import com.fasterxml.jackson.dataformat.protobuf.schema.NativeProtobufSchema;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import com.mycompany.userservice.config.BinaryFormatsConfig;
+import com.mycompany.userservice.config.UserProtobufHttpMessageConverter;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing and reading a user, or a list of 10k users, in each of the formats of {@code /api/users}, with the
+ * mappers set up like the ones of the message converters. The sizes of the payloads are listed in the README.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserBinaryFormatsBenchmark {
+
+    @Param({"json", "smile", "cbor", "protobuf"})
+    private String format;
+
+    @Param({"1", "10000"})
+    private int users;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+
+    private Object payload;
+    private byte[] serializedPayload;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<UserResponse> userResponses = new ArrayList<>();
+        for (long i = 1; i <= users; i++) {
+            userResponses.add(new UserResponse(i, "ivan" + i, "ivan" + i + "@test", LocalDate.parse("2018-01-01")));
+        }
+        ObjectMapper objectMapper = objectMapper();
+        if ("protobuf".equals(format)) {
+            NativeProtobufSchema schema = UserProtobufHttpMessageConverter.loadSchema();
+            if (users == 1) {
+                payload = userResponses.get(0);
+                writer = objectMapper.writerFor(UserResponse.class).with(schema.forType("UserResponse"));
+                reader = objectMapper.readerFor(UserResponse.class).with(schema.forType("UserResponse"));
+            } else {
+                payload = new UserResponseList(userResponses);
+                writer = objectMapper.writerFor(UserResponseList.class).with(schema.forType("UserResponseList"));
+                reader = objectMapper.readerFor(UserResponseList.class).with(schema.forType("UserResponseList"));
+            }
+        } else if (users == 1) {
+            payload = userResponses.get(0);
+            writer = objectMapper.writerFor(UserResponse.class);
+            reader = objectMapper.readerFor(UserResponse.class);
+        } else {
+            payload = userResponses;
+            writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserResponse.class));
+            reader = objectMapper.readerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserResponse.class));
+        }
+        serializedPayload = writer.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return reader.readValue(serializedPayload);
+    }
+
+    private ObjectMapper objectMapper() {
+        // The parameter names, as in Spring Boot, to read the immutable UserResponse
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .modulesToInstall(new ParameterNamesModule());
+        switch (format) {
+            case "smile":
+                return BinaryFormatsConfig.binaryObjectMapper(builder, new SmileFactory());
+            case "cbor":
+                return BinaryFormatsConfig.binaryObjectMapper(builder, new CBORFactory());
+            case "protobuf":
+                return BinaryFormatsConfig.binaryObjectMapper(builder, new ProtobufFactory());
+            default:
+                return builder.build();
+        }
+    }
+
+    // The UserResponseList message, as a client would read it
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UserResponseList {
+
+        private List<UserResponse> users;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mycompany.userservice.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson cost of the user payloads, using an {@link ObjectMapper} set up the way Spring Boot sets up the one used by
+ * the controllers. The {@code birthday} fields go through the {@code @JsonFormat} date pattern.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserJsonBenchmark {
+
+    private ObjectWriter userResponseWriter;
+    private ObjectWriter userResponseListWriter;
+    private ObjectReader createUserRequestReader;
+
+    private UserResponse userResponse;
+    private List<UserResponse> userResponses;
+    private byte[] createUserRequestJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        userResponseWriter = objectMapper.writerFor(UserResponse.class);
+        userResponseListWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+                .constructCollectionType(List.class, UserResponse.class));
+        createUserRequestReader = objectMapper.readerFor(CreateUserRequest.class);
+
+        userResponse = new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        userResponses = new ArrayList<>();
+        for (long i = 1; i <= 100; i++) {
+            userResponses.add(new UserResponse(i, "ivan" + i, "ivan" + i + "@test", LocalDate.parse("2018-01-01")));
+        }
+        createUserRequestJson = objectMapper.writeValueAsBytes(
+                new CreateUserRequest("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+    }
+
+    @Benchmark
+    public byte[] serializeUserResponse() throws IOException {
+        return userResponseWriter.writeValueAsBytes(userResponse);
+    }
+
+    @Benchmark
+    public byte[] serializeUserResponsePage() throws IOException {
+        return userResponseListWriter.writeValueAsBytes(userResponses);
+    }
+
+    @Benchmark
+    public CreateUserRequest deserializeCreateUserRequest() throws IOException {
+        return createUserRequestReader.readValue(createUserRequestJson);
+    }
+}
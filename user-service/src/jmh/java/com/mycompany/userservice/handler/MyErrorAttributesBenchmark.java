@@ -0,0 +1,57 @@
+package com.mycompany.userservice.handler;
+
+import com.mycompany.userservice.exception.UserNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.boot.web.error.ErrorAttributeOptions;
+import org.springframework.boot.web.servlet.error.DefaultErrorAttributes;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import javax.servlet.RequestDispatcher;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MyErrorAttributesBenchmark {
+
+    private final MyErrorAttributes myErrorAttributes = new MyErrorAttributes(new SimpleMeterRegistry());
+
+    private WebRequest userNotFoundRequest;
+    private WebRequest badRequestRequest;
+
+    @Setup
+    public void setUp() {
+        userNotFoundRequest = errorRequest(404, new UserNotFoundException("User with username 'ivan' doesn't exist."));
+        badRequestRequest = errorRequest(400, null);
+    }
+
+    @Benchmark
+    public Map<String, Object> userNotFound() {
+        return myErrorAttributes.getErrorAttributes(userNotFoundRequest, ErrorAttributeOptions.defaults());
+    }
+
+    @Benchmark
+    public Map<String, Object> badRequest() {
+        return myErrorAttributes.getErrorAttributes(badRequestRequest, ErrorAttributeOptions.defaults());
+    }
+
+    private static WebRequest errorRequest(int status, Exception exception) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(RequestDispatcher.ERROR_STATUS_CODE, status);
+        request.setAttribute(RequestDispatcher.ERROR_REQUEST_URI, "/api/users/username/ivan");
+        if (exception != null) {
+            request.setAttribute(DefaultErrorAttributes.class.getName() + ".ERROR", exception);
+        }
+        return new ServletWebRequest(request);
+    }
+}
@@ -0,0 +1,55 @@
+package com.mycompany.userservice.mapper;
+
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserMapperBenchmark {
+
+    private final UserMapper userMapper = new UserMapperImpl();
+
+    private User user;
+    private CreateUserRequest createUserRequest;
+    private UpdateUserRequest updateUserRequest;
+
+    @Setup
+    public void setUp() {
+        user = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        user.setId(1L);
+        user.setCreatedOn(ZonedDateTime.now());
+        user.setUpdatedOn(ZonedDateTime.now());
+        createUserRequest = new CreateUserRequest("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        updateUserRequest = new UpdateUserRequest("ivan2", null, LocalDate.parse("2018-02-02"));
+    }
+
+    @Benchmark
+    public UserResponse toUserResponse() {
+        return userMapper.toUserResponse(user);
+    }
+
+    @Benchmark
+    public User toUser() {
+        return userMapper.toUser(createUserRequest);
+    }
+
+    @Benchmark
+    public User updateUserFromRequest() {
+        userMapper.updateUserFromRequest(updateUserRequest, user);
+        return user;
+    }
+}
@@ -0,0 +1,108 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.UserServiceApplication;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.mapper.UserMapper;
+import com.mycompany.userservice.model.User;
+import org.hibernate.jpa.QueryHints;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A page of {@value #PAGE_SIZE} users read as entities and mapped to {@link UserResponse}s, in a read-write and in a
+ * read-only transaction, against the {@link UserResponse} projection of {@link UserRepository}. Run it with
+ * {@code -prof gc} to compare the bytes allocated per page ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserReadBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int PAGE_SIZE = 100;
+
+    private ConfigurableApplicationContext context;
+    private UserRepository userRepository;
+    private UserMapper userMapper;
+    private EntityManager entityManager;
+    private TransactionTemplate readWriteTransaction;
+    private TransactionTemplate readOnlyTransaction;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(UserServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("spring.main.banner-mode=off", "logging.level.root=WARN")
+                .run();
+        userRepository = context.getBean(UserRepository.class);
+        userMapper = context.getBean(UserMapper.class);
+        entityManager = context.getBean(EntityManager.class);
+        PlatformTransactionManager transactionManager = context.getBean(PlatformTransactionManager.class);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User("ivan" + i, "ivan" + i + "@test", LocalDate.parse("2018-01-01")));
+        }
+        userRepository.insertAll(users);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<UserResponse> entities() {
+        return readWriteTransaction.execute(status -> findEntities(false));
+    }
+
+    @Benchmark
+    public List<UserResponse> readOnlyEntities() {
+        return readOnlyTransaction.execute(status -> findEntities(true));
+    }
+
+    @Benchmark
+    public List<UserResponse> projection() {
+        return userRepository.findUserResponsesByIdGreaterThan(nextAfter(), PageRequest.of(0, PAGE_SIZE, Sort.by("id")));
+    }
+
+    private List<UserResponse> findEntities(boolean readOnly) {
+        return entityManager.createQuery("select u from User u where u.id > :id order by u.id", User.class)
+                .setParameter("id", nextAfter())
+                .setMaxResults(PAGE_SIZE)
+                .setHint(QueryHints.HINT_READONLY, readOnly)
+                .getResultStream()
+                .map(userMapper::toUserResponse)
+                .collect(Collectors.toList());
+    }
+
+    private long nextAfter() {
+        return counter++ % (USERS - PAGE_SIZE);
+    }
+}
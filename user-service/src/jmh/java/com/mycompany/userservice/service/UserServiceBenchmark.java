@@ -0,0 +1,84 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.UserServiceApplication;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserServiceImpl} end to end, down to an in-memory H2 database started with the {@code test} profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserServiceBenchmark {
+
+    private static final int USERS = 1000;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(UserServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("spring.main.banner-mode=off", "logging.level.root=WARN")
+                .run();
+        userService = context.getBean(UserService.class);
+
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User("ivan" + i, "ivan" + i + "@test", LocalDate.parse("2018-01-01")));
+        }
+        userService.saveUsers(users);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public User validateAndGetUserById() {
+        return userService.validateAndGetUserById(nextId());
+    }
+
+    @Benchmark
+    public User validateAndGetUserByUsername() {
+        return userService.validateAndGetUserByUsername("ivan" + (nextId() - 1));
+    }
+
+    @Benchmark
+    public List<UserResponse> getUsers() {
+        return userService.getUsers(nextId(), 100);
+    }
+
+    @Benchmark
+    public User saveUser() {
+        User user = userService.validateAndGetUserById(nextId());
+        user.setBirthday(user.getBirthday().plusDays(1));
+        return userService.saveUser(user);
+    }
+
+    private long nextId() {
+        return counter++ % USERS + 1;
+    }
+}
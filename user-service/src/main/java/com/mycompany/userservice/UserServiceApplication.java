@@ -3,20 +3,33 @@ package com.mycompany.userservice;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import javax.annotation.PostConstruct;
 import java.time.ZoneId;
 
 @Slf4j
+@EnableScheduling
 @SpringBootApplication
 public class UserServiceApplication {
 
+    // Startup steps kept for the actuator startup endpoint, which drains them
+    private static final int STARTUP_STEPS_CAPACITY = 4096;
+
     @PostConstruct
     public void init() {
         log.info("TimeZone configured: {}", ZoneId.systemDefault());
     }
 
     public static void main(String[] args) {
-        SpringApplication.run(UserServiceApplication.class, args);
+        SpringApplication application = new SpringApplication(UserServiceApplication.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS_CAPACITY));
+        ConfigurableApplicationContext context = application.run(args);
+        // Training runs of the class-data sharing archive only need the classes loaded at startup
+        if (context.getEnvironment().getProperty("app.startup.exit-when-ready", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 }
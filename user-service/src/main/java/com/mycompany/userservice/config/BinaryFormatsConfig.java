@@ -0,0 +1,70 @@
+package com.mycompany.userservice.config;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Binary encodings of the payloads, for service-to-service calls, chosen with {@code Accept} and
+ * {@code Content-Type}: Smile ({@code application/x-jackson-smile}), CBOR ({@code application/cbor}) and, for the user
+ * payloads, Protobuf ({@code application/x-protobuf}). The converters come after the JSON one, so JSON stays the
+ * default when the client accepts anything.
+ * <p>
+ * Their mappers are set up like the JSON one, but write the birthdays as days since 1970-01-01 instead of formatting
+ * them with the {@code yyyy-MM-dd} pattern.
+ */
+@Profile("!reactive")
+@Configuration(proxyBeanMethods = false)
+public class BinaryFormatsConfig implements WebMvcConfigurer {
+
+    private final ObjectProvider<Jackson2ObjectMapperBuilder> objectMapperBuilder;
+
+    public BinaryFormatsConfig(ObjectProvider<Jackson2ObjectMapperBuilder> objectMapperBuilder) {
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // Replaces the ones Spring MVC adds when Smile and CBOR are on the classpath, whose mappers miss Boot's setup
+        converters.removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter
+                || converter instanceof MappingJackson2CborHttpMessageConverter);
+        converters.add(new MappingJackson2SmileHttpMessageConverter(
+                binaryObjectMapper(objectMapperBuilder.getObject(), new SmileFactory())));
+        converters.add(new MappingJackson2CborHttpMessageConverter(
+                binaryObjectMapper(objectMapperBuilder.getObject(), new CBORFactory())));
+        converters.add(new UserProtobufHttpMessageConverter(
+                binaryObjectMapper(objectMapperBuilder.getObject(), new ProtobufFactory())));
+    }
+
+    public static ObjectMapper binaryObjectMapper(Jackson2ObjectMapperBuilder builder, JsonFactory factory) {
+        return builder.factory(factory)
+                .mixIn(UserResponse.class, EpochDayBirthday.class)
+                .mixIn(CreateUserRequest.class, EpochDayBirthday.class)
+                .mixIn(UpdateUserRequest.class, EpochDayBirthday.class)
+                .build();
+    }
+
+    abstract static class EpochDayBirthday {
+
+        @JsonFormat(shape = Shape.NUMBER_INT)
+        LocalDate birthday;
+    }
+}
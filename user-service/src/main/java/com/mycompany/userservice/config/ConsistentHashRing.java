@@ -0,0 +1,75 @@
+package com.mycompany.userservice.config;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Places user ids on shards by consistent hashing: every shard owns {@code virtualNodes} points of a ring of 64-bit
+ * hashes, and an id goes to the owner of the first point at or after its own hash. Adding a shard only takes over the
+ * ids that hash next to its points, about {@code 1 / shards} of them, and leaves the rest where they are.
+ * <p>
+ * The points are kept in a sorted array, so a lookup is a binary search without any allocation.
+ */
+public class ConsistentHashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> shards;
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one shard");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("A shard needs at least one point on the ring");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        List<Point> ring = new ArrayList<>(shards.size() * virtualNodes);
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.add(new Point(HASH.hashString(shard + "#" + i, StandardCharsets.UTF_8).asLong(), shard));
+            }
+        }
+        // Ties, if ever, are broken by shard name, so every instance builds the same ring
+        ring.sort(Comparator.comparingLong((Point point) -> point.hash).thenComparing(point -> point.shard));
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i).hash;
+            owners[i] = ring.get(i).shard;
+        }
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    public String shardFor(long id) {
+        int index = Arrays.binarySearch(points, HASH.hashLong(id).asLong());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    private static class Point {
+
+        final long hash;
+        final String shard;
+
+        Point(long hash, String shard) {
+            this.hash = hash;
+            this.shard = shard;
+        }
+    }
+}
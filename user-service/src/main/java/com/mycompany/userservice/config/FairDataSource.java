@@ -0,0 +1,105 @@
+package com.mycompany.userservice.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets at most {@code maxConnections} callers into the wrapped pool at a time and serves the others in arrival order.
+ * <p>
+ * With thousands of virtual threads asking for a connection, they queue on a fair semaphore, where a waiting virtual
+ * thread is parked without holding its carrier thread, instead of competing inside the pool. A permit is given back
+ * when the connection is closed.
+ */
+public class FairDataSource extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final long timeoutMillis;
+
+    public FairDataSource(DataSource targetDataSource, int maxConnections, long timeoutMillis) {
+        super(targetDataSource);
+        this.permits = new Semaphore(maxConnections, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return releasingOnClose(super.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return releasingOnClose(super.getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of threads waiting for a connection, which don't show in the pool metrics
+     */
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    private void acquire() throws SQLException {
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        String.format("Connection is not available, request timed out after %sms.", timeoutMillis));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection.", e);
+        }
+    }
+
+    private Connection releasingOnClose(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "close":
+                            try {
+                                connection.close();
+                            } finally {
+                                if (released.compareAndSet(false, true)) {
+                                    permits.release();
+                                }
+                            }
+                            return null;
+                        default:
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                    }
+                });
+    }
+}
@@ -0,0 +1,29 @@
+package com.mycompany.userservice.config;
+
+import com.mycompany.userservice.controller.ReactiveUserController;
+import com.mycompany.userservice.controller.UserController;
+import com.mycompany.userservice.service.UserService;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Keeps the request path eager when {@code spring.main.lazy-initialization} is set, as in the {@code fast-startup}
+ * profile. The controllers and what they depend on, down to the repositories and the entity manager factory, are
+ * created at startup, so the first request doesn't pay for them; the rest (Swagger, the actuator endpoints, beans
+ * only used by other endpoints) is created on first use. The migrations are run before the application is ready too.
+ * <p>
+ * Beans with {@code @Scheduled} methods are kept eager by {@code Spring Boot} itself.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "spring.main.lazy-initialization", havingValue = "true")
+public class LazyInitializationConfig {
+
+    @Bean
+    public static LazyInitializationExcludeFilter requestPathLazyInitializationExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(FlywayMigrationInitializer.class, UserController.class,
+                ReactiveUserController.class, UserService.class);
+    }
+}
@@ -0,0 +1,28 @@
+package com.mycompany.userservice.config;
+
+import com.mycompany.userservice.service.TimedUserService;
+import com.mycompany.userservice.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Domain metrics on top of the ones Spring Boot already records, i.e. {@code http.server.requests} for the controller,
+ * {@code spring.data.repository.invocations} for every {@code UserRepository} query and {@code hikaricp.connections.*}
+ * for the pool: the {@link UserService} that the controller gets is a {@link TimedUserService}. The histogram buckets
+ * of all of them are set in {@code management.metrics.distribution.slo}.
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfig {
+
+    @Primary
+    @Profile("!reactive")
+    @Bean
+    public UserService timedUserService(UserService userService, MeterRegistry meterRegistry) {
+        // The implementation in use, UserServiceImpl or ShardedUserServiceImpl. This bean, being the one created, isn't
+        // a candidate for its own parameter
+        return new TimedUserService(userService, meterRegistry);
+    }
+}
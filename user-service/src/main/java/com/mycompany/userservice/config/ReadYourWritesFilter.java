@@ -0,0 +1,57 @@
+package com.mycompany.userservice.config;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Keeps the reads of a client on the primary for a short window after it changed a user, so it doesn't read stale
+ * data from a replica that is lagging behind. A request that changes data reads from the primary too, and marks the
+ * client with a cookie that expires at the end of the window.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE_NAME = "read-primary";
+
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final Duration window;
+
+    public ReadYourWritesFilter(Duration window) {
+        this.window = window;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean mutation = !SAFE_METHODS.contains(request.getMethod());
+        if (mutation) {
+            Cookie cookie = new Cookie(COOKIE_NAME, "true");
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) window.toSeconds());
+            response.addCookie(cookie);
+        }
+        if (mutation || hasCookie(request)) {
+            ReplicaRoutingDataSource.forcePrimary();
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.clearForcePrimary();
+        }
+    }
+
+    private static boolean hasCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        return cookies != null && Arrays.stream(cookies).anyMatch(cookie -> COOKIE_NAME.equals(cookie.getName()));
+    }
+}
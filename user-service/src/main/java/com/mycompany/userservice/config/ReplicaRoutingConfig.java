@@ -0,0 +1,79 @@
+package com.mycompany.userservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read/write splitting, enabled with {@code app.datasource.routing.enabled}. {@code spring.datasource} configures
+ * the primary and {@code app.datasource.routing.replicas} the replicas, which share the pool settings of the primary.
+ * Read-only transactions, i.e. the lookups of {@code UserRepository}, go to the replicas.
+ * <p>
+ * It needs {@code spring.jpa.open-in-view} to be off: an entity manager kept open for the whole request would hold on
+ * to the connection of its first transaction, e.g. update a user through the replica it was just read from.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.datasource.routing.enabled", havingValue = "true")
+@EnableConfigurationProperties(ReplicaRoutingProperties.class)
+public class ReplicaRoutingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                                      ReplicaRoutingProperties properties,
+                                                      ObjectProvider<MeterRegistry> meterRegistry) throws SQLException {
+        HikariDataSource primary = primaryDataSource.unwrap(HikariDataSource.class);
+        List<DataSource> replicas = new ArrayList<>();
+        for (ReplicaRoutingProperties.Replica replica : properties.getReplicas()) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .build();
+            dataSource.setPoolName("replica-" + replicas.size());
+            if (primary.getMaximumPoolSize() > 0) {
+                dataSource.setMaximumPoolSize(primary.getMaximumPoolSize());
+            }
+            dataSource.setConnectionTimeout(primary.getConnectionTimeout());
+            dataSource.setReadOnly(true);
+            // The replicas aren't beans, so the pool metrics of Spring Boot don't cover them
+            meterRegistry.ifAvailable(dataSource::setMetricRegistry);
+            replicas.add(dataSource);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, properties.getStrategy());
+    }
+
+    @Primary
+    @Bean
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(ReplicaRoutingProperties properties) {
+        return new ReadYourWritesFilter(properties.getReadYourWritesWindow());
+    }
+}
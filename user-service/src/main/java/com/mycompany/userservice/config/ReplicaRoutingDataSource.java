@@ -0,0 +1,118 @@
+package com.mycompany.userservice.config;
+
+import com.mycompany.userservice.config.ReplicaRoutingProperties.Strategy;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends read-only transactions to one of the replicas and everything else to the primary.
+ * <p>
+ * The read-only flag of a transaction is only known once the transaction is synchronized, so this data source has to
+ * sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}. Reads are kept on the
+ * primary while {@link #forcePrimary()} is in effect for the current thread, e.g. for a client that has just changed a
+ * user, or within {@link #readFromPrimary}.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<Boolean> primaryForced = new ThreadLocal<>();
+
+    private final List<DataSource> replicas;
+    private final Strategy strategy;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Strategy strategy) {
+        this.replicas = replicas;
+        this.strategy = strategy;
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targetDataSources.put(i, replicas.get(i));
+        }
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public static void forcePrimary() {
+        primaryForced.set(Boolean.TRUE);
+    }
+
+    public static void clearForcePrimary() {
+        primaryForced.remove();
+    }
+
+    /**
+     * Runs {@code reads} on the primary, e.g. for results that are kept longer than a replica may lag behind.
+     */
+    public static <T> T readFromPrimary(Supplier<T> reads) {
+        if (isPrimaryForced()) {
+            return reads.get();
+        }
+        forcePrimary();
+        try {
+            return reads.get();
+        } finally {
+            clearForcePrimary();
+        }
+    }
+
+    static boolean isPrimaryForced() {
+        return primaryForced.get() != null;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (replicas.isEmpty() || isPrimaryForced()
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY;
+        }
+        return strategy == Strategy.LEAST_LOADED ? leastLoadedReplica() : Math.floorMod(counter.getAndIncrement(), replicas.size());
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (DataSource replica : replicas) {
+            if (replica instanceof Closeable) {
+                ((Closeable) replica).close();
+            }
+        }
+    }
+
+    private int leastLoadedReplica() {
+        int leastLoaded = 0;
+        int lowestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            int load = load(replicas.get(i));
+            if (load < lowestLoad) {
+                leastLoaded = i;
+                lowestLoad = load;
+            }
+        }
+        return leastLoaded;
+    }
+
+    // Connections in use plus threads waiting for one; a pool that hasn't started yet has no load
+    private static int load(DataSource dataSource) {
+        try {
+            HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections() + pool.getThreadsAwaitingConnection();
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.mycompany.userservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties("app.datasource.routing")
+public class ReplicaRoutingProperties {
+
+    private boolean enabled;
+
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+
+    /**
+     * How long a client that changed a user keeps reading from the primary.
+     */
+    private Duration readYourWritesWindow = Duration.ofSeconds(5);
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+
+    public enum Strategy {
+        ROUND_ROBIN, LEAST_LOADED
+    }
+}
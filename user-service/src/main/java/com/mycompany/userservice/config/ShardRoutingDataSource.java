@@ -0,0 +1,110 @@
+package com.mycompany.userservice.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Sends the connections of the current thread to the shard chosen with {@link #callOn}, and to the directory database
+ * otherwise. The directory holds everything that isn't sharded: the {@code user_directory} table, the outbox the
+ * relay reads from and the idempotency keys.
+ * <p>
+ * A transaction keeps the connection it started with, so the shard has to be chosen before the transaction starts, and
+ * this data source has to sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    static final String DIRECTORY = "directory";
+
+    private static final ThreadLocal<String> currentShard = new ThreadLocal<>();
+
+    private final Map<String, DataSource> shards;
+
+    public ShardRoutingDataSource(DataSource directory, Map<String, DataSource> shards) {
+        this.shards = new LinkedHashMap<>(shards);
+        Map<Object, Object> targetDataSources = new HashMap<>(shards);
+        targetDataSources.put(DIRECTORY, directory);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(directory);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Runs the action with the connections of the current thread going to the shard, and restores the previous shard
+     * afterwards.
+     */
+    public static <T> T callOn(String shard, Supplier<T> action) {
+        String previous = currentShard.get();
+        currentShard.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                currentShard.remove();
+            } else {
+                currentShard.set(previous);
+            }
+        }
+    }
+
+    public static void runOn(String shard, Runnable action) {
+        callOn(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the action with the connections of the current thread going to the directory, e.g. from within a shard
+     * transaction, and restores the previous shard afterwards. A transaction begun by the action has to be a new one.
+     */
+    public static <T> T callOnDirectory(Supplier<T> action) {
+        return callOn(null, action);
+    }
+
+    static String currentShard() {
+        return currentShard.get();
+    }
+
+    /**
+     * @return the names of the shards, in the order they are configured
+     */
+    public List<String> getShardNames() {
+        return new ArrayList<>(shards.keySet());
+    }
+
+    /**
+     * @return the pool of the shard itself, for the work that spans two shards at once, e.g. moving a user
+     */
+    public DataSource getShard(String name) {
+        DataSource shard = shards.get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException(String.format("There is no shard '%s'", name));
+        }
+        return shard;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String shard = currentShard.get();
+        return shard == null ? DIRECTORY : shard;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (DataSource shard : shards.values()) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.mycompany.userservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Horizontal sharding of the {@code users} table, enabled with {@code app.datasource.sharding.enabled}.
+ * {@code spring.datasource} configures the directory database and {@code app.datasource.sharding.shards} the shards,
+ * which share the pool settings of the directory and get the same Flyway migrations at startup. A
+ * {@link ConsistentHashRing} over the shard names places the new users, and the {@code user_directory} table records
+ * where each user is, see {@code ShardedUserServiceImpl}.
+ * <p>
+ * Like {@link ReplicaRoutingConfig}, it needs {@code spring.jpa.open-in-view} to be off: an entity manager kept open for
+ * the whole request would send every query of the request to the shard of its first transaction.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "true")
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource directoryDataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("directory");
+        return dataSource;
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(@Qualifier("directoryDataSource") DataSource directoryDataSource,
+                                                         ShardingProperties properties,
+                                                         ObjectProvider<FlywayProperties> flywayProperties,
+                                                         ObjectProvider<MeterRegistry> meterRegistry) throws SQLException {
+        if (properties.getShards().isEmpty()) {
+            throw new IllegalStateException("Sharding is enabled, but app.datasource.sharding.shards is empty");
+        }
+        HikariDataSource directory = directoryDataSource.unwrap(HikariDataSource.class);
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        for (ShardingProperties.Shard shard : properties.getShards()) {
+            if (!StringUtils.hasText(shard.getName())) {
+                throw new IllegalStateException("Every shard of app.datasource.sharding.shards needs a name");
+            }
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(shard.getUrl())
+                    .username(shard.getUsername())
+                    .password(shard.getPassword())
+                    .build();
+            dataSource.setPoolName("shard-" + shard.getName());
+            if (directory.getMaximumPoolSize() > 0) {
+                dataSource.setMaximumPoolSize(directory.getMaximumPoolSize());
+            }
+            dataSource.setConnectionTimeout(directory.getConnectionTimeout());
+            // The shards aren't beans, so the pool metrics of Spring Boot don't cover them
+            meterRegistry.ifAvailable(dataSource::setMetricRegistry);
+            // Spring Boot only migrates the directory
+            flywayProperties.ifAvailable(flyway -> {
+                if (flyway.isEnabled()) {
+                    migrate(dataSource, flyway);
+                }
+            });
+            shards.put(shard.getName(), dataSource);
+        }
+        return new ShardRoutingDataSource(directoryDataSource, shards);
+    }
+
+    @Primary
+    @Bean
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public ConsistentHashRing consistentHashRing(ShardingProperties properties) {
+        return new ConsistentHashRing(
+                properties.getShards().stream().map(ShardingProperties.Shard::getName).collect(Collectors.toList()),
+                properties.getVirtualNodes());
+    }
+
+    private static void migrate(DataSource shard, FlywayProperties flywayProperties) {
+        Flyway.configure()
+                .dataSource(shard)
+                .locations(flywayProperties.getLocations().toArray(new String[0]))
+                .baselineOnMigrate(flywayProperties.isBaselineOnMigrate())
+                .load()
+                .migrate();
+    }
+}
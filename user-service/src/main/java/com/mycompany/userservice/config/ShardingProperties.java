@@ -0,0 +1,34 @@
+package com.mycompany.userservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties("app.datasource.sharding")
+public class ShardingProperties {
+
+    private boolean enabled;
+
+    /**
+     * Points of each shard on the hash ring. More points spread the ids more evenly.
+     */
+    private int virtualNodes = 64;
+
+    /**
+     * Whether the users that the ring places on another shard, e.g. after a shard is added, are moved at startup.
+     */
+    private boolean rebalanceOnStartup = true;
+
+    private List<Shard> shards = new ArrayList<>();
+
+    @Data
+    public static class Shard {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+    }
+}
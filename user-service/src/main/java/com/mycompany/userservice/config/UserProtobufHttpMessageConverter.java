@@ -0,0 +1,124 @@
+package com.mycompany.userservice.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.protobuf.schema.NativeProtobufSchema;
+import com.fasterxml.jackson.dataformat.protobuf.schema.ProtobufSchemaLoader;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserResponse;
+import lombok.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the user requests and writes the user responses as {@code application/x-protobuf}, with the messages of
+ * {@code proto/user.proto}. A {@code List<UserResponse>} is written as a {@code UserResponseList}. The mapping is done
+ * by Jackson, from the same properties as the JSON, so the DTOs don't need generated classes.
+ */
+public class UserProtobufHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+
+    private static final String SCHEMA = "proto/user.proto";
+    private static final ResolvableType USER_RESPONSE_LIST = ResolvableType.forClassWithGenerics(List.class, UserResponse.class);
+
+    private final Map<Class<?>, ObjectReader> readers;
+    private final Map<Class<?>, ObjectWriter> writers;
+    private final ObjectWriter userResponseListWriter;
+
+    /**
+     * @param objectMapper a mapper with a {@code ProtobufFactory}
+     */
+    public UserProtobufHttpMessageConverter(ObjectMapper objectMapper) {
+        super(APPLICATION_PROTOBUF);
+        NativeProtobufSchema schema = loadSchema();
+        readers = Map.of(
+                CreateUserRequest.class, objectMapper.readerFor(CreateUserRequest.class).with(schema.forType("CreateUserRequest")),
+                UpdateUserRequest.class, objectMapper.readerFor(UpdateUserRequest.class).with(schema.forType("UpdateUserRequest")));
+        writers = Map.of(
+                UserResponse.class, objectMapper.writerFor(UserResponse.class).with(schema.forType("UserResponse")),
+                CreateUserRequest.class, objectMapper.writerFor(CreateUserRequest.class).with(schema.forType("CreateUserRequest")),
+                UpdateUserRequest.class, objectMapper.writerFor(UpdateUserRequest.class).with(schema.forType("UpdateUserRequest")));
+        userResponseListWriter = objectMapper.writerFor(UserResponseList.class).with(schema.forType("UserResponseList"));
+    }
+
+    public static NativeProtobufSchema loadSchema() {
+        try (InputStream inputStream = new ClassPathResource(SCHEMA).getInputStream()) {
+            return ProtobufSchemaLoader.std.loadNative(inputStream, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load " + SCHEMA, e);
+        }
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return writers.containsKey(clazz);
+    }
+
+    @Override
+    public boolean canRead(Type type, @Nullable Class<?> contextClass, @Nullable MediaType mediaType) {
+        return readers.containsKey(type) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(@Nullable Type type, Class<?> clazz, @Nullable MediaType mediaType) {
+        if (!canWrite(mediaType)) {
+            return false;
+        }
+        return writers.containsKey(clazz) || type != null && USER_RESPONSE_LIST.isAssignableFrom(ResolvableType.forType(type));
+    }
+
+    // Asked with the class of the body alone: a List is told apart by its element type in canWrite
+    @Override
+    public List<MediaType> getSupportedMediaTypes(Class<?> clazz) {
+        return List.class.isAssignableFrom(clazz) ? getSupportedMediaTypes() : super.getSupportedMediaTypes(clazz);
+    }
+
+    @Override
+    public Object read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        return readInternal((Class<?>) type, inputMessage);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return readers.get(clazz).readValue(inputMessage.getBody());
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Protobuf parse error: " + e.getOriginalMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object object, @Nullable Type type, HttpOutputMessage outputMessage) throws IOException {
+        // The generator buffers the whole message anyway, to prefix the nested ones with their length
+        byte[] body = object instanceof List
+                ? userResponseListWriter.writeValueAsBytes(new UserResponseList((List<UserResponse>) object))
+                : writers.get(object.getClass()).writeValueAsBytes(object);
+        outputMessage.getHeaders().setContentLength(body.length);
+        StreamUtils.copy(body, outputMessage.getBody());
+    }
+
+    @Value
+    static class UserResponseList {
+
+        List<UserResponse> users;
+    }
+}
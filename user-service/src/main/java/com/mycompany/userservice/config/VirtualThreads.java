@@ -0,0 +1,61 @@
+package com.mycompany.userservice.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21+. The application is built for Java 11, so the API is looked up
+ * reflectively and {@link #isAvailable()} tells whether the running JVM has it.
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method BUILDER_NAME = findMethod(findClass("java.lang.Thread$Builder"), "name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = findMethod(findClass("java.lang.Thread$Builder"), "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread, named {@code prefix} followed by a counter, per task.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        if (!isAvailable()) {
+            throw new IllegalStateException(String.format("Virtual threads need Java 21 or later, running on %s.", Runtime.version()));
+        }
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor.", e);
+        }
+    }
+
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
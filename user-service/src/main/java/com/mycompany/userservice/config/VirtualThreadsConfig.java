@@ -0,0 +1,72 @@
+package com.mycompany.userservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Runs the blocking request path on virtual threads when {@code app.virtual-threads.enabled} is set: Tomcat handles
+ * each request on a new virtual thread, and the application task executor, which also runs the asynchronous MVC
+ * requests, does the same for background work.
+ * <p>
+ * The JDBC driver blocks inside {@code synchronized} blocks, which pins the virtual thread to its carrier, so the
+ * Hikari pool should not be larger than the number of carrier threads (the number of cores by default). Callers
+ * beyond the pool size wait in {@link FairDataSource}.
+ */
+@Slf4j
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "app.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    private static final int DEFAULT_POOL_SIZE = 10;
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        log.info("Handling requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-vt-"));
+    }
+
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(VirtualThreads.newThreadPerTaskExecutor("task-vt-"));
+    }
+
+    @Bean
+    public MeterBinder fairDataSourceMetrics(DataSource dataSource) throws SQLException {
+        if (!dataSource.isWrapperFor(FairDataSource.class)) {
+            return registry -> {
+            };
+        }
+        FairDataSource fairDataSource = dataSource.unwrap(FairDataSource.class);
+        return registry -> Gauge.builder("user.datasource.pending", fairDataSource, FairDataSource::getQueueLength)
+                .description("Threads waiting for a connection in front of the pool")
+                .register(registry);
+    }
+
+    @Bean
+    public static BeanPostProcessor fairDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    HikariDataSource dataSource = (HikariDataSource) bean;
+                    int maxConnections = dataSource.getMaximumPoolSize() > 0 ? dataSource.getMaximumPoolSize() : DEFAULT_POOL_SIZE;
+                    return new FairDataSource(dataSource, maxConnections, dataSource.getConnectionTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package com.mycompany.userservice.controller;
+
+import com.mycompany.userservice.dto.CreateUserBatchRequest;
+import com.mycompany.userservice.dto.CreateUserBatchResponse;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.handler.MyErrorAttributes.ErrorCode;
+import com.mycompany.userservice.mapper.UserMapper;
+import com.mycompany.userservice.service.ReactiveUserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+
+/**
+ * WebFlux version of {@link UserController}, active with the {@code reactive} profile. It serves a subset of its
+ * contract, in JSON only: the listing and NDJSON stream of the users, the lookup by username, create, batch create,
+ * update and delete, with the same error payloads. The responses of a single user carry the same ETags, so
+ * {@code If-None-Match} and {@code If-Match} work as there. The lookups by ids, search, suggest, export, import, the
+ * change feed, {@code Idempotency-Key} and {@code Prefer: return=minimal} aren't served.
+ */
+@Profile("reactive")
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/users")
+public class ReactiveUserController {
+
+    private final ReactiveUserService userService;
+    private final UserMapper userMapper;
+
+    @GetMapping
+    public Flux<UserResponse> getUsers(@RequestParam(defaultValue = "0") Long after,
+                                       @RequestParam(defaultValue = "" + UserController.DEFAULT_LIMIT) int limit) {
+        return userService.getUsers(after, Math.max(1, Math.min(limit, UserController.MAX_LIMIT)))
+                .map(userMapper::toUserResponse);
+    }
+
+    @GetMapping(params = "stream=true", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<UserResponse> streamUsers() {
+        return userService.streamUsers().map(userMapper::toUserResponse);
+    }
+
+    // WebFlux answers 304 Not Modified itself when If-None-Match has the ETag of the response
+    @GetMapping("/username/{username}")
+    public Mono<ResponseEntity<UserResponse>> getUserByUsername(@PathVariable String username) {
+        return userService.validateAndGetUserByUsername(username)
+                .map(user -> ResponseEntity.ok().eTag(UserController.eTag(user)).body(userMapper.toUserResponse(user)));
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<UserResponse>> createUser(@Valid @RequestBody CreateUserRequest createUserRequest) {
+        return userService.saveUser(userMapper.toUser(createUserRequest))
+                .map(user -> ResponseEntity.status(HttpStatus.CREATED).eTag(UserController.eTag(user))
+                        .body(userMapper.toUserResponse(user)));
+    }
+
+    @PostMapping("/batch")
+    public Mono<CreateUserBatchResponse> createUsers(@Valid @RequestBody CreateUserBatchRequest createUserBatchRequest) {
+        return Flux.fromIterable(createUserBatchRequest.getUsers())
+                .index()
+                .concatMap(indexed -> {
+                    int index = indexed.getT1().intValue();
+                    return userService.saveUser(userMapper.toUser(indexed.getT2()))
+                            .map(user -> new CreateUserBatchResponse.Item(index, HttpStatus.CREATED.value(),
+                                    userMapper.toUserResponse(user), null, null))
+                            .onErrorResume(UserDataDuplicatedException.class, e -> Mono.just(
+                                    new CreateUserBatchResponse.Item(index, HttpStatus.CONFLICT.value(), null,
+                                            ErrorCode.USER_DATA_DUPLICATED.getDescription(), UserDataDuplicatedException.MESSAGE)));
+                })
+                .collectList()
+                .map(items -> {
+                    int created = (int) items.stream().filter(item -> item.getUser() != null).count();
+                    return new CreateUserBatchResponse(created, items.size() - created, items);
+                });
+    }
+
+    /**
+     * With an {@code If-Match} ETag, the update only happens if nobody changed the user since that ETag was issued,
+     * otherwise it answers {@code 412 Precondition Failed}.
+     */
+    @PutMapping("/{id}")
+    public Mono<ResponseEntity<UserResponse>> updateUser(@PathVariable Long id,
+                                                         @Valid @RequestBody UpdateUserRequest updateUserRequest,
+                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = UserController.expectedVersion(id, ifMatch);
+        return userService.validateAndGetUserById(id)
+                .flatMap(user -> {
+                    userMapper.updateUserFromRequest(updateUserRequest, user);
+                    return userService.updateUser(user, expectedVersion);
+                })
+                .map(user -> ResponseEntity.ok().eTag(UserController.eTag(user)).body(userMapper.toUserResponse(user)));
+    }
+
+    /**
+     * {@code If-Match} works as in {@link #updateUser}.
+     */
+    @DeleteMapping("/{id}")
+    public Mono<UserResponse> deleteUser(@PathVariable Long id,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = UserController.expectedVersion(id, ifMatch);
+        return userService.validateAndGetUserById(id)
+                .flatMap(user -> userService.deleteUser(user, expectedVersion).thenReturn(user))
+                .map(userMapper::toUserResponse);
+    }
+}
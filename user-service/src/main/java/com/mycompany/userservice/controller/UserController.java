@@ -1,69 +1,528 @@
 package com.mycompany.userservice.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mycompany.userservice.dto.CreateUserBatchRequest;
+import com.mycompany.userservice.dto.CreateUserBatchResponse;
 import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.IdempotentResponse;
 import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserImportResponse;
+import com.mycompany.userservice.dto.UserLookupRequest;
+import com.mycompany.userservice.dto.UserLookupResponse;
 import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.dto.UsernameSuggestion;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.handler.MyErrorAttributes.ErrorCode;
+import com.mycompany.userservice.handler.UserNotFoundResponses;
 import com.mycompany.userservice.mapper.UserMapper;
 import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.service.IdempotencyService;
+import com.mycompany.userservice.service.UserChangeBroadcaster;
+import com.mycompany.userservice.service.UserChangeFeed;
+import com.mycompany.userservice.service.UserImporter;
+import com.mycompany.userservice.service.UserImporter.Format;
 import com.mycompany.userservice.service.UserService;
+import com.mycompany.userservice.service.UsernameIndex;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
+@Profile("!reactive")
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
 
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+    static final int DEFAULT_SUGGEST_LIMIT = 10;
+    static final int MAX_SUGGEST_LIMIT = 100;
+    static final int DEFAULT_CHANGES_WAIT = 30;
+    static final int MAX_CHANGES_WAIT = 60;
+
+    private static final String PREFER = "Prefer";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String LAST_EVENT_ID = "Last-Event-ID";
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final String RETURN_MINIMAL = "return=minimal";
+
+    private static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    private static final String CSV_HEADER = "id,username,email,birthday\r\n";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     private final UserService userService;
+    private final UserImporter userImporter;
+    private final UserChangeFeed userChangeFeed;
+    private final UserChangeBroadcaster userChangeBroadcaster;
+    private final IdempotencyService idempotencyService;
+    private final UsernameIndex usernameIndex;
+    private final UserNotFoundResponses userNotFoundResponses;
     private final UserMapper userMapper;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public List<UserResponse> getUsers() {
-        return userService.getUsers()
-                .stream()
-                .map(userMapper::toUserResponse)
-                .collect(Collectors.toList());
+    public List<UserResponse> getUsers(@RequestParam(defaultValue = "0") Long after,
+                                       @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit) {
+        return userService.getUsers(after, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    /**
+     * Returns the users with the given ids in one round trip, e.g. {@code ?ids=1,2,3}, in the order of the ids. Ids
+     * without a user are reported in {@code missing} instead of failing the request. To look up more ids than fit in a
+     * URL, or users by username or email, see {@link #lookupUsers}.
+     */
+    @GetMapping(params = "ids")
+    public UserLookupResponse getUsersByIds(@RequestParam List<Long> ids) {
+        return lookup(new UserLookupRequest(ids, Collections.emptyList(), Collections.emptyList()));
+    }
+
+    /**
+     * Returns the users with any of the given ids, usernames or emails, up to a thousand of each, in one round trip.
+     * The users come in the order of the request, first the ones found by id, then by username and then by email. The
+     * users cached are taken from the cache, and the rest are fetched with one {@code IN} query per kind of key and
+     * 512 keys. The keys without a user are reported in {@code missing} instead of failing the request.
+     */
+    @PostMapping("/lookup")
+    public UserLookupResponse lookupUsers(@Valid @RequestBody UserLookupRequest userLookupRequest) {
+        return lookup(userLookupRequest);
+    }
+
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamUsers(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        boolean ndjson = accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype);
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(outputStream -> writeJson(outputStream, 0L, ndjson));
+    }
+
+    /**
+     * Exports the users with an id greater than {@code after} as NDJSON, one user per line and ordered by id. The users
+     * are written as they are read over a database cursor, gzipped on the fly with {@code gzip=true}, so the memory used
+     * doesn't depend on the size of the table. An interrupted export is resumed by passing the id of the last user
+     * received as {@code after}.
+     */
+    @GetMapping(value = "/export", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> exportUsersAsNdjson(@RequestParam(defaultValue = "0") Long after,
+                                                                    @RequestParam(defaultValue = "false") boolean gzip) {
+        return export(MediaType.APPLICATION_NDJSON, "users.ndjson", gzip,
+                outputStream -> writeJson(outputStream, after, true));
+    }
+
+    /**
+     * Exports the users as CSV, with an {@code id,username,email,birthday} header. Works as {@link #exportUsersAsNdjson}
+     * otherwise, the header is written again when an export is resumed.
+     */
+    @GetMapping(value = "/export", params = "format=csv")
+    public ResponseEntity<StreamingResponseBody> exportUsersAsCsv(@RequestParam(defaultValue = "0") Long after,
+                                                                 @RequestParam(defaultValue = "false") boolean gzip) {
+        return export(TEXT_CSV, "users.csv", gzip, outputStream -> writeCsv(outputStream, after));
+    }
+
+    /**
+     * Filters by username prefix, email domain and birthday range, all optional and combined with and. Pages work as in
+     * {@link #getUsers}: the next page starts after the id of the last user returned.
+     */
+    @GetMapping("/search")
+    public List<UserResponse> searchUsers(@RequestParam(required = false) String usernamePrefix,
+                                          @RequestParam(required = false) String emailDomain,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate birthdayFrom,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate birthdayTo,
+                                          @RequestParam(defaultValue = "0") Long after,
+                                          @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit) {
+        return userService.searchUsers(usernamePrefix, emailDomain, birthdayFrom, birthdayTo, after,
+                Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    /**
+     * Suggests the users whose username starts with {@code prefix}, ignoring the case of ASCII letters, ordered by
+     * username. Answered from the in-memory {@link UsernameIndex}, fast enough to be called on every keystroke.
+     */
+    @GetMapping("/suggest")
+    public List<UsernameSuggestion> suggestUsernames(@RequestParam String prefix,
+                                                     @RequestParam(defaultValue = "" + DEFAULT_SUGGEST_LIMIT) int limit) {
+        return usernameIndex.suggest(prefix, Math.max(1, Math.min(limit, MAX_SUGGEST_LIMIT)));
+    }
+
+    /**
+     * Returns the changes with a sequence number greater than {@code since}, in sequence order: consumers pass the
+     * sequence number of the last change they got to poll for the next ones. When there are none yet, the request waits
+     * up to {@code wait} seconds for new changes and then returns an empty list.
+     */
+    @GetMapping("/changes")
+    public DeferredResult<List<UserChangeEvent>> getChanges(@RequestParam(defaultValue = "0") long since,
+                                                            @RequestParam(defaultValue = "" + DEFAULT_LIMIT) int limit,
+                                                            @RequestParam(defaultValue = "" + DEFAULT_CHANGES_WAIT) int wait) {
+        return userChangeFeed.getChanges(since, Math.max(1, Math.min(limit, MAX_LIMIT)),
+                Duration.ofSeconds(Math.max(0, Math.min(wait, MAX_CHANGES_WAIT))));
+    }
+
+    /**
+     * Pushes the changes as Server-Sent Events, named after their operation and identified by their sequence number.
+     * Without {@code since} or {@code Last-Event-ID} only the changes published from now on are sent. A subscriber that
+     * falls too far behind gets a {@code resync} event and is disconnected, see {@link UserChangeBroadcaster}.
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeToChanges(@RequestParam(required = false) Long since,
+                                         @RequestHeader(value = LAST_EVENT_ID, required = false) Long lastEventId) {
+        return userChangeBroadcaster.subscribe(since != null ? since : lastEventId);
+    }
+
+    /**
+     * Imports the users of a CSV body whose header names a {@code username}, an {@code email} and optionally a
+     * {@code birthday} column, e.g. an export. The rows are validated like in {@link #createUser} and written in
+     * multi-row batches while the body is read. Invalid rows and rows whose username or email is taken are skipped and
+     * reported by number; the response comes once every row is processed.
+     */
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public UserImportResponse importUsersFromCsv(InputStream inputStream) throws IOException {
+        return userImporter.importUsers(inputStream, Format.CSV);
+    }
+
+    /**
+     * Imports the users of an NDJSON body, one {@link CreateUserRequest} per line. Works as {@link #importUsersFromCsv}
+     * otherwise.
+     */
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public UserImportResponse importUsersFromNdjson(InputStream inputStream) throws IOException {
+        return userImporter.importUsers(inputStream, Format.NDJSON);
+    }
+
+    /**
+     * Lists the imports that are running, with their progress and throughput, and the ones finished in the last hour.
+     */
+    @GetMapping("/import")
+    public List<UserImportResponse> getImports() {
+        return userImporter.getImports();
+    }
+
+    @GetMapping("/import/{id}")
+    public ResponseEntity<UserImportResponse> getImport(@PathVariable String id) {
+        return ResponseEntity.of(userImporter.getImport(id));
     }
 
+    /**
+     * Answers {@code 304 Not Modified}, without a body, when the client sends the current ETag of the user in
+     * {@code If-None-Match}. The ETag comes from the user cache, so polling an unchanged user doesn't hit the database.
+     * <p>
+     * Availability checks probe this endpoint mostly with usernames that don't exist, so their {@code 404} is built
+     * directly, with the same body as the error page, and the missing usernames are cached for a short while.
+     */
     @GetMapping("/username/{username}")
-    public UserResponse getUserByUsername(@PathVariable String username) {
-        User user = userService.validateAndGetUserByUsername(username);
-        return userMapper.toUserResponse(user);
+    public ResponseEntity<?> getUserByUsername(@PathVariable String username, HttpServletRequest request) {
+        Optional<User> userOptional = userService.findUserByUsername(username);
+        if (userOptional.isEmpty()) {
+            return userNotFoundResponses.notFound(UserNotFoundException.messageForUsername(username),
+                    request.getRequestURI());
+        }
+        User user = userOptional.get();
+        return ResponseEntity.ok().eTag(eTag(user)).body(userMapper.toUserResponse(user));
     }
 
-    @ResponseStatus(HttpStatus.CREATED)
+    /**
+     * Creates the user. A client that may retry sends an {@code Idempotency-Key}: a retry with the same key and body
+     * gets the response of the first request, marked with {@code Idempotent-Replayed: true}, and doesn't create the user
+     * again. See {@link IdempotencyService}.
+     */
     @PostMapping
-    public UserResponse createUser(@Valid @RequestBody CreateUserRequest createUserRequest) {
-        User user = userMapper.toUser(createUserRequest);
-        user = userService.saveUser(user);
-        return userMapper.toUserResponse(user);
+    public ResponseEntity<UserResponse> createUser(@Valid @RequestBody CreateUserRequest createUserRequest,
+                                                   @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            IdempotentResponse response = saveUser(createUserRequest);
+            return ResponseEntity.status(HttpStatus.CREATED).eTag(response.getETag()).body(response.getUser());
+        }
+        AtomicBoolean executed = new AtomicBoolean();
+        IdempotentResponse response = idempotencyService.execute(idempotencyKey, createUserRequest, () -> {
+            IdempotentResponse created = saveUser(createUserRequest);
+            executed.set(true);
+            return created;
+        }, () -> findCreatedUser(createUserRequest));
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.CREATED).eTag(response.getETag());
+        if (!executed.get()) {
+            builder.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return builder.body(response.getUser());
+    }
+
+    @PostMapping("/batch")
+    public CreateUserBatchResponse createUsers(@Valid @RequestBody CreateUserBatchRequest createUserBatchRequest) {
+        List<User> users = createUserBatchRequest.getUsers()
+                .stream()
+                .map(userMapper::toUser)
+                .collect(Collectors.toList());
+        users = userService.saveUsers(users);
+
+        List<CreateUserBatchResponse.Item> items = new ArrayList<>(users.size());
+        int created = 0;
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (user.getId() != null) {
+                created++;
+                items.add(new CreateUserBatchResponse.Item(i, HttpStatus.CREATED.value(),
+                        userMapper.toUserResponse(user), null, null));
+            } else {
+                items.add(new CreateUserBatchResponse.Item(i, HttpStatus.CONFLICT.value(), null,
+                        ErrorCode.USER_DATA_DUPLICATED.getDescription(), UserDataDuplicatedException.MESSAGE));
+            }
+        }
+        return new CreateUserBatchResponse(created, users.size() - created, items);
     }
 
+    /**
+     * Updates the user in a single statement. The updated user is read back only if the client wants it in the
+     * response, i.e. unless it sends {@code Prefer: return=minimal}. With an {@code If-Match} ETag, the update only
+     * happens if nobody changed the user since that ETag was issued, otherwise it answers
+     * {@code 412 Precondition Failed}.
+     */
     @PutMapping("/{id}")
-    public UserResponse updateUser(@PathVariable Long id, @Valid @RequestBody UpdateUserRequest updateUserRequest) {
+    public ResponseEntity<UserResponse> updateUser(@PathVariable Long id,
+                                                   @Valid @RequestBody UpdateUserRequest updateUserRequest,
+                                                   @RequestHeader(value = PREFER, required = false) String prefer,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = expectedVersion(id, ifMatch);
+        userService.updateUser(id, expectedVersion, userMapper.toUser(updateUserRequest));
+        if (isReturnMinimal(prefer)) {
+            ResponseEntity.HeadersBuilder<?> builder = ResponseEntity.noContent().header(PREFERENCE_APPLIED, RETURN_MINIMAL);
+            if (expectedVersion != null) {
+                builder.eTag(eTag(id, expectedVersion + 1));
+            }
+            return builder.build();
+        }
         User user = userService.validateAndGetUserById(id);
-        userMapper.updateUserFromRequest(updateUserRequest, user);
-        user = userService.saveUser(user);
-        return userMapper.toUserResponse(user);
+        return ResponseEntity.ok().eTag(eTag(user)).body(userMapper.toUserResponse(user));
     }
 
+    /**
+     * Deletes the user in a single statement. The user is looked up first only if the client wants it in the response,
+     * i.e. unless it sends {@code Prefer: return=minimal}. {@code If-Match} works as in {@link #updateUser}.
+     */
     @DeleteMapping("/{id}")
-    public UserResponse deleteUser(@PathVariable Long id) {
+    public ResponseEntity<UserResponse> deleteUser(@PathVariable Long id,
+                                                   @RequestHeader(value = PREFER, required = false) String prefer,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = expectedVersion(id, ifMatch);
+        if (isReturnMinimal(prefer)) {
+            userService.deleteUserById(id, expectedVersion);
+            return noContent();
+        }
         User user = userService.validateAndGetUserById(id);
-        userService.deleteUser(user);
-        return userMapper.toUserResponse(user);
+        userService.deleteUserById(id, expectedVersion);
+        return ResponseEntity.ok(userMapper.toUserResponse(user));
+    }
+
+    private IdempotentResponse saveUser(CreateUserRequest createUserRequest) {
+        User user = userService.saveUser(userMapper.toUser(createUserRequest));
+        return new IdempotentResponse(userMapper.toUserResponse(user), eTag(user));
+    }
+
+    // The user an earlier attempt of the request created, if it still has the username, email and birthday it asked for
+    private Optional<IdempotentResponse> findCreatedUser(CreateUserRequest createUserRequest) {
+        return userService.findUserByUsername(createUserRequest.getUsername())
+                .filter(user -> user.getEmail().equals(createUserRequest.getEmail())
+                        && Objects.equals(user.getBirthday(), createUserRequest.getBirthday()))
+                .map(user -> new IdempotentResponse(userMapper.toUserResponse(user), eTag(user)));
+    }
+
+    private UserLookupResponse lookup(UserLookupRequest request) {
+        List<Long> ids = distinct(request.getIds());
+        List<String> usernames = distinct(request.getUsernames());
+        List<String> emails = distinct(request.getEmails());
+        List<UserResponse> users = new ArrayList<>(ids.size() + usernames.size() + emails.size());
+        List<Long> missingIds = ids.isEmpty() ? ids : addInOrder(ids, userService.getUsersByIds(ids), users);
+        List<String> missingUsernames = usernames.isEmpty() ? usernames
+                : addInOrder(usernames, userService.getUsersByUsernames(usernames), users);
+        List<String> missingEmails = emails.isEmpty() ? emails
+                : addInOrder(emails, userService.getUsersByEmails(emails), users);
+        return new UserLookupResponse(users,
+                new UserLookupResponse.Missing(missingIds, missingUsernames, missingEmails));
+    }
+
+    private static <K> List<K> distinct(List<K> keys) {
+        return keys == null ? Collections.emptyList() : new ArrayList<>(new LinkedHashSet<>(keys));
+    }
+
+    /**
+     * Adds the users found to {@code users}, in the order of the keys.
+     *
+     * @return the keys without a user
+     */
+    private <K> List<K> addInOrder(List<K> keys, Map<K, User> found, List<UserResponse> users) {
+        List<K> missing = new ArrayList<>();
+        for (K key : keys) {
+            User user = found.get(key);
+            if (user != null) {
+                users.add(userMapper.toUserResponse(user));
+            } else {
+                missing.add(key);
+            }
+        }
+        return missing;
+    }
+
+    // Strong ETag, the version is bumped by every update
+    static String eTag(User user) {
+        return eTag(user.getId(), user.getVersion());
+    }
+
+    private static String eTag(Long id, long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    /**
+     * @return the version in the first {@code If-Match} ETag of the user, or {@code null} if any version is accepted
+     * @throws UserVersionMismatchException if none of the ETags belongs to the user, e.g. it's weak or of another user
+     */
+    static Long expectedVersion(Long id, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String prefix = "\"" + id + "-";
+        for (String eTag : ifMatch.split(",")) {
+            eTag = eTag.trim();
+            if (eTag.startsWith(prefix) && eTag.endsWith("\"") && eTag.length() > prefix.length() + 1) {
+                try {
+                    return Long.valueOf(eTag.substring(prefix.length(), eTag.length() - 1));
+                } catch (NumberFormatException ignored) {
+                    // not one of our ETags
+                }
+            }
+        }
+        throw new UserVersionMismatchException(String.format("User with id '%s' doesn't match '%s'.", id, ifMatch));
+    }
+
+    private static boolean isReturnMinimal(String prefer) {
+        return prefer != null && Arrays.stream(prefer.split(","))
+                .anyMatch(preference -> RETURN_MINIMAL.equalsIgnoreCase(preference.trim()));
+    }
+
+    private static ResponseEntity<UserResponse> noContent() {
+        return ResponseEntity.noContent().header(PREFERENCE_APPLIED, RETURN_MINIMAL).build();
+    }
+
+    private static ResponseEntity<StreamingResponseBody> export(MediaType mediaType, String filename, boolean gzip,
+                                                                StreamingResponseBody body) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString());
+        if (!gzip) {
+            return builder.body(body);
+        }
+        return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(outputStream -> {
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(StreamUtils.nonClosing(outputStream),
+                    EXPORT_BUFFER_SIZE)) {
+                body.writeTo(gzipOutputStream);
+            }
+        });
+    }
+
+    private void writeCsv(OutputStream outputStream, Long after) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(StreamUtils.nonClosing(outputStream),
+                StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE)) {
+            writer.write(CSV_HEADER);
+            userService.streamUsers(after, user -> {
+                try {
+                    writer.write(String.valueOf(user.getId()));
+                    writer.write(',');
+                    writeCsvField(writer, user.getUsername());
+                    writer.write(',');
+                    writeCsvField(writer, user.getEmail());
+                    writer.write(',');
+                    if (user.getBirthday() != null) {
+                        writer.write(user.getBirthday().toString());
+                    }
+                    writer.write("\r\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    // RFC 4180: a field with a separator, a quote or a line break is quoted, and its quotes are doubled
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == '\r' || c == '\n')) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private void writeJson(OutputStream outputStream, Long after, boolean ndjson) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(UserResponse.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            if (!ndjson) {
+                generator.writeStartArray();
+            }
+            userService.streamUsers(after, user -> {
+                try {
+                    writer.writeValue(generator, user);
+                    if (ndjson) {
+                        generator.writeRaw('\n');
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+        }
     }
 }
@@ -0,0 +1,20 @@
+package com.mycompany.userservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateUserBatchRequest {
+
+    @NotEmpty
+    @Size(max = 10000)
+    private List<@Valid CreateUserRequest> users;
+}
@@ -0,0 +1,25 @@
+package com.mycompany.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class CreateUserBatchResponse {
+
+    int created;
+    int failed;
+    List<Item> items;
+
+    @Value
+    @JsonInclude(Include.NON_NULL)
+    public static class Item {
+        int index;
+        int status;
+        UserResponse user;
+        String errorCode;
+        String message;
+    }
+}
@@ -10,6 +10,7 @@ import lombok.NoArgsConstructor;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Past;
+import javax.validation.constraints.Size;
 import java.time.LocalDate;
 
 @Data
@@ -19,11 +20,13 @@ public class CreateUserRequest {
 
     @Schema(example = "ivan.franchin")
     @NotBlank
+    @Size(max = 255)
     private String username;
 
     @Schema(example = "ivan.franchin@test.com")
     @NotBlank
     @Email
+    @Size(max = 255)
     private String email;
 
     @Schema(example = "2001-01-01")
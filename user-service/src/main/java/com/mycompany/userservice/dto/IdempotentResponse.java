@@ -0,0 +1,13 @@
+package com.mycompany.userservice.dto;
+
+import lombok.Value;
+
+/**
+ * The response to a request made with an {@code Idempotency-Key}, kept to be replayed to the retries.
+ */
+@Value
+public class IdempotentResponse {
+
+    UserResponse user;
+    String eTag;
+}
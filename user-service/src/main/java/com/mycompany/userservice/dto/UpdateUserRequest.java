@@ -9,6 +9,7 @@ import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.Past;
+import javax.validation.constraints.Size;
 import java.time.LocalDate;
 
 @Data
@@ -17,10 +18,12 @@ import java.time.LocalDate;
 public class UpdateUserRequest {
 
     @Schema(example = "ivan2.franchin")
+    @Size(max = 255)
     private String username;
 
     @Schema(example = "ivan2.franchin@test.com")
     @Email
+    @Size(max = 255)
     private String email;
 
     @Schema(example = "2002-02-02")
@@ -0,0 +1,19 @@
+package com.mycompany.userservice.dto;
+
+import lombok.Value;
+
+import java.time.ZonedDateTime;
+
+@Value
+public class UserChangeEvent {
+
+    long sequenceNumber;
+    Operation operation;
+    UserResponse user;
+    long version;
+    ZonedDateTime changedOn;
+
+    public enum Operation {
+        CREATED, UPDATED, DELETED
+    }
+}
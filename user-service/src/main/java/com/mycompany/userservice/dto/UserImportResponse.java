@@ -0,0 +1,35 @@
+package com.mycompany.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.Value;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Value
+@JsonInclude(Include.NON_NULL)
+public class UserImportResponse {
+
+    String id;
+    Status status;
+    ZonedDateTime startedOn;
+    ZonedDateTime finishedOn;
+    long read;
+    long created;
+    long duplicated;
+    long invalid;
+    double rowsPerSecond;
+    List<Error> errors;
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    @Value
+    public static class Error {
+        long row;
+        String errorCode;
+        String message;
+    }
+}
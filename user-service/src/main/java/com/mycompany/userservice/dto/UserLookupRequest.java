@@ -0,0 +1,29 @@
+package com.mycompany.userservice.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserLookupRequest {
+
+    @Schema(example = "[1, 2]")
+    @Size(max = 1000)
+    private List<@NotNull Long> ids = new ArrayList<>();
+
+    @Schema(example = "[\"ivan.franchin\"]")
+    @Size(max = 1000)
+    private List<@NotNull String> usernames = new ArrayList<>();
+
+    @Schema(example = "[\"ivan.franchin@test.com\"]")
+    @Size(max = 1000)
+    private List<@NotNull String> emails = new ArrayList<>();
+}
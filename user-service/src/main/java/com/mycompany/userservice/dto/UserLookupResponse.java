@@ -0,0 +1,22 @@
+package com.mycompany.userservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class UserLookupResponse {
+
+    List<UserResponse> users;
+    Missing missing;
+
+    @Value
+    @JsonInclude(Include.NON_EMPTY)
+    public static class Missing {
+        List<Long> ids;
+        List<String> usernames;
+        List<String> emails;
+    }
+}
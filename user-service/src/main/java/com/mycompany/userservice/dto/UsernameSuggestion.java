@@ -0,0 +1,10 @@
+package com.mycompany.userservice.dto;
+
+import lombok.Value;
+
+@Value
+public class UsernameSuggestion {
+
+    Long id;
+    String username;
+}
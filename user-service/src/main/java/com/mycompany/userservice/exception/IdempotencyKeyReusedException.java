@@ -0,0 +1,14 @@
+package com.mycompany.userservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public static final String MESSAGE = "The Idempotency-Key informed was already used with a different request.";
+
+    public IdempotencyKeyReusedException() {
+        super(MESSAGE, null, false, false);
+    }
+}
@@ -6,7 +6,9 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @ResponseStatus(HttpStatus.CONFLICT)
 public class UserDataDuplicatedException extends RuntimeException {
 
+    public static final String MESSAGE = "The username and/or email informed already exists.";
+
     public UserDataDuplicatedException() {
-        super("The username and/or email informed already exists.");
+        super(MESSAGE, null, false, false);
     }
 }
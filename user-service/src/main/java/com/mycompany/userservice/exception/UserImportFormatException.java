@@ -0,0 +1,12 @@
+package com.mycompany.userservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class UserImportFormatException extends RuntimeException {
+
+    public UserImportFormatException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -7,6 +7,10 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 public class UserNotFoundException extends RuntimeException {
 
     public UserNotFoundException(String message) {
-        super(message);
+        super(message, null, false, false);
+    }
+
+    public static String messageForUsername(String username) {
+        return "User with username '" + username + "' doesn't exist.";
     }
 }
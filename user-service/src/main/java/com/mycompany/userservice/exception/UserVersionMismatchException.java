@@ -0,0 +1,12 @@
+package com.mycompany.userservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class UserVersionMismatchException extends RuntimeException {
+
+    public UserVersionMismatchException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,36 @@
+package com.mycompany.userservice.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts the error responses per {@code errorCode} as {@code user.errors}.
+ */
+class ErrorCodeCounters {
+
+    static final String USER_ERRORS_COUNTER = "user.errors";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    ErrorCodeCounters(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (MyErrorAttributes.ErrorCode errorCode : MyErrorAttributes.ErrorCode.values()) {
+            counter(errorCode.getDescription());
+        }
+    }
+
+    void increment(String errorCode) {
+        counter(errorCode).increment();
+    }
+
+    private Counter counter(String errorCode) {
+        return counters.computeIfAbsent(errorCode, code -> Counter.builder(USER_ERRORS_COUNTER)
+                .description("Error responses per error code")
+                .tag("errorCode", code)
+                .register(meterRegistry));
+    }
+}
@@ -1,25 +1,41 @@
 package com.mycompany.userservice.handler;
 
+import com.mycompany.userservice.exception.IdempotencyKeyReusedException;
 import com.mycompany.userservice.exception.UserDataDuplicatedException;
 import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.springframework.boot.web.error.ErrorAttributeOptions;
 import org.springframework.boot.web.error.ErrorAttributeOptions.Include;
 import org.springframework.boot.web.servlet.error.DefaultErrorAttributes;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.request.WebRequest;
 
 import java.util.HashMap;
 import java.util.Map;
 
+@Profile("!reactive")
 @Component
 public class MyErrorAttributes extends DefaultErrorAttributes {
 
+    private final ErrorCodeCounters errorCodeCounters;
+
+    public MyErrorAttributes(MeterRegistry meterRegistry) {
+        this.errorCodeCounters = new ErrorCodeCounters(meterRegistry);
+    }
+
     @Override
     public Map<String, Object> getErrorAttributes(WebRequest webRequest, ErrorAttributeOptions errorAttributeOptions) {
         Map<String, Object> errorAttributes = super.getErrorAttributes(webRequest,
                 errorAttributeOptions.including(Include.EXCEPTION, Include.MESSAGE, Include.BINDING_ERRORS));
+        errorCodeCounters.increment(putErrorCode(errorAttributes));
+        return errorAttributes;
+    }
+
+    static String putErrorCode(Map<String, Object> errorAttributes) {
         String exceptionClassName = (String) errorAttributes.get("exception");
         String errorCode = ErrorCodeHandler.getErrorCode(exceptionClassName);
         if (errorCode == null) {
@@ -27,7 +43,7 @@ public class MyErrorAttributes extends DefaultErrorAttributes {
             errorCode = statusError.replaceAll("\\s+", "");
         }
         errorAttributes.put("errorCode", errorCode);
-        return errorAttributes;
+        return errorCode;
     }
 
     private static class ErrorCodeHandler {
@@ -36,6 +52,8 @@ public class MyErrorAttributes extends DefaultErrorAttributes {
         static {
             map.put(UserNotFoundException.class.getName(), ErrorCode.USER_NOT_FOUND.getDescription());
             map.put(UserDataDuplicatedException.class.getName(), ErrorCode.USER_DATA_DUPLICATED.getDescription());
+            map.put(UserVersionMismatchException.class.getName(), ErrorCode.USER_VERSION_MISMATCH.getDescription());
+            map.put(IdempotencyKeyReusedException.class.getName(), ErrorCode.IDEMPOTENCY_KEY_REUSED.getDescription());
         }
 
         static String getErrorCode(String className) {
@@ -45,9 +63,11 @@ public class MyErrorAttributes extends DefaultErrorAttributes {
 
     @Getter
     @AllArgsConstructor
-    private enum ErrorCode {
+    public enum ErrorCode {
         USER_NOT_FOUND("UserNotFound"),
-        USER_DATA_DUPLICATED("UserDataDuplicated");
+        USER_DATA_DUPLICATED("UserDataDuplicated"),
+        USER_VERSION_MISMATCH("UserVersionMismatch"),
+        IDEMPOTENCY_KEY_REUSED("IdempotencyKeyReused");
 
         private final String description;
     }
@@ -0,0 +1,52 @@
+package com.mycompany.userservice.handler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.web.error.ErrorAttributeOptions;
+import org.springframework.boot.web.error.ErrorAttributeOptions.Include;
+import org.springframework.boot.web.reactive.error.DefaultErrorAttributes;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WebFlux counterpart of {@link MyErrorAttributes}. It renders the same payload as the servlet stack: same keys in the
+ * same order, no {@code requestId}, and validation errors reported the way Spring MVC reports them.
+ */
+@Profile("reactive")
+@Component
+public class MyReactiveErrorAttributes extends DefaultErrorAttributes {
+
+    private static final List<String> KEYS = List.of("timestamp", "status", "error", "exception", "trace", "message", "errors", "path");
+
+    private final ErrorCodeCounters errorCodeCounters;
+
+    public MyReactiveErrorAttributes(MeterRegistry meterRegistry) {
+        this.errorCodeCounters = new ErrorCodeCounters(meterRegistry);
+    }
+
+    @Override
+    public Map<String, Object> getErrorAttributes(ServerRequest request, ErrorAttributeOptions errorAttributeOptions) {
+        Map<String, Object> attributes = super.getErrorAttributes(request,
+                errorAttributeOptions.including(Include.EXCEPTION, Include.MESSAGE, Include.BINDING_ERRORS));
+
+        Throwable error = getError(request);
+        if (error instanceof WebExchangeBindException) {
+            BindingResult bindingResult = (BindingResult) error;
+            attributes.put("exception", MethodArgumentNotValidException.class.getName());
+            attributes.put("message", String.format("Validation failed for object='%s'. Error count: %s",
+                    bindingResult.getObjectName(), bindingResult.getErrorCount()));
+        }
+
+        Map<String, Object> errorAttributes = new LinkedHashMap<>();
+        KEYS.stream().filter(attributes::containsKey).forEach(key -> errorAttributes.put(key, attributes.get(key)));
+        errorCodeCounters.increment(MyErrorAttributes.putErrorCode(errorAttributes));
+        return errorAttributes;
+    }
+}
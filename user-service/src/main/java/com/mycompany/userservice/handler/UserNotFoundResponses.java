@@ -0,0 +1,64 @@
+package com.mycompany.userservice.handler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.handler.MyErrorAttributes.ErrorCode;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+
+/**
+ * Builds the {@code 404} response of a {@link UserNotFoundException} without throwing one, for the lookups where not
+ * finding the user is a common outcome. The body is written field by field, and is the same JSON that
+ * {@link MyErrorAttributes} makes when the exception reaches the error page, but without the exception, the forward to
+ * the error page nor the map of attributes. The error is counted in {@code user.errors} all the same.
+ */
+@Profile("!reactive")
+@Component
+public class UserNotFoundResponses {
+
+    private static final String ERROR = HttpStatus.NOT_FOUND.getReasonPhrase();
+    private static final String EXCEPTION = UserNotFoundException.class.getName();
+    private static final String ERROR_CODE = ErrorCode.USER_NOT_FOUND.getDescription();
+
+    private final ObjectMapper objectMapper;
+    private final ErrorCodeCounters errorCodeCounters;
+
+    public UserNotFoundResponses(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.errorCodeCounters = new ErrorCodeCounters(meterRegistry);
+    }
+
+    /**
+     * @param path the URI of the request, as the error page reports it
+     */
+    public ResponseEntity<byte[]> notFound(String message, String path) {
+        errorCodeCounters.increment(ERROR_CODE);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = objectMapper.createGenerator(body)) {
+            generator.writeStartObject();
+            // Written with the ObjectMapper, so it takes the same date format as the error page
+            generator.writeObjectField("timestamp", new Date());
+            generator.writeNumberField("status", HttpStatus.NOT_FOUND.value());
+            generator.writeStringField("error", ERROR);
+            generator.writeStringField("exception", EXCEPTION);
+            generator.writeStringField("message", message);
+            generator.writeStringField("path", path);
+            generator.writeStringField("errorCode", ERROR_CODE);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON)
+                .body(body.toByteArray());
+    }
+}
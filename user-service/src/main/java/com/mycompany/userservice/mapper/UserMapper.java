@@ -18,6 +18,8 @@ public interface UserMapper {
 
     User toUser(CreateUserRequest createUserRequest);
 
+    User toUser(UpdateUserRequest updateUserRequest);
+
     UserResponse toUserResponse(User user);
 
     void updateUserFromRequest(UpdateUserRequest updateUserRequest, @MappingTarget User user);
@@ -12,6 +12,7 @@ import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 
@@ -42,6 +43,9 @@ public class User {
     @Column(nullable = false)
     private ZonedDateTime updatedOn;
 
+    @Version
+    private long version;
+
     public User(String username, String email, LocalDate birthday) {
         this.username = username;
         this.email = email;
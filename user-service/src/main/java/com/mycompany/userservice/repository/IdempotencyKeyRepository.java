@@ -0,0 +1,50 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.IdempotentResponse;
+import lombok.Value;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * Keeps the response to each {@code Idempotency-Key} for a limited time, along with a hash of the request it answered.
+ */
+public interface IdempotencyKeyRepository {
+
+    Optional<Entry> findByKey(String key);
+
+    /**
+     * Records that the key is used for the request, with a pending entry, unless the key already has an entry.
+     *
+     * @return whether the key was reserved
+     */
+    boolean reserve(String key, String requestHash);
+
+    /**
+     * Saves the entry, unless the key already has one that isn't pending.
+     */
+    void save(String key, Entry entry);
+
+    /**
+     * Deletes the pending entry of the key, if it was reserved for the request.
+     */
+    void release(String key, String requestHash);
+
+    /**
+     * @return the number of entries deleted
+     */
+    int deleteCreatedBefore(ZonedDateTime createdOn);
+
+    /**
+     * The response to the request, or a pending entry, without response, while the request runs.
+     */
+    @Value
+    class Entry {
+        String requestHash;
+        IdempotentResponse response;
+
+        public boolean isPending() {
+            return response == null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.mycompany.userservice.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * Keeps the idempotency keys of this instance in a bounded cache. The entries expire by themselves, and the oldest
+ * ones are evicted first when there are more than {@code max-keys}.
+ */
+@ConditionalOnProperty(name = "app.idempotency.store", havingValue = "memory", matchIfMissing = true)
+@Repository
+public class InMemoryIdempotencyKeyRepository implements IdempotencyKeyRepository {
+
+    private final Cache<String, Entry> entries;
+
+    public InMemoryIdempotencyKeyRepository(@Value("${app.idempotency.ttl:24h}") Duration ttl,
+                                            @Value("${app.idempotency.max-keys:100000}") long maxKeys) {
+        this.entries = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxKeys)
+                .build();
+    }
+
+    @Override
+    public Optional<Entry> findByKey(String key) {
+        return Optional.ofNullable(entries.getIfPresent(key));
+    }
+
+    @Override
+    public boolean reserve(String key, String requestHash) {
+        return entries.asMap().putIfAbsent(key, new Entry(requestHash, null)) == null;
+    }
+
+    @Override
+    public void save(String key, Entry entry) {
+        entries.asMap().merge(key, entry, (previous, ignored) -> previous.isPending() ? entry : previous);
+    }
+
+    @Override
+    public void release(String key, String requestHash) {
+        entries.asMap().remove(key, new Entry(requestHash, null));
+    }
+
+    @Override
+    public int deleteCreatedBefore(ZonedDateTime createdOn) {
+        return 0;
+    }
+}
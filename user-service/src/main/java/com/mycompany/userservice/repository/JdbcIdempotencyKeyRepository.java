@@ -0,0 +1,118 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.IdempotentResponse;
+import com.mycompany.userservice.dto.UserResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * Keeps the idempotency keys in the {@code idempotency_keys} table, so that a retry is answered by whichever instance
+ * gets it. A pending entry has a request hash but no response. Expired entries are ignored, and deleted by
+ * {@link #deleteCreatedBefore}.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.idempotency.store", havingValue = "jdbc")
+@Repository
+public class JdbcIdempotencyKeyRepository implements IdempotencyKeyRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration ttl;
+
+    public JdbcIdempotencyKeyRepository(JdbcTemplate jdbcTemplate, @Value("${app.idempotency.ttl:24h}") Duration ttl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public Optional<Entry> findByKey(String key) {
+        return jdbcTemplate.query("select request_hash, user_id, username, email, birthday, e_tag from idempotency_keys " +
+                        "where idempotency_key = ? and created_on > ?",
+                (resultSet, rowNum) -> toEntry(resultSet),
+                key, Timestamp.from(ZonedDateTime.now().minus(ttl).toInstant()))
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public boolean reserve(String key, String requestHash) {
+        Timestamp now = Timestamp.from(ZonedDateTime.now().toInstant());
+        deleteExpired(key, now);
+        try {
+            jdbcTemplate.update("insert into idempotency_keys (idempotency_key, request_hash, created_on) values (?, ?, ?)",
+                    key, requestHash, now);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Another instance reserved or answered the key first
+            return false;
+        }
+    }
+
+    @Override
+    public void save(String key, Entry entry) {
+        UserResponse user = entry.getResponse().getUser();
+        Date birthday = user.getBirthday() == null ? null : Date.valueOf(user.getBirthday());
+        Timestamp now = Timestamp.from(ZonedDateTime.now().toInstant());
+        int updated = jdbcTemplate.update("update idempotency_keys " +
+                        "set request_hash = ?, user_id = ?, username = ?, email = ?, birthday = ?, e_tag = ?, created_on = ? " +
+                        "where idempotency_key = ? and e_tag is null",
+                entry.getRequestHash(), user.getId(), user.getUsername(), user.getEmail(), birthday,
+                entry.getResponse().getETag(), now, key);
+        if (updated > 0) {
+            return;
+        }
+        deleteExpired(key, now);
+        try {
+            jdbcTemplate.update("insert into idempotency_keys " +
+                            "(idempotency_key, request_hash, user_id, username, email, birthday, e_tag, created_on) " +
+                            "values (?, ?, ?, ?, ?, ?, ?, ?)",
+                    key, entry.getRequestHash(), user.getId(), user.getUsername(), user.getEmail(), birthday,
+                    entry.getResponse().getETag(), now);
+        } catch (DuplicateKeyException e) {
+            // Another instance answered the key first, and its response stays
+        }
+    }
+
+    @Override
+    public void release(String key, String requestHash) {
+        jdbcTemplate.update("delete from idempotency_keys where idempotency_key = ? and request_hash = ? and e_tag is null",
+                key, requestHash);
+    }
+
+    @Override
+    public int deleteCreatedBefore(ZonedDateTime createdOn) {
+        return jdbcTemplate.update("delete from idempotency_keys where created_on < ?",
+                Timestamp.from(createdOn.toInstant()));
+    }
+
+    private static Entry toEntry(ResultSet resultSet) throws SQLException {
+        String eTag = resultSet.getString("e_tag");
+        if (eTag == null) {
+            return new Entry(resultSet.getString("request_hash"), null);
+        }
+        return new Entry(resultSet.getString("request_hash"), new IdempotentResponse(
+                new UserResponse(
+                        resultSet.getLong("user_id"),
+                        resultSet.getString("username"),
+                        resultSet.getString("email"),
+                        resultSet.getObject("birthday", LocalDate.class)),
+                eTag));
+    }
+
+    private void deleteExpired(String key, Timestamp now) {
+        jdbcTemplate.update("delete from idempotency_keys where idempotency_key = ? and created_on <= ?",
+                key, Timestamp.from(now.toInstant().minus(ttl)));
+    }
+}
@@ -0,0 +1,160 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.model.User;
+import io.r2dbc.spi.Row;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * R2DBC access to the {@code users} table used by the {@code reactive} profile. It maps the same table as the JPA
+ * {@link User} entity with plain SQL, and {@link #findUserByUsername(String)} / {@link #findUserByEmail(String)} have
+ * the same semantics as their {@link UserRepository} counterparts.
+ */
+@Profile("reactive")
+@RequiredArgsConstructor
+@Repository
+public class ReactiveUserRepository {
+
+    private static final String SELECT_SQL = "select id, username, email, birthday, created_on, updated_on, version from users";
+    private static final String INSERT_SQL = "insert into users (username, email, birthday, created_on, updated_on, version) " +
+            "values (:username, :email, :birthday, :createdOn, :updatedOn, 0)";
+    private static final String UPDATE_SQL = "update users set username = :username, email = :email, " +
+            "birthday = :birthday, updated_on = :updatedOn, version = version + 1 where id = :id";
+    private static final String DELETE_SQL = "delete from users where id = :id";
+    private static final String VERSION_CONDITION = " and version = :version";
+
+    private final DatabaseClient databaseClient;
+
+    public Mono<User> findById(Long id) {
+        return databaseClient.sql(SELECT_SQL + " where id = :id")
+                .bind("id", id)
+                .map(this::toUser)
+                .one();
+    }
+
+    public Mono<User> findUserByUsername(String username) {
+        return databaseClient.sql(SELECT_SQL + " where username = :username")
+                .bind("username", username)
+                .map(this::toUser)
+                .one();
+    }
+
+    public Mono<User> findUserByEmail(String email) {
+        return databaseClient.sql(SELECT_SQL + " where email = :email")
+                .bind("email", email)
+                .map(this::toUser)
+                .one();
+    }
+
+    public Flux<User> findByIdGreaterThan(Long id, int limit) {
+        return databaseClient.sql(SELECT_SQL + " where id > :id order by id limit :limit")
+                .bind("id", id)
+                .bind("limit", limit)
+                .map(this::toUser)
+                .all();
+    }
+
+    public Flux<User> findAll() {
+        return databaseClient.sql(SELECT_SQL + " order by id")
+                .map(this::toUser)
+                .all();
+    }
+
+    public Mono<User> save(User user) {
+        ZonedDateTime now = ZonedDateTime.now();
+        if (user.getId() == null) {
+            return bindUserData(databaseClient.sql(INSERT_SQL), user)
+                    .bind("createdOn", now.toLocalDateTime())
+                    .bind("updatedOn", now.toLocalDateTime())
+                    .filter(statement -> statement.returnGeneratedValues("id"))
+                    .map(row -> row.get(0, Long.class))
+                    .one()
+                    .map(id -> {
+                        user.setId(id);
+                        user.setCreatedOn(now);
+                        user.setUpdatedOn(now);
+                        return user;
+                    });
+        }
+        return bindUserData(databaseClient.sql(UPDATE_SQL), user)
+                .bind("updatedOn", now.toLocalDateTime())
+                .bind("id", user.getId())
+                .then()
+                .then(Mono.fromSupplier(() -> {
+                    user.setUpdatedOn(now);
+                    user.setVersion(user.getVersion() + 1);
+                    return user;
+                }));
+    }
+
+    /**
+     * Updates the user as {@link #save(User)} does, as long as it still has the expected version in the table.
+     *
+     * @return the user, or an empty mono if it has another version or doesn't exist anymore
+     */
+    public Mono<User> updateIfVersion(User user, long expectedVersion) {
+        ZonedDateTime now = ZonedDateTime.now();
+        return bindUserData(databaseClient.sql(UPDATE_SQL + VERSION_CONDITION), user)
+                .bind("updatedOn", now.toLocalDateTime())
+                .bind("id", user.getId())
+                .bind("version", expectedVersion)
+                .fetch()
+                .rowsUpdated()
+                .filter(count -> count > 0)
+                .map(count -> {
+                    user.setUpdatedOn(now);
+                    user.setVersion(expectedVersion + 1);
+                    return user;
+                });
+    }
+
+    public Mono<Void> delete(User user) {
+        return databaseClient.sql(DELETE_SQL)
+                .bind("id", user.getId())
+                .then();
+    }
+
+    /**
+     * @return whether the user was deleted, i.e. it still had the expected version
+     */
+    public Mono<Boolean> deleteIfVersion(Long id, long expectedVersion) {
+        return databaseClient.sql(DELETE_SQL + VERSION_CONDITION)
+                .bind("id", id)
+                .bind("version", expectedVersion)
+                .fetch()
+                .rowsUpdated()
+                .map(count -> count > 0);
+    }
+
+    private GenericExecuteSpec bindUserData(GenericExecuteSpec spec, User user) {
+        spec = spec.bind("username", user.getUsername()).bind("email", user.getEmail());
+        return user.getBirthday() == null
+                ? spec.bindNull("birthday", LocalDate.class)
+                : spec.bind("birthday", user.getBirthday());
+    }
+
+    // Hibernate writes the ZonedDateTime columns as local date-times of the JVM zone, so they are read back the same way
+    private User toUser(Row row) {
+        User user = new User(row.get("username", String.class), row.get("email", String.class),
+                row.get("birthday", LocalDate.class));
+        user.setId(row.get("id", Long.class));
+        user.setCreatedOn(toZonedDateTime(row.get("created_on", LocalDateTime.class)));
+        user.setUpdatedOn(toZonedDateTime(row.get("updated_on", LocalDateTime.class)));
+        user.setVersion(row.get("version", Long.class));
+        return user;
+    }
+
+    private static ZonedDateTime toZonedDateTime(LocalDateTime localDateTime) {
+        return localDateTime == null ? null : localDateTime.atZone(ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,220 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JDBC access to the {@code user_changes} outbox. Changes are appended in the transaction of the user change they
+ * record, and get a sequence number when they are relayed.
+ */
+@Profile("!reactive")
+@RequiredArgsConstructor
+@Repository
+public class UserChangeRepository {
+
+    private static final String APPEND_SQL = "insert into user_changes " +
+            "(user_id, operation, username, email, birthday, version, changed_on) " +
+            "select id, ?, username, email, birthday, version, ? from users where id in (%s)";
+    private static final String SELECT_SQL = "select id, sequence_number, user_id, operation, username, email, " +
+            "birthday, version, changed_on from user_changes";
+    private static final String NUMBER_SQL = "update user_changes set sequence_number = ? + id where id in (%s)";
+    private static final String APPEND_FORWARDED_SQL = "insert into user_changes " +
+            "(user_id, operation, username, email, birthday, version, changed_on, source_shard, source_id) " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Appends a change with the current data of each of the users, so it must be called after a create or update,
+     * and before a delete, in the same transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appendChanges(Operation operation, Collection<Long> userIds, ZonedDateTime changedOn) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>(userIds.size() + 2);
+        args.add(operation.name());
+        args.add(Timestamp.from(changedOn.toInstant()));
+        args.addAll(userIds);
+        jdbcTemplate.update(String.format(APPEND_SQL, placeholders(userIds.size())), args.toArray());
+    }
+
+    /**
+     * Numbers the oldest changes that have no sequence number yet, up to {@code limit}, after the last number handed
+     * out. The numbers grow with the ids but may skip values. The relay row stays locked until the transaction ends, so
+     * concurrent relays number changes one after the other.
+     *
+     * @return the changes numbered, in sequence order
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<UserChangeEvent> numberNextChanges(int limit) {
+        Long lastSequenceNumber = jdbcTemplate.queryForObject(
+                "select last_sequence_number from user_change_relay where id = 1 for update", Long.class);
+        List<Long> ids = new ArrayList<>();
+        List<UserChangeEvent> changes = jdbcTemplate.query(
+                SELECT_SQL + " where sequence_number is null order by id limit ?", (resultSet, rowNum) -> {
+                    ids.add(resultSet.getLong("id"));
+                    return toUserChangeEvent(resultSet, 0);
+                }, limit);
+        if (changes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // sequence number = offset + id, with the offset making the first change follow the last number handed out
+        long offset = lastSequenceNumber + 1 - ids.get(0);
+        List<Object> args = new ArrayList<>(ids.size() + 1);
+        args.add(offset);
+        args.addAll(ids);
+        jdbcTemplate.update(String.format(NUMBER_SQL, placeholders(ids.size())), args.toArray());
+        jdbcTemplate.update("update user_change_relay set last_sequence_number = ? where id = 1",
+                offset + ids.get(ids.size() - 1));
+
+        List<UserChangeEvent> numberedChanges = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            UserChangeEvent change = changes.get(i);
+            numberedChanges.add(new UserChangeEvent(offset + ids.get(i), change.getOperation(), change.getUser(),
+                    change.getVersion(), change.getChangedOn()));
+        }
+        return numberedChanges;
+    }
+
+    /**
+     * Returns the oldest changes of the outbox of a shard, up to {@code limit}, to be forwarded to the outbox of the
+     * directory, which is the one the relay reads from. They are never numbered on the shard.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<PendingChange> findPendingChanges(int limit) {
+        return jdbcTemplate.query(SELECT_SQL + " where sequence_number is null order by id limit ?",
+                (resultSet, rowNum) -> new PendingChange(resultSet.getLong("id"), toUserChangeEvent(resultSet, 0)),
+                limit);
+    }
+
+    /**
+     * Appends the changes forwarded from a shard, in order, except those that were already forwarded, e.g. by an
+     * earlier attempt that failed to delete them from the shard, or by another forwarder meanwhile, e.g. a
+     * {@code UserResharder} move racing the scheduled forwarding.
+     *
+     * @return the number of changes that hadn't been forwarded before
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int appendForwardedChanges(String sourceShard, List<PendingChange> changes) {
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        Set<Long> forwarded = findForwarded(sourceShard, changes);
+        List<Object[]> rows = toForwardedRows(sourceShard, changes, forwarded);
+        try {
+            jdbcTemplate.batchUpdate(APPEND_FORWARDED_SQL, rows);
+            return rows.size();
+        } catch (DuplicateKeyException e) {
+            // Some were appended by another forwarder since they were looked up. The batch may have stopped at the
+            // first of them, so the ones still missing are appended one at a time, skipping the duplicates
+            for (Object[] row : toForwardedRows(sourceShard, changes, findForwarded(sourceShard, changes))) {
+                try {
+                    jdbcTemplate.update(APPEND_FORWARDED_SQL, row);
+                } catch (DuplicateKeyException duplicate) {
+                    // Appended by the other forwarder too
+                }
+            }
+            return findForwarded(sourceShard, changes).size() - forwarded.size();
+        }
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void deleteChanges(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(String.format("delete from user_changes where id in (%s)", placeholders(ids.size())),
+                ids.toArray());
+    }
+
+    @Transactional(readOnly = true)
+    public List<UserChangeEvent> findChangesAfter(long sequenceNumber, int limit) {
+        return jdbcTemplate.query(SELECT_SQL + " where sequence_number > ? order by sequence_number limit ?",
+                (resultSet, rowNum) -> toUserChangeEvent(resultSet, resultSet.getLong("sequence_number")),
+                sequenceNumber, limit);
+    }
+
+    /**
+     * Deletes the numbered changes older than {@code changedOn}. Changes not relayed yet are kept.
+     *
+     * @return the number of changes deleted
+     */
+    @Transactional
+    public int deleteChangesBefore(ZonedDateTime changedOn) {
+        return jdbcTemplate.update("delete from user_changes where sequence_number is not null and changed_on < ?",
+                Timestamp.from(changedOn.toInstant()));
+    }
+
+    private Set<Long> findForwarded(String sourceShard, List<PendingChange> changes) {
+        List<Object> args = new ArrayList<>(changes.size() + 1);
+        args.add(sourceShard);
+        changes.forEach(change -> args.add(change.getId()));
+        return new HashSet<>(jdbcTemplate.queryForList(
+                String.format("select source_id from user_changes where source_shard = ? and source_id in (%s)",
+                        placeholders(changes.size())), Long.class, args.toArray()));
+    }
+
+    private static List<Object[]> toForwardedRows(String sourceShard, List<PendingChange> changes, Set<Long> forwarded) {
+        List<Object[]> rows = new ArrayList<>(changes.size());
+        for (PendingChange pendingChange : changes) {
+            if (forwarded.contains(pendingChange.getId())) {
+                continue;
+            }
+            UserChangeEvent change = pendingChange.getChange();
+            UserResponse user = change.getUser();
+            rows.add(new Object[]{user.getId(), change.getOperation().name(), user.getUsername(), user.getEmail(),
+                    user.getBirthday() == null ? null : Date.valueOf(user.getBirthday()), change.getVersion(),
+                    Timestamp.from(change.getChangedOn().toInstant()), sourceShard, pendingChange.getId()});
+        }
+        return rows;
+    }
+
+    private static UserChangeEvent toUserChangeEvent(ResultSet resultSet, long sequenceNumber) throws SQLException {
+        UserResponse user = new UserResponse(
+                resultSet.getLong("user_id"),
+                resultSet.getString("username"),
+                resultSet.getString("email"),
+                resultSet.getObject("birthday", LocalDate.class));
+        return new UserChangeEvent(sequenceNumber, Operation.valueOf(resultSet.getString("operation")), user,
+                resultSet.getLong("version"),
+                resultSet.getTimestamp("changed_on").toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * A change of the outbox of a shard, with its id there.
+     */
+    @Value
+    public static class PendingChange {
+        long id;
+        UserChangeEvent change;
+    }
+}
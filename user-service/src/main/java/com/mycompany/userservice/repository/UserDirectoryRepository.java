@@ -0,0 +1,185 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.model.User;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongFunction;
+
+/**
+ * JDBC access to the {@code user_directory} table of a sharded setup, see {@code ShardingConfig}: one row per user,
+ * with the username and email kept unique across shards, and the shard the user lives on. It hands out the user ids.
+ * <p>
+ * It goes through the routed data source, so it must be called while no shard is chosen.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Repository
+public class UserDirectoryRepository {
+
+    private static final String SELECT_SQL = "select id, username, email, shard from user_directory";
+    private static final String INSERT_SQL = "insert into user_directory (username, email) values ";
+    private static final String INSERT_ROW_SQL = "(?, ?)";
+
+    private static final RowMapper<Entry> ENTRY_ROW_MAPPER = (resultSet, rowNum) -> new Entry(
+            resultSet.getLong("id"),
+            resultSet.getString("username"),
+            resultSet.getString("email"),
+            resultSet.getString("shard"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Claims the username and email of the users, and sets their ids and the shard that {@code shardOf} picks for each
+     * id, all in one transaction.
+     *
+     * @throws org.springframework.dao.DataIntegrityViolationException if a username or email is taken, in which case
+     *                                                                 none of the users is claimed
+     */
+    @Transactional
+    public void insertAll(List<User> users, LongFunction<String> shardOf) {
+        if (users.isEmpty()) {
+            return;
+        }
+        String sql = INSERT_SQL + String.join(", ", Collections.nCopies(users.size(), INSERT_ROW_SQL));
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            int index = 1;
+            for (User user : users) {
+                preparedStatement.setString(index++, user.getUsername());
+                preparedStatement.setString(index++, user.getEmail());
+            }
+            return preparedStatement;
+        }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        List<Object[]> shards = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            long id = ((Number) keys.get(i).values().iterator().next()).longValue();
+            users.get(i).setId(id);
+            shards.add(new Object[]{shardOf.apply(id), id});
+        }
+        jdbcTemplate.batchUpdate("update user_directory set shard = ? where id = ?", shards);
+    }
+
+    public Optional<Entry> findById(long id) {
+        return jdbcTemplate.query(SELECT_SQL + " where id = ?", ENTRY_ROW_MAPPER, id).stream().findFirst();
+    }
+
+    public List<Entry> findByIdIn(Collection<Long> ids) {
+        return findIn("id", ids);
+    }
+
+    public List<Entry> findByUsernameIn(Collection<String> usernames) {
+        return findIn("username", usernames);
+    }
+
+    public List<Entry> findByEmailIn(Collection<String> emails) {
+        return findIn("email", emails);
+    }
+
+    public List<Entry> findByUsernameInOrEmailIn(Collection<String> usernames, Collection<String> emails) {
+        if (usernames.isEmpty() && emails.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // An empty IN list isn't valid SQL, so an empty side compares against null, which matches nothing
+        return jdbcTemplate.query(SELECT_SQL + " where username in (" + placeholders(Math.max(usernames.size(), 1)) +
+                        ") or email in (" + placeholders(Math.max(emails.size(), 1)) + ")",
+                ENTRY_ROW_MAPPER, withNullForEmpty(usernames, emails));
+    }
+
+    public boolean existsOtherEntryWithUsernameOrEmail(Long id, String username, String email) {
+        String sql = "select count(*) from user_directory where (username = ? or email = ?)";
+        Integer count = id == null
+                ? jdbcTemplate.queryForObject(sql, Integer.class, username, email)
+                : jdbcTemplate.queryForObject(sql + " and id <> ?", Integer.class, username, email, id);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Returns up to {@code limit} entries with an id greater than {@code after}, ordered by id.
+     */
+    public List<Entry> findEntriesAfter(long after, int limit) {
+        return jdbcTemplate.query(SELECT_SQL + " where id > ? order by id limit ?", ENTRY_ROW_MAPPER, after, limit);
+    }
+
+    /**
+     * Sets the username and email that are not {@code null}.
+     *
+     * @return the number of entries updated, {@code 0} if there is no entry with the given id
+     * @throws org.springframework.dao.DataIntegrityViolationException if the username or email is taken
+     */
+    public int updateNames(long id, String username, String email) {
+        return jdbcTemplate.update("update user_directory set username = coalesce(?, username), " +
+                "email = coalesce(?, email) where id = ?", username, email, id);
+    }
+
+    /**
+     * Sets the username and email back to the ones given, as long as the entry still has the ones that were claimed,
+     * i.e. no later update claimed other ones meanwhile.
+     *
+     * @return the number of entries updated
+     * @throws org.springframework.dao.DataIntegrityViolationException if the username or email was taken meanwhile
+     */
+    public int restoreNames(long id, String claimedUsername, String claimedEmail, String username, String email) {
+        return jdbcTemplate.update("update user_directory set username = ?, email = ? " +
+                "where id = ? and username = ? and email = ?", username, email, id, claimedUsername, claimedEmail);
+    }
+
+    /**
+     * Points the entry to another shard, as long as it still points to {@code from}.
+     *
+     * @return the number of entries updated
+     */
+    public int updateShard(long id, String from, String to) {
+        return jdbcTemplate.update("update user_directory set shard = ? where id = ? and shard = ?", to, id, from);
+    }
+
+    public void deleteById(long id) {
+        jdbcTemplate.update("delete from user_directory where id = ?", id);
+    }
+
+    private <T> List<Entry> findIn(String column, Collection<T> values) {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return jdbcTemplate.query(SELECT_SQL + " where " + column + " in (" + placeholders(values.size()) + ")",
+                ENTRY_ROW_MAPPER, values.toArray());
+    }
+
+    private static Object[] withNullForEmpty(Collection<String> usernames, Collection<String> emails) {
+        List<Object> args = new ArrayList<>(usernames.isEmpty() ? Collections.singletonList(null) : usernames);
+        args.addAll(emails.isEmpty() ? Collections.singletonList(null) : emails);
+        return args.toArray();
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    @Value
+    public static class Entry {
+        Long id;
+        String username;
+        String email;
+        String shard;
+    }
+}
@@ -1,15 +1,93 @@
 package com.mycompany.userservice.repository;
 
+import com.mycompany.userservice.dto.UserResponse;
 import com.mycompany.userservice.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
 
+    /**
+     * The user is loaded read-only, so Hibernate keeps no snapshot of it for dirty checking; it ends up in the user
+     * cache and is never modified through the persistence context.
+     */
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
     Optional<User> findUserByUsername(String username);
 
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
     Optional<User> findUserByEmail(String email);
+
+    /**
+     * Loads the users read-only, like {@link #findUserByUsername}. Callers keep the number of ids bounded, see
+     * {@code UserServiceImpl}.
+     */
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+    List<User> findByIdIn(Collection<Long> ids);
+
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+    List<User> findByUsernameIn(Collection<String> usernames);
+
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+    List<User> findByEmailIn(Collection<String> emails);
+
+    /**
+     * Selects the columns of {@link UserResponse} straight into it, so no entity is hydrated or tracked by the
+     * persistence context.
+     */
+    @Query("select new com.mycompany.userservice.dto.UserResponse(u.id, u.username, u.email, u.birthday) " +
+            "from User u where u.id > :id")
+    List<UserResponse> findUserResponsesByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+    List<User> findByUsernameInOrEmailIn(Collection<String> usernames, Collection<String> emails);
+
+    @Query("select case when count(u) > 0 then true else false end from User u " +
+            "where (u.username = :username or u.email = :email) and (:id is null or u.id <> :id)")
+    boolean existsOtherUserWithUsernameOrEmail(@Param("id") Long id,
+                                               @Param("username") String username,
+                                               @Param("email") String email);
+
+    /**
+     * Sets the username, email and birthday that are not {@code null} and bumps the version, without loading the user.
+     * If {@code version} is not {@code null}, the user is only updated if it still has that version.
+     *
+     * @return the number of users updated, {@code 0} if there is no user with the given id and version
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update User u set u.username = coalesce(:username, u.username), u.email = coalesce(:email, u.email), " +
+            "u.birthday = coalesce(:birthday, u.birthday), u.updatedOn = :updatedOn, u.version = u.version + 1 " +
+            "where u.id = :id and (:version is null or u.version = :version)")
+    int updateUser(@Param("id") Long id,
+                   @Param("version") Long version,
+                   @Param("username") String username,
+                   @Param("email") String email,
+                   @Param("birthday") LocalDate birthday,
+                   @Param("updatedOn") ZonedDateTime updatedOn);
+
+    /**
+     * Deletes the user without loading it. If {@code version} is not {@code null}, the user is only deleted if it still
+     * has that version.
+     *
+     * @return the number of users deleted, {@code 0} if there is no user with the given id and version
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("delete from User u where u.id = :id and (:version is null or u.version = :version)")
+    int deleteUserById(@Param("id") Long id, @Param("version") Long version);
 }
@@ -0,0 +1,45 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.model.User;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface UserRepositoryCustom {
+
+    /**
+     * Walks all users ordered by id over a forward-only cursor. Each user is detached once the action returns, so the
+     * persistence context doesn't grow with the size of the table. When the table is sharded, the shards are walked one
+     * after the other, so the users are only ordered by id within each shard.
+     */
+    void forEachUser(Consumer<User> action);
+
+    /**
+     * Like {@link #forEachUser(Consumer)}, but only walks the users with an id greater than {@code after} and selects the
+     * columns of {@link UserResponse} straight into it, so no entity is hydrated or tracked by the persistence context in
+     * the first place.
+     */
+    void forEachUserResponse(Long after, Consumer<UserResponse> action);
+
+    /**
+     * Inserts the users with a single multi-row statement and sets the generated ids and timestamps on them. The
+     * statement is atomic: if any row violates a unique constraint, none of them is inserted. If the users already have
+     * ids, e.g. handed out by the user directory of a sharded table, they are inserted with them instead; either all of
+     * them have an id or none has.
+     */
+    void insertAll(List<User> users);
+
+    /**
+     * Finds the users with an id greater than {@code after} that match all the filters that are not {@code null},
+     * ordered by id. It selects only the columns of {@link UserResponse}, and each filter is served by an index: the
+     * username prefix by {@code UK_username}, the email domain and the birthday range by {@code IDX_email_domain_birthday}
+     * and {@code IDX_birthday}.
+     *
+     * @param birthdayFrom inclusive
+     * @param birthdayTo   inclusive
+     */
+    List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                   LocalDate birthdayTo, Long after, int limit);
+}
@@ -0,0 +1,191 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.config.ShardRoutingDataSource;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.model.User;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private static final String INSERT_SQL = "insert into users (username, email, birthday, created_on, updated_on, version) values ";
+    private static final String INSERT_ROW_SQL = "(?, ?, ?, ?, ?, 0)";
+    private static final String INSERT_WITH_ID_SQL = "insert into users (id, username, email, birthday, created_on, updated_on, version) values ";
+    private static final String INSERT_ROW_WITH_ID_SQL = "(?, ?, ?, ?, ?, ?, 0)";
+
+    private static final String SEARCH_SQL = "select id, username, email, birthday from users where id > ?";
+    private static final char LIKE_ESCAPE = '!';
+
+    private static final RowMapper<UserResponse> USER_RESPONSE_ROW_MAPPER = (resultSet, rowNum) -> new UserResponse(
+            resultSet.getLong("id"),
+            resultSet.getString("username"),
+            resultSet.getString("email"),
+            resultSet.getObject("birthday", LocalDate.class));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectProvider<ShardRoutingDataSource> shardRoutingDataSource;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public UserRepositoryCustomImpl(JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    ObjectProvider<ShardRoutingDataSource> shardRoutingDataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.shardRoutingDataSource = shardRoutingDataSource;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        ShardRoutingDataSource shards = shardRoutingDataSource.getIfAvailable();
+        if (shards == null) {
+            readOnlyTransaction.executeWithoutResult(status -> walkUsers(action));
+            return;
+        }
+        // The shard is chosen before the transaction starts, as the transaction keeps its connection
+        for (String shard : shards.getShardNames()) {
+            ShardRoutingDataSource.runOn(shard,
+                    () -> readOnlyTransaction.executeWithoutResult(status -> walkUsers(action)));
+        }
+    }
+
+    private void walkUsers(Consumer<User> action) {
+        try (Stream<User> users = entityManager.createQuery("select u from User u order by u.id", User.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            users.forEach(user -> {
+                action.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void forEachUserResponse(Long after, Consumer<UserResponse> action) {
+        try (Stream<UserResponse> users = entityManager.createQuery(
+                "select new com.mycompany.userservice.dto.UserResponse(u.id, u.username, u.email, u.birthday) " +
+                        "from User u where u.id > :after order by u.id", UserResponse.class)
+                .setParameter("after", after)
+                .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .getResultStream()) {
+            users.forEach(action);
+        }
+    }
+
+    @Override
+    public void insertAll(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        ZonedDateTime now = ZonedDateTime.now();
+        Timestamp timestamp = Timestamp.from(now.toInstant());
+        // Ids handed out beforehand, i.e. by the user directory when the table is sharded, are inserted as they are
+        boolean withIds = users.get(0).getId() != null;
+        String sql = withIds
+                ? INSERT_WITH_ID_SQL + String.join(", ", Collections.nCopies(users.size(), INSERT_ROW_WITH_ID_SQL))
+                : INSERT_SQL + String.join(", ", Collections.nCopies(users.size(), INSERT_ROW_SQL));
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement preparedStatement = withIds
+                    ? connection.prepareStatement(sql)
+                    : connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            int index = 1;
+            for (User user : users) {
+                if (withIds) {
+                    preparedStatement.setLong(index++, user.getId());
+                }
+                preparedStatement.setString(index++, user.getUsername());
+                preparedStatement.setString(index++, user.getEmail());
+                if (user.getBirthday() == null) {
+                    preparedStatement.setNull(index++, Types.DATE);
+                } else {
+                    preparedStatement.setDate(index++, Date.valueOf(user.getBirthday()));
+                }
+                preparedStatement.setTimestamp(index++, timestamp);
+                preparedStatement.setTimestamp(index++, timestamp);
+            }
+            return preparedStatement;
+        }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (!withIds) {
+                user.setId(((Number) keys.get(i).values().iterator().next()).longValue());
+            }
+            user.setCreatedOn(now);
+            user.setUpdatedOn(now);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                          LocalDate birthdayTo, Long after, int limit) {
+        StringBuilder sql = new StringBuilder(SEARCH_SQL);
+        List<Object> args = new ArrayList<>();
+        args.add(after);
+        if (StringUtils.hasText(usernamePrefix)) {
+            sql.append(" and username like ? escape '").append(LIKE_ESCAPE).append("'");
+            args.add(escapeLike(usernamePrefix) + "%");
+        }
+        if (StringUtils.hasText(emailDomain)) {
+            sql.append(" and email_domain = ?");
+            args.add(emailDomain);
+        }
+        if (birthdayFrom != null) {
+            sql.append(" and birthday >= ?");
+            args.add(Date.valueOf(birthdayFrom));
+        }
+        if (birthdayTo != null) {
+            sql.append(" and birthday <= ?");
+            args.add(Date.valueOf(birthdayTo));
+        }
+        sql.append(" order by id limit ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), USER_RESPONSE_ROW_MAPPER, args.toArray());
+    }
+
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
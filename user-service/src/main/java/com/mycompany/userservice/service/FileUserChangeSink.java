@@ -0,0 +1,49 @@
+package com.mycompany.userservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mycompany.userservice.dto.UserChangeEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends the user changes to a file as NDJSON, for local testing of consumers. Enabled by setting
+ * {@code app.user-changes.file}.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty("app.user-changes.file")
+@Component
+public class FileUserChangeSink implements UserChangeSink {
+
+    private final Path file;
+    private final ObjectWriter writer;
+
+    public FileUserChangeSink(@Value("${app.user-changes.file}") Path file, ObjectMapper objectMapper) {
+        this.file = file;
+        this.writer = objectMapper.writerFor(UserChangeEvent.class);
+    }
+
+    @Override
+    public void publish(List<UserChangeEvent> changes) {
+        try (Writer fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (UserChangeEvent change : changes) {
+                fileWriter.write(writer.writeValueAsString(change));
+                fileWriter.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.mycompany.userservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mycompany.userservice.dto.IdempotentResponse;
+import com.mycompany.userservice.exception.IdempotencyKeyReusedException;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.repository.IdempotencyKeyRepository;
+import com.mycompany.userservice.repository.IdempotencyKeyRepository.Entry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs each request made with an {@code Idempotency-Key} at most once while its response is kept, and replays that
+ * response to the retries. Requests with the same key that arrive while the first one runs wait for it and share its
+ * outcome, be it a response or an exception. A key sent again with a different request is rejected with
+ * {@link IdempotencyKeyReusedException}.
+ * <p>
+ * The key is reserved, with the hash of the request, before the action runs, and its response is saved after. The
+ * requests only coalesce within an instance. With the {@code jdbc} store, a retry that runs on another instance at the
+ * same time as the original fails on the unique username and email instead, and then replays the original's response.
+ * When there is no response yet, because the original is still running or stopped before saving it, the response is
+ * rebuilt from what the original created, as found by {@code created}.
+ */
+@Profile("!reactive")
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String REQUESTS_COUNTER = "user.idempotent.requests";
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Counter executedCounter;
+    private final Counter replayedCounter;
+    private final Counter coalescedCounter;
+
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(IdempotencyKeyRepository idempotencyKeyRepository,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.idempotency.ttl:24h}") Duration ttl) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.objectMapper = objectMapper;
+        this.ttl = ttl;
+        this.executedCounter = meterRegistry.counter(REQUESTS_COUNTER, "result", "executed");
+        this.replayedCounter = meterRegistry.counter(REQUESTS_COUNTER, "result", "replayed");
+        this.coalescedCounter = meterRegistry.counter(REQUESTS_COUNTER, "result", "coalesced");
+    }
+
+    /**
+     * Returns the response kept for the key, or the one of {@code action} if there is none.
+     *
+     * @param request the request, compared by its JSON with the one the key was first used with
+     * @throws IdempotencyKeyReusedException if the key was used with a different request
+     */
+    public IdempotentResponse execute(String key, Object request, Supplier<IdempotentResponse> action) {
+        return execute(key, request, action, Optional::empty);
+    }
+
+    /**
+     * Returns the response kept for the key, or the one of {@code action} if there is none.
+     *
+     * @param request the request, compared by its JSON with the one the key was first used with
+     * @param created finds the response to the request if it was already carried out, for when {@code action} fails
+     *                with {@link UserDataDuplicatedException} and no response was saved
+     * @throws IdempotencyKeyReusedException if the key was used with a different request
+     */
+    public IdempotentResponse execute(String key, Object request, Supplier<IdempotentResponse> action,
+                                      Supplier<Optional<IdempotentResponse>> created) {
+        String requestHash = hash(request);
+        Optional<Entry> entry = idempotencyKeyRepository.findByKey(key);
+        if (entry.isPresent() && !entry.get().isPending()) {
+            replayedCounter.increment();
+            return replay(entry.get(), requestHash);
+        }
+
+        InFlight running = new InFlight(requestHash);
+        InFlight previous = inFlight.putIfAbsent(key, running);
+        if (previous != null) {
+            coalescedCounter.increment();
+            return previous.await(requestHash);
+        }
+        try {
+            IdempotentResponse response = run(key, requestHash, action, created);
+            running.future.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            running.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            // Removed once the response is saved, so a later request with the key finds it in the repository
+            inFlight.remove(key, running);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval:3600000}")
+    public void deleteExpiredKeys() {
+        int deleted = idempotencyKeyRepository.deleteCreatedBefore(ZonedDateTime.now().minus(ttl));
+        if (deleted > 0) {
+            log.info("Deleted {} idempotency keys older than {}", deleted, ttl);
+        }
+    }
+
+    private IdempotentResponse run(String key, String requestHash, Supplier<IdempotentResponse> action,
+                                   Supplier<Optional<IdempotentResponse>> created) {
+        // Looked up again, as the previous request with the key may have finished after the first look up
+        Optional<Entry> entry = idempotencyKeyRepository.findByKey(key);
+        if (entry.isPresent() && !entry.get().isPending()) {
+            replayedCounter.increment();
+            return replay(entry.get(), requestHash);
+        }
+        if (entry.isPresent()) {
+            checkRequestHash(entry.get(), requestHash);
+        }
+        // Reserved by an earlier attempt of the request otherwise, which may have created the user already
+        boolean reserved = entry.isEmpty() && idempotencyKeyRepository.reserve(key, requestHash);
+        IdempotentResponse response;
+        try {
+            response = action.get();
+        } catch (UserDataDuplicatedException e) {
+            // The user may have been created by the same request, running on another instance or stopped before saving
+            // its response. A user that was there before the key was reserved is someone else's
+            response = findCreated(key, requestHash, reserved ? Optional::empty : created).orElseThrow(() -> {
+                idempotencyKeyRepository.release(key, requestHash);
+                return e;
+            });
+            replayedCounter.increment();
+            idempotencyKeyRepository.save(key, new Entry(requestHash, response));
+            return response;
+        } catch (RuntimeException e) {
+            idempotencyKeyRepository.release(key, requestHash);
+            throw e;
+        }
+        executedCounter.increment();
+        idempotencyKeyRepository.save(key, new Entry(requestHash, response));
+        return response;
+    }
+
+    private Optional<IdempotentResponse> findCreated(String key, String requestHash,
+                                                     Supplier<Optional<IdempotentResponse>> created) {
+        Optional<Entry> entry = idempotencyKeyRepository.findByKey(key);
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+        checkRequestHash(entry.get(), requestHash);
+        return entry.get().isPending() ? created.get() : Optional.of(entry.get().getResponse());
+    }
+
+    private static IdempotentResponse replay(Entry entry, String requestHash) {
+        checkRequestHash(entry, requestHash);
+        return entry.getResponse();
+    }
+
+    private static void checkRequestHash(Entry entry, String requestHash) {
+        if (!entry.getRequestHash().equals(requestHash)) {
+            throw new IdempotencyKeyReusedException();
+        }
+    }
+
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class InFlight {
+
+        final String requestHash;
+        final CompletableFuture<IdempotentResponse> future = new CompletableFuture<>();
+
+        InFlight(String requestHash) {
+            this.requestHash = requestHash;
+        }
+
+        IdempotentResponse await(String requestHash) {
+            if (!this.requestHash.equals(requestHash)) {
+                throw new IdempotencyKeyReusedException();
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.model.User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ReactiveUserService {
+
+    Mono<User> saveUser(User user);
+
+    /**
+     * Saves the changes of a user that was read before, as long as it still has the expected version, or whatever its
+     * version if it's {@code null}.
+     *
+     * @throws com.mycompany.userservice.exception.UserVersionMismatchException if the user has another version
+     */
+    Mono<User> updateUser(User user, Long expectedVersion);
+
+    Mono<Void> deleteUser(User user);
+
+    /**
+     * Deletes the user as long as it still has the expected version, or whatever its version if it's {@code null}.
+     *
+     * @throws com.mycompany.userservice.exception.UserVersionMismatchException if the user has another version
+     */
+    Mono<Void> deleteUser(User user, Long expectedVersion);
+
+    Flux<User> getUsers(Long after, int limit);
+
+    Flux<User> streamUsers();
+
+    Mono<User> validateAndGetUserById(Long id);
+
+    Mono<User> validateAndGetUserByUsername(String username);
+}
@@ -0,0 +1,78 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.ReactiveUserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Profile("reactive")
+@RequiredArgsConstructor
+@Service
+public class ReactiveUserServiceImpl implements ReactiveUserService {
+
+    private final ReactiveUserRepository userRepository;
+
+    @Override
+    public Mono<User> saveUser(User user) {
+        return userRepository.save(user)
+                .onErrorMap(DataIntegrityViolationException.class, e -> new UserDataDuplicatedException());
+    }
+
+    @Override
+    public Mono<User> updateUser(User user, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return saveUser(user);
+        }
+        return userRepository.updateIfVersion(user, expectedVersion)
+                .onErrorMap(DataIntegrityViolationException.class, e -> new UserDataDuplicatedException())
+                .switchIfEmpty(Mono.error(() -> versionMismatch(user.getId(), expectedVersion)));
+    }
+
+    @Override
+    public Mono<Void> deleteUser(User user) {
+        return userRepository.delete(user);
+    }
+
+    @Override
+    public Mono<Void> deleteUser(User user, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return deleteUser(user);
+        }
+        return userRepository.deleteIfVersion(user.getId(), expectedVersion)
+                .flatMap(deleted -> deleted ? Mono.empty() : Mono.error(versionMismatch(user.getId(), expectedVersion)));
+    }
+
+    @Override
+    public Flux<User> getUsers(Long after, int limit) {
+        return userRepository.findByIdGreaterThan(after, limit);
+    }
+
+    @Override
+    public Flux<User> streamUsers() {
+        return userRepository.findAll();
+    }
+
+    @Override
+    public Mono<User> validateAndGetUserById(Long id) {
+        return userRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(String.format("User with id '%s' doesn't exist.", id))));
+    }
+
+    @Override
+    public Mono<User> validateAndGetUserByUsername(String username) {
+        return userRepository.findUserByUsername(username)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(String.format("User with username '%s' doesn't exist.", username))));
+    }
+
+    private static UserVersionMismatchException versionMismatch(Long id, Long expectedVersion) {
+        return new UserVersionMismatchException(
+                String.format("User with id '%s' doesn't have version '%s' anymore.", id, expectedVersion));
+    }
+}
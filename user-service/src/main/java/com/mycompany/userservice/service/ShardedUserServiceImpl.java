@@ -0,0 +1,558 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.config.ConsistentHashRing;
+import com.mycompany.userservice.config.ShardRoutingDataSource;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import com.mycompany.userservice.repository.UserDirectoryRepository;
+import com.mycompany.userservice.repository.UserDirectoryRepository.Entry;
+import com.mycompany.userservice.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link UserService} of a sharded {@code users} table, see {@code ShardingConfig}. The {@code user_directory} table
+ * hands out the ids, keeps the usernames and emails unique across the shards, and records the shard of each user, the
+ * one the {@link ConsistentHashRing} picks for its id when it's created. Each change is written to the shard of the
+ * user, with its outbox entry in the same transaction, and {@link UserChangeForwarder} forwards it to the outbox that
+ * the relay reads from.
+ * <p>
+ * The lookups by id, username or email go to the shard of each user. Listings and searches go to every shard in
+ * parallel, and their results are merged by id. A user that {@link UserResharder} moved while it was being changed is
+ * changed on its new shard.
+ * <p>
+ * The directory and the shard aren't written in one transaction: the username and email are claimed in the directory
+ * before the user is written, and given back if the write fails. A crash in between can leave a claim without a user,
+ * but never two users with the same username or email. An update claims the new ones while it holds the user's row on
+ * its shard, see {@link #updateUser}.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "true")
+@Slf4j
+@Service
+public class ShardedUserServiceImpl implements UserService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int LOOKUP_CHUNK_SIZE = 512;
+
+    private final UserRepository userRepository;
+    private final UserChangeRepository userChangeRepository;
+    private final UserDirectoryRepository userDirectoryRepository;
+    private final ConsistentHashRing consistentHashRing;
+    private final UserCache userCache;
+    private final UserDuplicateFilter userDuplicateFilter;
+    private final UsernameIndex usernameIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate directoryTransactionTemplate;
+    private final ExecutorService shardExecutor;
+
+    public ShardedUserServiceImpl(UserRepository userRepository,
+                                  UserChangeRepository userChangeRepository,
+                                  UserDirectoryRepository userDirectoryRepository,
+                                  ConsistentHashRing consistentHashRing,
+                                  UserCache userCache,
+                                  UserDuplicateFilter userDuplicateFilter,
+                                  UsernameIndex usernameIndex,
+                                  TransactionTemplate transactionTemplate) {
+        this.userRepository = userRepository;
+        this.userChangeRepository = userChangeRepository;
+        this.userDirectoryRepository = userDirectoryRepository;
+        this.consistentHashRing = consistentHashRing;
+        this.userCache = userCache;
+        this.userDuplicateFilter = userDuplicateFilter;
+        this.usernameIndex = usernameIndex;
+        this.transactionTemplate = transactionTemplate;
+        this.directoryTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.directoryTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.shardExecutor = Executors.newFixedThreadPool(consistentHashRing.getShards().size(), runnable -> {
+            Thread thread = new Thread(runnable, "user-shards-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shardExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates the user. A user that already has an id is updated as {@link #updateUser} does, i.e. its {@code null}
+     * fields are left as they are.
+     */
+    @Override
+    public User saveUser(User user) {
+        if (user.getId() != null) {
+            updateUser(user.getId(), null, user);
+            return validateAndGetUserById(user.getId());
+        }
+        if (userDuplicateFilter.mightBeTaken(user.getUsername(), user.getEmail())
+                && userDirectoryRepository.existsOtherEntryWithUsernameOrEmail(null, user.getUsername(), user.getEmail())) {
+            throw new UserDataDuplicatedException();
+        }
+        try {
+            userDirectoryRepository.insertAll(List.of(user), consistentHashRing::shardFor);
+        } catch (DataIntegrityViolationException e) {
+            throw new UserDataDuplicatedException();
+        }
+        try {
+            insertOnShard(consistentHashRing.shardFor(user.getId()), List.of(user));
+        } catch (RuntimeException e) {
+            release(List.of(user));
+            throw e instanceof DataIntegrityViolationException ? new UserDataDuplicatedException() : e;
+        }
+        userCache.evict(user);
+        userDuplicateFilter.add(user);
+        usernameIndex.add(user);
+        return user;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A user that clashes with one on its shard, e.g. one left without a directory entry by a crash, is skipped too. If
+     * a shard can't be written at all, its users are skipped, the users written to the other shards are still made
+     * visible to the lookups, and the failure is thrown once the batch is done.
+     */
+    @Override
+    public List<User> saveUsers(List<User> users) {
+        for (int from = 0; from < users.size(); from += BATCH_SIZE) {
+            List<User> batch = users.subList(from, Math.min(from + BATCH_SIZE, users.size()));
+            List<User> candidates = claim(withoutDuplicates(batch));
+            Map<String, List<User>> byShard = candidates.stream()
+                    .collect(Collectors.groupingBy(user -> consistentHashRing.shardFor(user.getId()),
+                            LinkedHashMap::new, Collectors.toList()));
+            List<ShardInsert> inserts = onShards(byShard.keySet(),
+                    shard -> insertOnShardSkippingClashes(shard, byShard.get(shard)));
+            // Released from this thread, as the directory can't be reached while a shard is chosen
+            RuntimeException failure = null;
+            for (ShardInsert insert : inserts) {
+                release(insert.skipped);
+                failure = failure == null ? insert.failure : failure;
+            }
+            candidates.stream().filter(user -> user.getId() != null).forEach(user -> {
+                userCache.evict(user);
+                userDuplicateFilter.add(user);
+                usernameIndex.add(user);
+            });
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Updates the user on its shard first, which locks its row until the commit, and claims the new username and email
+     * in the directory while the row is locked. The renames of a user thus reach the directory in the order they are
+     * written to the shard, and the row is locked before the directory, as {@link UserResharder} does.
+     */
+    @Override
+    public void updateUser(Long id, Long expectedVersion, User changes) {
+        Entry entry = userDirectoryRepository.findById(id).orElseThrow(() -> userNotFound(id));
+        boolean renamed = changes.getUsername() != null || changes.getEmail() != null;
+        // The directory entry as it was before the claim, to give the names back if the shard doesn't commit
+        AtomicReference<Entry> claimedFrom = new AtomicReference<>();
+        int updated;
+        try {
+            updated = onShardOf(entry, shard -> transactionTemplate.execute(status -> {
+                ZonedDateTime now = ZonedDateTime.now();
+                int count = userRepository.updateUser(id, expectedVersion, changes.getUsername(), changes.getEmail(),
+                        changes.getBirthday(), now);
+                if (count > 0) {
+                    if (renamed) {
+                        claimedFrom.set(claimNames(id, changes));
+                    }
+                    userChangeRepository.appendChanges(Operation.UPDATED, List.of(id), now);
+                }
+                return count;
+            }));
+        } catch (RuntimeException e) {
+            if (claimedFrom.get() != null) {
+                giveBackNames(claimedFrom.get(), changes);
+            }
+            throw e instanceof DataIntegrityViolationException ? new UserDataDuplicatedException() : e;
+        }
+        if (updated == 0) {
+            throw userNotFoundOrVersionMismatch(id, expectedVersion);
+        }
+        changes.setId(id);
+        userCache.evict(changes);
+        userDuplicateFilter.add(changes);
+        usernameIndex.add(changes);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        deleteUserById(user.getId(), null);
+    }
+
+    @Override
+    public void deleteUserById(Long id, Long expectedVersion) {
+        Entry entry = userDirectoryRepository.findById(id).orElseThrow(() -> userNotFound(id));
+        int deleted = onShardOf(entry, shard -> transactionTemplate.execute(status -> {
+            // The change records the user as it was, so it's appended first and rolled back if nothing is deleted
+            userChangeRepository.appendChanges(Operation.DELETED, List.of(id), ZonedDateTime.now());
+            int count = userRepository.deleteUserById(id, expectedVersion);
+            if (count == 0) {
+                status.setRollbackOnly();
+            }
+            return count;
+        }));
+        if (deleted == 0) {
+            throw userNotFoundOrVersionMismatch(id, expectedVersion);
+        }
+        userDirectoryRepository.deleteById(id);
+        User user = userWithId(id);
+        user.setUsername(entry.getUsername());
+        user.setEmail(entry.getEmail());
+        userCache.evict(user);
+        userDuplicateFilter.remove(user);
+        usernameIndex.remove(user);
+    }
+
+    @Override
+    public List<UserResponse> getUsers(Long after, int limit) {
+        return mergeById(onShards(consistentHashRing.getShards(), shard -> userRepository
+                .findUserResponsesByIdGreaterThan(after, PageRequest.of(0, limit, Sort.by("id")))), limit);
+    }
+
+    /**
+     * Goes through the users a page of every shard at a time, so memory use still doesn't depend on the number of
+     * users.
+     */
+    @Override
+    public void streamUsers(Long after, Consumer<UserResponse> consumer) {
+        List<UserResponse> page;
+        do {
+            page = getUsers(after, BATCH_SIZE);
+            page.forEach(consumer);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == BATCH_SIZE);
+    }
+
+    @Override
+    public List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                          LocalDate birthdayTo, Long after, int limit) {
+        return mergeById(onShards(consistentHashRing.getShards(), shard -> userRepository
+                .searchUsers(usernamePrefix, emailDomain, birthdayFrom, birthdayTo, after, limit)), limit);
+    }
+
+    @Override
+    public User validateAndGetUserById(Long id) {
+        return userCache.getById(id, this::findById).orElseThrow(() -> userNotFound(id));
+    }
+
+    @Override
+    public User validateAndGetUserByUsername(String username) {
+        return findUserByUsername(username)
+                .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.messageForUsername(username)));
+    }
+
+    @Override
+    public Optional<User> findUserByUsername(String username) {
+        return userCache.getByUsername(username, key -> findAll(userDirectoryRepository.findByUsernameIn(List.of(key)))
+                .stream()
+                .findFirst());
+    }
+
+    @Override
+    public Map<Long, User> getUsersByIds(Collection<Long> ids) {
+        return userCache.getAllById(ids, misses -> findAll(findInChunks(misses, userDirectoryRepository::findByIdIn)));
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        return userCache.getAllByUsername(usernames,
+                misses -> findAll(findInChunks(misses, userDirectoryRepository::findByUsernameIn)));
+    }
+
+    @Override
+    public Map<String, User> getUsersByEmails(Collection<String> emails) {
+        List<String> keys = new ArrayList<>(emails);
+        Map<String, User> users = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        userCache.loadAll(() -> findAll(findInChunks(keys, userDirectoryRepository::findByEmailIn)))
+                .forEach(user -> users.put(user.getEmail(), user));
+        return users;
+    }
+
+    private Optional<User> findById(Long id) {
+        return userDirectoryRepository.findById(id)
+                .flatMap(entry -> onShardOf(entry, shard -> userRepository.findById(id)));
+    }
+
+    /**
+     * Loads the users of the entries from their shards, in parallel.
+     */
+    private List<User> findAll(List<Entry> entries) {
+        Map<String, List<Long>> idsByShard = entries.stream().collect(Collectors.groupingBy(Entry::getShard,
+                LinkedHashMap::new, Collectors.mapping(Entry::getId, Collectors.toList())));
+        return onShards(idsByShard.keySet(), shard -> findInChunks(idsByShard.get(shard), userRepository::findByIdIn))
+                .stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    private void insertOnShard(String shard, List<User> users) {
+        ShardRoutingDataSource.runOn(shard, () -> transactionTemplate.executeWithoutResult(status -> {
+            userRepository.insertAll(users);
+            userChangeRepository.appendChanges(Operation.CREATED,
+                    users.stream().map(User::getId).collect(Collectors.toList()), ZonedDateTime.now());
+        }));
+    }
+
+    /**
+     * Inserts the users on the shard in one transaction or, if one of them clashes with a user of the shard, one at a
+     * time to skip the ones that clash. It's run on the shard, so the users skipped are released by the caller.
+     */
+    private ShardInsert insertOnShardSkippingClashes(String shard, List<User> users) {
+        ShardInsert insert = new ShardInsert();
+        try {
+            insertOnShard(shard, users);
+        } catch (DataIntegrityViolationException e) {
+            for (int i = 0; i < users.size() && insert.failure == null; i++) {
+                try {
+                    insertOnShard(shard, List.of(users.get(i)));
+                } catch (DataIntegrityViolationException ex) {
+                    insert.skipped.add(users.get(i));
+                } catch (RuntimeException ex) {
+                    insert.skipped.addAll(users.subList(i, users.size()));
+                    insert.failure = ex;
+                }
+            }
+        } catch (RuntimeException e) {
+            insert.skipped.addAll(users);
+            insert.failure = e;
+        }
+        return insert;
+    }
+
+    /**
+     * Claims the usernames and emails of the users in the directory, which sets their ids. If one of them is taken in
+     * the meantime, they are claimed one by one to find out which users clash, and those are left with a {@code null}
+     * id.
+     *
+     * @return the users claimed
+     */
+    private List<User> claim(List<User> users) {
+        try {
+            userDirectoryRepository.insertAll(users, consistentHashRing::shardFor);
+            return users;
+        } catch (DataIntegrityViolationException e) {
+            users.forEach(user -> user.setId(null));
+            List<User> claimed = new ArrayList<>(users.size());
+            for (User user : users) {
+                try {
+                    userDirectoryRepository.insertAll(Collections.singletonList(user), consistentHashRing::shardFor);
+                    claimed.add(user);
+                } catch (DataIntegrityViolationException ex) {
+                    user.setId(null);
+                }
+            }
+            return claimed;
+        }
+    }
+
+    private void release(List<User> users) {
+        for (User user : users) {
+            userDirectoryRepository.deleteById(user.getId());
+            user.setId(null);
+        }
+    }
+
+    /**
+     * Claims the names of the changes in the directory, in a transaction of its own, from within the shard transaction.
+     *
+     * @return the entry as it was before
+     * @throws DataIntegrityViolationException if the username or email is taken
+     */
+    private Entry claimNames(Long id, User changes) {
+        return ShardRoutingDataSource.callOnDirectory(() -> directoryTransactionTemplate.execute(status -> {
+            Entry entry = userDirectoryRepository.findById(id).orElseThrow(() -> userNotFound(id));
+            userDirectoryRepository.updateNames(id, changes.getUsername(), changes.getEmail());
+            return entry;
+        }));
+    }
+
+    /**
+     * Gives back the names claimed by an update whose shard transaction didn't commit, unless a later update already
+     * claimed other ones. If a name was taken by another user meanwhile, the claim is kept: the directory then holds
+     * names that no user has, which is harmless, rather than a name that two users have.
+     */
+    private void giveBackNames(Entry entry, User changes) {
+        String claimedUsername = changes.getUsername() != null ? changes.getUsername() : entry.getUsername();
+        String claimedEmail = changes.getEmail() != null ? changes.getEmail() : entry.getEmail();
+        try {
+            userDirectoryRepository.restoreNames(entry.getId(), claimedUsername, claimedEmail, entry.getUsername(),
+                    entry.getEmail());
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Could not give back the username and email of user {}", entry.getId(), e);
+        }
+    }
+
+    /**
+     * Runs the action on the shard of the entry. If the action finds nothing, i.e. it returns {@code 0} or an empty
+     * optional, and the user was moved to another shard meanwhile, it's run again there.
+     */
+    private <T> T onShardOf(Entry entry, Function<String, T> action) {
+        T result = ShardRoutingDataSource.callOn(entry.getShard(), () -> action.apply(entry.getShard()));
+        if (Integer.valueOf(0).equals(result) || Optional.empty().equals(result)) {
+            Optional<String> shard = userDirectoryRepository.findById(entry.getId()).map(Entry::getShard);
+            if (shard.isPresent() && !shard.get().equals(entry.getShard())) {
+                return ShardRoutingDataSource.callOn(shard.get(), () -> action.apply(shard.get()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the action on each of the shards, in parallel, and returns the results in the order of the shards.
+     */
+    private <T> List<T> onShards(Collection<String> shards, Function<String, T> action) {
+        if (shards.size() == 1) {
+            String shard = shards.iterator().next();
+            return Collections.singletonList(ShardRoutingDataSource.callOn(shard, () -> action.apply(shard)));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (String shard : shards) {
+            Supplier<T> call = () -> ShardRoutingDataSource.callOn(shard, () -> action.apply(shard));
+            futures.add(CompletableFuture.supplyAsync(call, shardExecutor));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Merges the pages of the shards into the first {@code limit} users by id. A user found on two shards, i.e. while
+     * it's being moved, is only taken once.
+     */
+    private static List<UserResponse> mergeById(List<List<UserResponse>> pages, int limit) {
+        List<UserResponse> users = pages.stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(UserResponse::getId))
+                .collect(Collectors.toList());
+        List<UserResponse> merged = new ArrayList<>(Math.min(limit, users.size()));
+        for (UserResponse user : users) {
+            if (merged.size() == limit) {
+                break;
+            }
+            if (merged.isEmpty() || !merged.get(merged.size() - 1).getId().equals(user.getId())) {
+                merged.add(user);
+            }
+        }
+        return merged;
+    }
+
+    private static <K, T> List<T> findInChunks(List<K> keys, Function<List<K>, List<T>> finder) {
+        List<T> found = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += LOOKUP_CHUNK_SIZE) {
+            found.addAll(finder.apply(keys.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, keys.size()))));
+        }
+        return found;
+    }
+
+    private static UserNotFoundException userNotFound(Long id) {
+        return new UserNotFoundException(String.format("User with id '%s' doesn't exist.", id));
+    }
+
+    private RuntimeException userNotFoundOrVersionMismatch(Long id, Long expectedVersion) {
+        boolean exists = expectedVersion != null && findById(id).isPresent();
+        if (exists) {
+            userCache.evict(userWithId(id));
+            return new UserVersionMismatchException(
+                    String.format("User with id '%s' doesn't have version '%s' anymore.", id, expectedVersion));
+        }
+        return userNotFound(id);
+    }
+
+    private static User userWithId(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private List<User> withoutDuplicates(List<User> users) {
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        users.stream()
+                .filter(user -> userDuplicateFilter.mightBeTaken(user.getUsername(), user.getEmail()))
+                .forEach(user -> {
+                    usernames.add(user.getUsername());
+                    emails.add(user.getEmail());
+                });
+
+        Set<String> takenUsernames = new HashSet<>();
+        Set<String> takenEmails = new HashSet<>();
+        userDirectoryRepository.findByUsernameInOrEmailIn(usernames, emails).forEach(entry -> {
+            takenUsernames.add(entry.getUsername());
+            takenEmails.add(entry.getEmail());
+        });
+
+        List<User> candidates = new ArrayList<>(users.size());
+        for (User user : users) {
+            if (!takenUsernames.contains(user.getUsername()) && !takenEmails.contains(user.getEmail())) {
+                takenUsernames.add(user.getUsername());
+                takenEmails.add(user.getEmail());
+                candidates.add(user);
+            }
+        }
+        return candidates;
+    }
+
+    // The users of a shard that weren't inserted, and the failure that stopped its insert, if any
+    private static class ShardInsert {
+
+        final List<User> skipped = new ArrayList<>();
+        RuntimeException failure;
+    }
+}
@@ -0,0 +1,73 @@
+package com.mycompany.userservice.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Lets concurrent calls for the same key share a single execution: the first caller runs the function, and the ones
+ * that arrive while it runs wait for it and get its result or its exception. Calls that arrive afterwards run it again.
+ * <p>
+ * The in-flight calls are claimed with a {@code putIfAbsent}, so no lock is held while the function runs and calls for
+ * other keys never wait for it.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final LongAdder sharedCalls = new LongAdder();
+
+    V execute(K key, Function<? super K, ? extends V> function) {
+        CompletableFuture<V> call = calls.get(key);
+        if (call == null) {
+            CompletableFuture<V> newCall = new CompletableFuture<>();
+            call = calls.putIfAbsent(key, newCall);
+            if (call == null) {
+                return run(key, function, newCall);
+            }
+        }
+        sharedCalls.increment();
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Makes the calls that arrive from now on run the function again instead of joining the ones in flight, e.g.
+     * because the data those read may have changed since they started. The callers already waiting still get their
+     * result.
+     */
+    void forgetAll() {
+        calls.clear();
+    }
+
+    /**
+     * @return the number of calls that got the result of another one instead of running the function
+     */
+    long getSharedCalls() {
+        return sharedCalls.sum();
+    }
+
+    private V run(K key, Function<? super K, ? extends V> function, CompletableFuture<V> call) {
+        try {
+            V value = function.apply(key);
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+}
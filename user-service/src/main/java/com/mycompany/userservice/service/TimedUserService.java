@@ -0,0 +1,177 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Times every method of a {@link UserService} as {@code user.service}, tagged with the method and the simple name of
+ * the exception it threw, or {@code none}.
+ * <p>
+ * It's written by hand rather than as an AOP proxy: a cache hit is answered in about a hundred nanoseconds, and the
+ * reflective invocation of a proxy alone costs more than that. Here, the timers of the successful calls are registered
+ * upfront, so a call only adds two clock reads and the record itself.
+ */
+public class TimedUserService implements UserService {
+
+    public static final String USER_SERVICE_TIMER = "user.service";
+
+    private static final String NO_EXCEPTION = "none";
+
+    private final UserService userService;
+    private final MeterRegistry meterRegistry;
+
+    private final MethodTimer saveUser;
+    private final MethodTimer saveUsers;
+    private final MethodTimer updateUser;
+    private final MethodTimer deleteUser;
+    private final MethodTimer deleteUserById;
+    private final MethodTimer getUsers;
+    private final MethodTimer streamUsers;
+    private final MethodTimer searchUsers;
+    private final MethodTimer validateAndGetUserById;
+    private final MethodTimer validateAndGetUserByUsername;
+    private final MethodTimer findUserByUsername;
+    private final MethodTimer getUsersByIds;
+    private final MethodTimer getUsersByUsernames;
+    private final MethodTimer getUsersByEmails;
+
+    public TimedUserService(UserService userService, MeterRegistry meterRegistry) {
+        this.userService = userService;
+        this.meterRegistry = meterRegistry;
+        saveUser = new MethodTimer("saveUser");
+        saveUsers = new MethodTimer("saveUsers");
+        updateUser = new MethodTimer("updateUser");
+        deleteUser = new MethodTimer("deleteUser");
+        deleteUserById = new MethodTimer("deleteUserById");
+        getUsers = new MethodTimer("getUsers");
+        streamUsers = new MethodTimer("streamUsers");
+        searchUsers = new MethodTimer("searchUsers");
+        validateAndGetUserById = new MethodTimer("validateAndGetUserById");
+        validateAndGetUserByUsername = new MethodTimer("validateAndGetUserByUsername");
+        findUserByUsername = new MethodTimer("findUserByUsername");
+        getUsersByIds = new MethodTimer("getUsersByIds");
+        getUsersByUsernames = new MethodTimer("getUsersByUsernames");
+        getUsersByEmails = new MethodTimer("getUsersByEmails");
+    }
+
+    @Override
+    public User saveUser(User user) {
+        return saveUser.record(() -> userService.saveUser(user));
+    }
+
+    @Override
+    public List<User> saveUsers(List<User> users) {
+        return saveUsers.record(() -> userService.saveUsers(users));
+    }
+
+    @Override
+    public void updateUser(Long id, Long expectedVersion, User changes) {
+        updateUser.record(() -> userService.updateUser(id, expectedVersion, changes));
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        deleteUser.record(() -> userService.deleteUser(user));
+    }
+
+    @Override
+    public void deleteUserById(Long id, Long expectedVersion) {
+        deleteUserById.record(() -> userService.deleteUserById(id, expectedVersion));
+    }
+
+    @Override
+    public List<UserResponse> getUsers(Long after, int limit) {
+        return getUsers.record(() -> userService.getUsers(after, limit));
+    }
+
+    @Override
+    public void streamUsers(Long after, Consumer<UserResponse> consumer) {
+        streamUsers.record(() -> userService.streamUsers(after, consumer));
+    }
+
+    @Override
+    public List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                          LocalDate birthdayTo, Long after, int limit) {
+        return searchUsers.record(() -> userService.searchUsers(usernamePrefix, emailDomain, birthdayFrom, birthdayTo,
+                after, limit));
+    }
+
+    @Override
+    public User validateAndGetUserById(Long id) {
+        return validateAndGetUserById.record(() -> userService.validateAndGetUserById(id));
+    }
+
+    @Override
+    public User validateAndGetUserByUsername(String username) {
+        return validateAndGetUserByUsername.record(() -> userService.validateAndGetUserByUsername(username));
+    }
+
+    @Override
+    public Optional<User> findUserByUsername(String username) {
+        return findUserByUsername.record(() -> userService.findUserByUsername(username));
+    }
+
+    @Override
+    public Map<Long, User> getUsersByIds(Collection<Long> ids) {
+        return getUsersByIds.record(() -> userService.getUsersByIds(ids));
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        return getUsersByUsernames.record(() -> userService.getUsersByUsernames(usernames));
+    }
+
+    @Override
+    public Map<String, User> getUsersByEmails(Collection<String> emails) {
+        return getUsersByEmails.record(() -> userService.getUsersByEmails(emails));
+    }
+
+    private Timer timer(String method, String exception) {
+        return Timer.builder(USER_SERVICE_TIMER)
+                .tag("method", method)
+                .tag("exception", exception)
+                .register(meterRegistry);
+    }
+
+    private final class MethodTimer {
+
+        private final String method;
+        private final Timer timer;
+
+        MethodTimer(String method) {
+            this.method = method;
+            this.timer = timer(method, NO_EXCEPTION);
+        }
+
+        <T> T record(Supplier<T> call) {
+            long start = System.nanoTime();
+            T result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                timer(method, e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        }
+
+        void record(Runnable call) {
+            record(() -> {
+                call.run();
+                return null;
+            });
+        }
+    }
+}
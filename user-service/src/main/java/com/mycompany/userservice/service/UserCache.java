@@ -0,0 +1,240 @@
+package com.mycompany.userservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mycompany.userservice.config.ReplicaRoutingDataSource;
+import com.mycompany.userservice.model.User;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded read-through cache in front of the user lookups.
+ * <p>
+ * Users are kept by id, and usernames only point to an id, so a hit by username is checked against the id entry. That
+ * way, evicting the id on write is enough to stop serving an old username after a rename. The cache stores and hands
+ * out copies, so callers can change the returned users without touching the cached ones.
+ * <p>
+ * Concurrent misses for the same key share one load through a {@link SingleFlight}, including loads that find no user.
+ * A load that overlaps an eviction doesn't leave its possibly stale result in the cache, and isn't joined by the misses
+ * that come after the eviction.
+ * <p>
+ * Usernames that weren't found are remembered for a short while, in a separate bounded cache, so repeated probes for
+ * names that don't exist don't reach the database. Evicting a user also forgets its username as missing, and every
+ * write evicts, so a username is found as soon as the user that takes it is saved. The usernames are keyed ignoring
+ * their case, as the database compares them, so saving {@code Ivan} also forgets {@code ivan} as missing.
+ * <p>
+ * Multi-gets take the users they can from the cache and load the rest in one call of the loader, which doesn't go
+ * through the {@link SingleFlight}.
+ * <p>
+ * The loaders read from the primary, even with read replicas: a user read from a replica that hasn't applied a write
+ * yet would be cached after the eviction of the write, and served until it expires.
+ */
+@Component
+public class UserCache implements MeterBinder {
+
+    public static final String SHARED_LOADS_COUNTER = "user.cache.shared.loads";
+
+    private final Cache<Long, User> usersById;
+    private final Cache<String, Long> userIdsByUsername;
+    private final Cache<String, Boolean> missingUsernames;
+    private final SingleFlight<Long, Optional<User>> loadsById = new SingleFlight<>();
+    private final SingleFlight<String, Optional<User>> loadsByUsername = new SingleFlight<>();
+    // Incremented on every eviction, so a load can tell whether one happened while it read the database
+    private final AtomicLong evictions = new AtomicLong();
+
+    public UserCache(@Value("${app.user-cache.spec:maximumSize=10000,expireAfterWrite=5m}") String spec,
+                     @Value("${app.user-cache.missing-spec:maximumSize=100000,expireAfterWrite=30s}") String missingSpec) {
+        this.usersById = Caffeine.from(spec).recordStats().build();
+        this.userIdsByUsername = Caffeine.from(spec).recordStats().build();
+        this.missingUsernames = Caffeine.from(missingSpec).recordStats().build();
+    }
+
+    public Optional<User> getById(Long id, Function<Long, Optional<User>> loader) {
+        User user = usersById.getIfPresent(id);
+        if (user != null) {
+            return Optional.of(copy(user));
+        }
+        return loadsById.execute(id, key -> load(key, loader)).map(UserCache::copy);
+    }
+
+    public Optional<User> getByUsername(String username, Function<String, Optional<User>> loader) {
+        String key = key(username);
+        Long id = userIdsByUsername.getIfPresent(key);
+        if (id != null) {
+            User user = usersById.getIfPresent(id);
+            if (user != null && key(user.getUsername()).equals(key)) {
+                return Optional.of(copy(user));
+            }
+            userIdsByUsername.invalidate(key);
+        } else if (missingUsernames.getIfPresent(key) != null) {
+            return Optional.empty();
+        }
+        return loadsByUsername.execute(key, ignored -> loadByUsername(username, loader)).map(UserCache::copy);
+    }
+
+    /**
+     * Returns the users with the given ids, by id, loading the ones not cached with {@code loader}. Ids without a user
+     * are left out.
+     */
+    public Map<Long, User> getAllById(Collection<Long> ids, Function<List<Long>, List<User>> loader) {
+        Map<Long, User> users = new HashMap<>();
+        List<Long> misses = new ArrayList<>();
+        for (Long id : ids) {
+            User user = usersById.getIfPresent(id);
+            if (user != null) {
+                users.put(id, copy(user));
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            loadAll(() -> loader.apply(misses)).forEach(user -> users.put(user.getId(), user));
+        }
+        return users;
+    }
+
+    /**
+     * Returns the users with the given usernames, by username, loading the ones not cached with {@code loader}.
+     * Usernames without a user are left out, and remembered as missing. The keys are compared ignoring their case, as
+     * the database does, so a username that the loader found with another case isn't taken as missing.
+     */
+    public Map<String, User> getAllByUsername(Collection<String> usernames, Function<List<String>, List<User>> loader) {
+        Map<String, User> users = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> misses = new ArrayList<>();
+        for (String username : usernames) {
+            Long id = userIdsByUsername.getIfPresent(key(username));
+            User user = id == null ? null : usersById.getIfPresent(id);
+            if (user != null && key(user.getUsername()).equals(key(username))) {
+                users.put(username, copy(user));
+            } else if (id != null || missingUsernames.getIfPresent(key(username)) == null) {
+                misses.add(username);
+            }
+        }
+        if (!misses.isEmpty()) {
+            long evictionsBefore = evictions.get();
+            loadAll(() -> loader.apply(misses)).forEach(user -> users.put(user.getUsername(), user));
+            for (String username : misses) {
+                if (!users.containsKey(username)) {
+                    missingUsernames.put(key(username), Boolean.TRUE);
+                }
+            }
+            if (evictions.get() != evictionsBefore) {
+                misses.forEach(username -> missingUsernames.invalidate(key(username)));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Runs a query for users that the cache can't answer by itself, like a lookup by email, and caches the users found.
+     */
+    public List<User> loadAll(Supplier<List<User>> loader) {
+        long evictionsBefore = evictions.get();
+        List<User> users = ReplicaRoutingDataSource.readFromPrimary(loader);
+        for (User user : users) {
+            usersById.put(user.getId(), copy(user));
+            userIdsByUsername.put(key(user.getUsername()), user.getId());
+        }
+        if (evictions.get() != evictionsBefore) {
+            users.forEach(this::remove);
+        }
+        return users;
+    }
+
+    public void evict(User user) {
+        evictions.incrementAndGet();
+        // All of them, as a load by the old username of a renamed user may be running
+        loadsById.forgetAll();
+        loadsByUsername.forgetAll();
+        remove(user);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, usersById, "users");
+        CaffeineCacheMetrics.monitor(registry, userIdsByUsername, "usernames");
+        CaffeineCacheMetrics.monitor(registry, missingUsernames, "missing-usernames");
+        FunctionCounter.builder(SHARED_LOADS_COUNTER, loadsById, SingleFlight::getSharedCalls)
+                .tag("cache", "users")
+                .description("Lookups that missed the cache and got the result of a concurrent load of the same key")
+                .register(registry);
+        FunctionCounter.builder(SHARED_LOADS_COUNTER, loadsByUsername, SingleFlight::getSharedCalls)
+                .tag("cache", "usernames")
+                .description("Lookups that missed the cache and got the result of a concurrent load of the same key")
+                .register(registry);
+    }
+
+    /**
+     * Loads the user and caches it, unless a user was evicted in the meantime: the load may have read it before the
+     * write that caused the eviction.
+     */
+    private <K> Optional<User> load(K key, Function<K, Optional<User>> loader) {
+        long evictionsBefore = evictions.get();
+        Optional<User> userOptional = ReplicaRoutingDataSource.readFromPrimary(() -> loader.apply(key));
+        userOptional.ifPresent(user -> {
+            usersById.put(user.getId(), copy(user));
+            userIdsByUsername.put(key(user.getUsername()), user.getId());
+            if (evictions.get() != evictionsBefore) {
+                remove(user);
+            }
+        });
+        return userOptional;
+    }
+
+    /**
+     * Loads the user like {@link #load}, and remembers the username as missing if there is no user with it. The same
+     * check on the evictions keeps a load that overlaps the creation of the user from remembering it as missing.
+     */
+    private Optional<User> loadByUsername(String username, Function<String, Optional<User>> loader) {
+        long evictionsBefore = evictions.get();
+        Optional<User> userOptional = load(username, loader);
+        if (userOptional.isEmpty()) {
+            missingUsernames.put(key(username), Boolean.TRUE);
+            if (evictions.get() != evictionsBefore) {
+                missingUsernames.invalidate(key(username));
+            }
+        }
+        return userOptional;
+    }
+
+    private void remove(User user) {
+        User previous = usersById.asMap().remove(user.getId());
+        if (previous != null) {
+            userIdsByUsername.invalidate(key(previous.getUsername()));
+        }
+        if (user.getUsername() != null) {
+            userIdsByUsername.invalidate(key(user.getUsername()));
+            missingUsernames.invalidate(key(user.getUsername()));
+        }
+    }
+
+    // The database compares usernames ignoring their case, so the caches by username do too
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getUsername(), user.getEmail(), user.getBirthday());
+        copy.setId(user.getId());
+        copy.setCreatedOn(user.getCreatedOn());
+        copy.setUpdatedOn(user.getUpdatedOn());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,288 @@
+package com.mycompany.userservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the user changes to Server-Sent Events subscribers. Subscribers hold no thread while they wait: each change
+ * is serialized once, queued in the bounded buffer of every subscriber, and written by a small pool of dispatch
+ * threads, one subscriber at a time.
+ * <p>
+ * A subscriber that falls more than {@code buffer-size} changes behind gets a {@value #RESYNC_EVENT} event with the
+ * sequence number of the last change it was sent, and is disconnected. It catches up from the outbox, either with
+ * {@code GET /api/users/changes?since=} or by subscribing again with that sequence number, which is what browsers do
+ * with {@code Last-Event-ID} when they reconnect.
+ */
+@Profile("!reactive")
+@Slf4j
+@Component
+public class UserChangeBroadcaster implements UserChangeSink, DisposableBean {
+
+    public static final String SUBSCRIBERS_GAUGE = "user.changes.subscribers";
+    public static final String RESYNCS_COUNTER = "user.changes.resyncs";
+    public static final String RESYNC_EVENT = "resync";
+
+    private final UserChangeRepository userChangeRepository;
+    private final ObjectWriter changeWriter;
+    private final int bufferSize;
+    private final Duration timeout;
+    private final ExecutorService dispatchExecutor;
+    private final Counter resyncCounter;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    public UserChangeBroadcaster(UserChangeRepository userChangeRepository,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.user-changes.push.buffer-size:1000}") int bufferSize,
+                                 @Value("${app.user-changes.push.timeout:30m}") Duration timeout,
+                                 @Value("${app.user-changes.push.dispatch-threads:2}") int dispatchThreads) {
+        this.userChangeRepository = userChangeRepository;
+        this.changeWriter = objectMapper.writerFor(UserChangeEvent.class);
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "user-changes-push-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resyncCounter = meterRegistry.counter(RESYNCS_COUNTER);
+        meterRegistry.gauge(SUBSCRIBERS_GAUGE, subscribers, Set::size);
+    }
+
+    /**
+     * Subscribes to the changes published from now on or, if {@code since} is informed, to the changes after that
+     * sequence number.
+     */
+    public SseEmitter subscribe(Long since) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(emitter, since == null ? 0 : since);
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+
+        // Read after registering, so the changes published in between are queued and none is missed
+        List<Message> backlog = since == null ? Collections.emptyList()
+                : toMessages(userChangeRepository.findChangesAfter(since, bufferSize + 1));
+        subscriber.start(backlog);
+        return emitter;
+    }
+
+    /**
+     * Queues the changes for every subscriber once the transaction that numbered them commits.
+     */
+    @Override
+    public void publish(List<UserChangeEvent> changes) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            offer(changes);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                offer(changes);
+            }
+        });
+    }
+
+    /**
+     * Sends a comment to the idle subscribers, so proxies keep their connections open and the ones that are gone are
+     * noticed.
+     */
+    @Scheduled(fixedDelayString = "${app.user-changes.push.heartbeat-interval:15000}")
+    public void sendHeartbeats() {
+        subscribers.forEach(Subscriber::heartbeat);
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void destroy() {
+        dispatchExecutor.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private void offer(List<UserChangeEvent> changes) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        List<Message> messages = toMessages(changes);
+        subscribers.forEach(subscriber -> subscriber.offer(messages));
+    }
+
+    private List<Message> toMessages(List<UserChangeEvent> changes) {
+        List<Message> messages = new ArrayList<>(changes.size());
+        try {
+            for (UserChangeEvent change : changes) {
+                messages.add(new Message(change.getSequenceNumber(), change.getOperation().name(),
+                        changeWriter.writeValueAsString(change)));
+            }
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return messages;
+    }
+
+    private static class Message {
+
+        final long sequenceNumber;
+        final String name;
+        final String data;
+
+        Message(long sequenceNumber, String name, String data) {
+            this.sequenceNumber = sequenceNumber;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+
+        final SseEmitter emitter;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // Guarded by this
+        final Deque<Message> buffer = new ArrayDeque<>();
+        List<Message> pending = new ArrayList<>();
+        long lastSequenceNumber;
+        boolean overflowed;
+        boolean heartbeat;
+
+        Subscriber(SseEmitter emitter, long since) {
+            this.emitter = emitter;
+            this.lastSequenceNumber = since;
+        }
+
+        /**
+         * Queues the backlog ahead of the changes published while it was read, which may overlap with it.
+         */
+        void start(List<Message> backlog) {
+            synchronized (this) {
+                backlog.forEach(this::enqueue);
+                pending.forEach(this::enqueue);
+                pending = null;
+            }
+            schedule();
+        }
+
+        void offer(List<Message> messages) {
+            synchronized (this) {
+                if (pending != null) {
+                    pending.addAll(messages);
+                    return;
+                }
+                messages.forEach(this::enqueue);
+            }
+            schedule();
+        }
+
+        void heartbeat() {
+            synchronized (this) {
+                heartbeat = true;
+            }
+            schedule();
+        }
+
+        private void enqueue(Message message) {
+            if (overflowed || message.sequenceNumber <= lastSequenceNumber) {
+                return;
+            }
+            if (buffer.size() == bufferSize) {
+                overflowed = true;
+                return;
+            }
+            buffer.add(message);
+            lastSequenceNumber = message.sequenceNumber;
+        }
+
+        private synchronized boolean hasWork() {
+            return !buffer.isEmpty() || overflowed || heartbeat;
+        }
+
+        private void schedule() {
+            if (hasWork() && scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatchExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                List<Message> messages;
+                boolean resync;
+                boolean ping;
+                long resyncSince;
+                synchronized (this) {
+                    messages = new ArrayList<>(buffer);
+                    buffer.clear();
+                    resync = overflowed;
+                    ping = heartbeat && messages.isEmpty();
+                    heartbeat = false;
+                    resyncSince = lastSequenceNumber;
+                }
+                try {
+                    for (Message message : messages) {
+                        emitter.send(SseEmitter.event()
+                                .id(Long.toString(message.sequenceNumber))
+                                .name(message.name)
+                                .data(message.data));
+                    }
+                    if (resync) {
+                        emitter.send(SseEmitter.event()
+                                .name(RESYNC_EVENT)
+                                .data("{\"since\":" + resyncSince + "}"));
+                        resyncCounter.increment();
+                        subscribers.remove(this);
+                        emitter.complete();
+                        return;
+                    }
+                    if (ping) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // The client is gone or the emitter timed out; the container completes the request
+                    log.debug("Dropping user changes subscriber: {}", e.getMessage());
+                    subscribers.remove(this);
+                    return;
+                }
+                scheduled.set(false);
+            } while (hasWork() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the user changes to incremental consumers by long polling. A consumer asks for the changes after the last
+ * sequence number it has seen; if there are none yet, its request waits, without holding a thread, until the relay
+ * publishes new ones or the wait times out with an empty list.
+ */
+@Profile("!reactive")
+@RequiredArgsConstructor
+@Component
+public class UserChangeFeed implements UserChangeSink {
+
+    private final UserChangeRepository userChangeRepository;
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    public DeferredResult<List<UserChangeEvent>> getChanges(long after, int limit, Duration wait) {
+        DeferredResult<List<UserChangeEvent>> result = new DeferredResult<>(wait.toMillis(), Collections.emptyList());
+        if (!wait.isZero()) {
+            // Registered before the query, so changes published in between aren't missed
+            Waiter waiter = new Waiter(after, limit, result);
+            waiters.add(waiter);
+            result.onCompletion(() -> waiters.remove(waiter));
+        }
+        List<UserChangeEvent> changes = userChangeRepository.findChangesAfter(after, limit);
+        if (!changes.isEmpty() || wait.isZero()) {
+            result.setResult(changes);
+        }
+        return result;
+    }
+
+    /**
+     * Wakes the consumers waiting for these changes, once the transaction that numbered them commits.
+     */
+    @Override
+    public void publish(List<UserChangeEvent> changes) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            wake(changes);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wake(changes);
+            }
+        });
+    }
+
+    private void wake(List<UserChangeEvent> changes) {
+        for (Waiter waiter : waiters) {
+            List<UserChangeEvent> newChanges = changes.stream()
+                    .filter(change -> change.getSequenceNumber() > waiter.after)
+                    .limit(waiter.limit)
+                    .collect(Collectors.toList());
+            if (!newChanges.isEmpty()) {
+                waiter.result.setResult(newChanges);
+            }
+        }
+    }
+
+    private static class Waiter {
+
+        final long after;
+        final int limit;
+        final DeferredResult<List<UserChangeEvent>> result;
+
+        Waiter(long after, int limit, DeferredResult<List<UserChangeEvent>> result) {
+            this.after = after;
+            this.limit = limit;
+            this.result = result;
+        }
+    }
+}
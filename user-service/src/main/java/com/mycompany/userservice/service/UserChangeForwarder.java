@@ -0,0 +1,84 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.config.ShardRoutingDataSource;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import com.mycompany.userservice.repository.UserChangeRepository.PendingChange;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Forwards the changes appended to the outbox of each shard to the outbox of the directory, which is the one
+ * {@link UserChangeRelay} numbers and relays. A batch is appended to the directory before it's deleted from the shard,
+ * and appended only once even if the delete fails, so no change is lost or relayed twice.
+ * <p>
+ * The changes of a user keep their order, as a user is on one shard at a time and {@link UserResharder} forwards the
+ * changes of a user before moving it.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "true")
+@Slf4j
+@Component
+public class UserChangeForwarder {
+
+    private final UserChangeRepository userChangeRepository;
+    private final ShardRoutingDataSource shardRoutingDataSource;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public UserChangeForwarder(UserChangeRepository userChangeRepository,
+                               ShardRoutingDataSource shardRoutingDataSource,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${app.user-changes.batch-size:1000}") int batchSize) {
+        this.userChangeRepository = userChangeRepository;
+        this.shardRoutingDataSource = shardRoutingDataSource;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of changes forwarded
+     */
+    @Scheduled(fixedDelayString = "${app.user-changes.relay-interval:500}")
+    public int forwardAll() {
+        int forwarded = 0;
+        for (String shard : shardRoutingDataSource.getShardNames()) {
+            try {
+                forwarded += forward(shard);
+            } catch (RuntimeException e) {
+                // The other shards are still forwarded, and this one is tried again on the next run
+                log.warn("Could not forward the user changes of shard {}", shard, e);
+            }
+        }
+        return forwarded;
+    }
+
+    /**
+     * @return the number of changes forwarded from the shard
+     */
+    public int forward(String shard) {
+        int forwarded = 0;
+        List<PendingChange> changes;
+        do {
+            changes = ShardRoutingDataSource.callOn(shard,
+                    () -> transactionTemplate.execute(status -> userChangeRepository.findPendingChanges(batchSize)));
+            if (changes.isEmpty()) {
+                break;
+            }
+            List<PendingChange> batch = changes;
+            transactionTemplate.executeWithoutResult(status -> userChangeRepository.appendForwardedChanges(shard, batch));
+            List<Long> ids = batch.stream().map(PendingChange::getId).collect(Collectors.toList());
+            ShardRoutingDataSource.runOn(shard,
+                    () -> transactionTemplate.executeWithoutResult(status -> userChangeRepository.deleteChanges(ids)));
+            forwarded += batch.size();
+        } while (changes.size() == batchSize);
+        return forwarded;
+    }
+}
@@ -0,0 +1,70 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Relays the changes appended to the outbox to the {@link UserChangeSink}s in batches, and deletes the relayed changes
+ * once they are older than the retention period.
+ */
+@Profile("!reactive")
+@Slf4j
+@Component
+public class UserChangeRelay {
+
+    private final UserChangeRepository userChangeRepository;
+    private final List<UserChangeSink> userChangeSinks;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Duration retention;
+
+    public UserChangeRelay(UserChangeRepository userChangeRepository,
+                           List<UserChangeSink> userChangeSinks,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${app.user-changes.batch-size:1000}") int batchSize,
+                           @Value("${app.user-changes.retention:7d}") Duration retention) {
+        this.userChangeRepository = userChangeRepository;
+        this.userChangeSinks = userChangeSinks;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.retention = retention;
+    }
+
+    /**
+     * @return the number of changes relayed
+     */
+    @Scheduled(fixedDelayString = "${app.user-changes.relay-interval:500}")
+    public int relay() {
+        int relayed = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> {
+                List<UserChangeEvent> changes = userChangeRepository.numberNextChanges(batchSize);
+                if (!changes.isEmpty()) {
+                    userChangeSinks.forEach(sink -> sink.publish(changes));
+                }
+                return changes.size();
+            });
+            relayed += batch;
+        } while (batch == batchSize);
+        return relayed;
+    }
+
+    @Scheduled(fixedDelayString = "${app.user-changes.cleanup-interval:3600000}")
+    public void deleteExpiredChanges() {
+        int deleted = userChangeRepository.deleteChangesBefore(ZonedDateTime.now().minus(retention));
+        if (deleted > 0) {
+            log.info("Deleted {} user changes older than {}", deleted, retention);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+
+import java.util.List;
+
+/**
+ * Destination of the user changes relayed from the outbox by {@link UserChangeRelay}. Every sink bean receives every
+ * change, in sequence order and at least once: the changes are published in the transaction that numbers them, so
+ * if a sink fails they are published again, to all sinks, on the next run.
+ */
+public interface UserChangeSink {
+
+    void publish(List<UserChangeEvent> changes);
+}
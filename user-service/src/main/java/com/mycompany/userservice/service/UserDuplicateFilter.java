@@ -0,0 +1,129 @@
+package com.mycompany.userservice.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory Bloom filters over the usernames and emails in use, so that a user whose username and email are
+ * definitely free can be saved without checking the database first.
+ * <p>
+ * The filters only ever answer "definitely free" or "maybe taken"; the unique constraints on {@code users} remain
+ * the authority, e.g. for users saved by other instances. Until the filters are warmed up, everything is reported as
+ * maybe taken. Bloom filters can't forget a value, so deleted users keep answering maybe taken until the filters are
+ * rebuilt, which happens in the background once enough users have been deleted.
+ */
+@Profile("!reactive")
+@Slf4j
+@Component
+public class UserDuplicateFilter {
+
+    private final UserRepository userRepository;
+    private final TaskExecutor taskExecutor;
+    private final int expectedInsertions;
+    private final double falsePositiveProbability;
+    private final int rebuildThreshold;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicInteger removals = new AtomicInteger();
+    private volatile Filters filters;
+    private volatile Filters pendingFilters;
+
+    public UserDuplicateFilter(UserRepository userRepository,
+                               TaskExecutor taskExecutor,
+                               @Value("${app.duplicate-filter.expected-insertions:1000000}") int expectedInsertions,
+                               @Value("${app.duplicate-filter.false-positive-probability:0.01}") double falsePositiveProbability,
+                               @Value("${app.duplicate-filter.rebuild-threshold:10000}") int rebuildThreshold) {
+        this.userRepository = userRepository;
+        this.taskExecutor = taskExecutor;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.rebuildThreshold = rebuildThreshold;
+    }
+
+    public boolean mightBeTaken(String username, String email) {
+        Filters current = filters;
+        return current == null || current.usernames.mightContain(normalize(username))
+                || current.emails.mightContain(normalize(email));
+    }
+
+    public void add(User user) {
+        // Pending first: if a rebuild swaps the filters in between, the user still ends up in the new ones
+        Filters pending = pendingFilters;
+        if (pending != null) {
+            pending.add(user);
+        }
+        Filters current = filters;
+        if (current != null) {
+            current.add(user);
+        }
+    }
+
+    public void remove(User user) {
+        if (removals.incrementAndGet() >= rebuildThreshold) {
+            taskExecutor.execute(this::rebuild);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        rebuild();
+    }
+
+    void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            removals.set(0);
+            Filters pending = new Filters(expectedInsertions, falsePositiveProbability);
+            pendingFilters = pending;
+            userRepository.forEachUser(pending::add);
+            filters = pending;
+            log.info("Username and email filters built in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Unable to build the username and email filters", e);
+        } finally {
+            pendingFilters = null;
+            rebuilding.set(false);
+        }
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Filters {
+
+        private final BloomFilter<CharSequence> usernames;
+        private final BloomFilter<CharSequence> emails;
+
+        Filters(int expectedInsertions, double falsePositiveProbability) {
+            usernames = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveProbability);
+            emails = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveProbability);
+        }
+
+        void add(User user) {
+            if (user.getUsername() != null) {
+                usernames.put(normalize(user.getUsername()));
+            }
+            if (user.getEmail() != null) {
+                emails.put(normalize(user.getEmail()));
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.mycompany.userservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UserImportResponse;
+import com.mycompany.userservice.dto.UserImportResponse.Status;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserImportFormatException;
+import com.mycompany.userservice.handler.MyErrorAttributes.ErrorCode;
+import com.mycompany.userservice.mapper.UserMapper;
+import com.mycompany.userservice.model.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Imports users from a CSV or NDJSON stream through a pipeline: the calling thread parses the rows into batches, the
+ * batches are validated against the constraints of {@link CreateUserRequest} on a pool of workers, and they are written
+ * one after the other with the multi-row inserts of {@link UserService#saveUsers(List)}. At most
+ * {@code max-pending-batches} batches are parsed but not written yet, so a client that sends faster than the database
+ * writes is slowed down instead of buffered.
+ * <p>
+ * Every row ends up created, duplicated or invalid, and the first failed rows are reported with their number. Imports
+ * that are running, or finished in the last hour, can be looked up while they run; the rows are also counted in the
+ * {@code user.import.rows} metric.
+ */
+@Profile("!reactive")
+@Slf4j
+@Service
+public class UserImporter implements DisposableBean {
+
+    public static final String ROWS_COUNTER = "user.import.rows";
+
+    private static final String BAD_REQUEST = "BadRequest";
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final UserService userService;
+    private final UserMapper userMapper;
+    private final Validator validator;
+    private final ObjectReader createUserRequestReader;
+    private final int batchSize;
+    private final int maxPendingBatches;
+    private final int maxReportedErrors;
+    private final ExecutorService validationExecutor;
+    private final Counter createdCounter;
+    private final Counter duplicatedCounter;
+    private final Counter invalidCounter;
+
+    private final Map<String, UserImport> running = new ConcurrentHashMap<>();
+    private final Cache<String, UserImportResponse> finished = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofHours(1))
+            .build();
+
+    public UserImporter(UserService userService,
+                        UserMapper userMapper,
+                        Validator validator,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.user-import.batch-size:1000}") int batchSize,
+                        @Value("${app.user-import.max-pending-batches:8}") int maxPendingBatches,
+                        @Value("${app.user-import.max-reported-errors:1000}") int maxReportedErrors,
+                        @Value("${app.user-import.validation-threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}") int validationThreads) {
+        this.userService = userService;
+        this.userMapper = userMapper;
+        this.validator = validator;
+        this.createUserRequestReader = objectMapper.readerFor(CreateUserRequest.class);
+        this.batchSize = batchSize;
+        this.maxPendingBatches = maxPendingBatches;
+        this.maxReportedErrors = maxReportedErrors;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.validationExecutor = Executors.newFixedThreadPool(validationThreads, runnable -> {
+            Thread thread = new Thread(runnable, "user-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.createdCounter = meterRegistry.counter(ROWS_COUNTER, "result", "created");
+        this.duplicatedCounter = meterRegistry.counter(ROWS_COUNTER, "result", "duplicated");
+        this.invalidCounter = meterRegistry.counter(ROWS_COUNTER, "result", "invalid");
+    }
+
+    /**
+     * Imports the users while the stream is read and returns once all of them are written.
+     *
+     * @throws UserImportFormatException if the stream isn't CSV with a {@code username} and an {@code email} column
+     */
+    public UserImportResponse importUsers(InputStream inputStream, Format format) throws IOException {
+        UserImport userImport = new UserImport();
+        running.put(userImport.id, userImport);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            importRows(format == Format.CSV ? new CsvRowReader(reader) : new NdjsonRowReader(reader), userImport);
+            userImport.status = Status.COMPLETED;
+        } catch (IOException | RuntimeException e) {
+            userImport.status = Status.FAILED;
+            log.warn("Import {} failed after {} rows", userImport.id, userImport.read, e);
+            throw e;
+        } finally {
+            userImport.finish();
+            finished.put(userImport.id, userImport.toResponse());
+            running.remove(userImport.id);
+        }
+        return userImport.toResponse();
+    }
+
+    public Optional<UserImportResponse> getImport(String id) {
+        UserImport userImport = running.get(id);
+        return userImport != null ? Optional.of(userImport.toResponse()) : Optional.ofNullable(finished.getIfPresent(id));
+    }
+
+    /**
+     * @return the imports that are running and the ones finished recently, without their errors, latest first
+     */
+    public List<UserImportResponse> getImports() {
+        return Stream.concat(running.values().stream().map(UserImport::toResponse), finished.asMap().values().stream())
+                .map(response -> new UserImportResponse(response.getId(), response.getStatus(),
+                        response.getStartedOn(), response.getFinishedOn(), response.getRead(), response.getCreated(),
+                        response.getDuplicated(), response.getInvalid(), response.getRowsPerSecond(), null))
+                .sorted(Comparator.comparing(UserImportResponse::getStartedOn).reversed())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void destroy() {
+        validationExecutor.shutdownNow();
+    }
+
+    private void importRows(RowReader rowReader, UserImport userImport) throws IOException {
+        Deque<CompletableFuture<Void>> pending = new ArrayDeque<>();
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        List<Row> batch;
+        while (!(batch = readBatch(rowReader, userImport)).isEmpty()) {
+            List<Row> rows = batch;
+            CompletableFuture<List<Row>> validated = CompletableFuture.supplyAsync(
+                    () -> validate(rows, userImport), validationExecutor);
+            // Batches are written in order, each one once it is validated and the previous one is written
+            written = written.thenCombine(validated, (ignored, validRows) -> {
+                write(validRows, userImport);
+                return null;
+            });
+            pending.add(written);
+            if (pending.size() > maxPendingBatches) {
+                join(pending.poll());
+            }
+        }
+        join(written);
+    }
+
+    private List<Row> readBatch(RowReader rowReader, UserImport userImport) throws IOException {
+        List<Row> batch = new ArrayList<>(batchSize);
+        Row row;
+        while (batch.size() < batchSize && (row = rowReader.next()) != null) {
+            batch.add(row);
+        }
+        userImport.read += batch.size();
+        return batch;
+    }
+
+    private List<Row> validate(List<Row> rows, UserImport userImport) {
+        List<Row> validRows = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String error = row.error;
+            if (error == null) {
+                Set<ConstraintViolation<CreateUserRequest>> violations = validator.validate(row.request);
+                if (violations.isEmpty()) {
+                    validRows.add(row);
+                    continue;
+                }
+                error = violations.stream()
+                        .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                        .sorted()
+                        .collect(Collectors.joining("; "));
+            }
+            userImport.invalid.incrementAndGet();
+            invalidCounter.increment();
+            userImport.addError(row.number, BAD_REQUEST, error);
+        }
+        return validRows;
+    }
+
+    private void write(List<Row> rows, UserImport userImport) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<User> users = rows.stream().map(row -> userMapper.toUser(row.request)).collect(Collectors.toList());
+        userService.saveUsers(users);
+        for (int i = 0; i < rows.size(); i++) {
+            if (users.get(i).getId() != null) {
+                userImport.created.incrementAndGet();
+                createdCounter.increment();
+            } else {
+                userImport.duplicated.incrementAndGet();
+                duplicatedCounter.increment();
+                userImport.addError(rows.get(i).number, ErrorCode.USER_DATA_DUPLICATED.getDescription(),
+                        UserDataDuplicatedException.MESSAGE);
+            }
+        }
+    }
+
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private class UserImport {
+
+        final String id = UUID.randomUUID().toString();
+        final ZonedDateTime startedOn = ZonedDateTime.now();
+        final long startedNanos = System.nanoTime();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong duplicated = new AtomicLong();
+        final AtomicLong invalid = new AtomicLong();
+        final List<UserImportResponse.Error> errors = new ArrayList<>();
+
+        // Only changed by the importing thread
+        volatile long read;
+        volatile Status status = Status.RUNNING;
+        volatile ZonedDateTime finishedOn;
+        volatile long finishedNanos;
+
+        void finish() {
+            finishedNanos = System.nanoTime();
+            finishedOn = ZonedDateTime.now();
+        }
+
+        void addError(long row, String errorCode, String message) {
+            synchronized (errors) {
+                if (errors.size() < maxReportedErrors) {
+                    errors.add(new UserImportResponse.Error(row, errorCode, message));
+                }
+            }
+        }
+
+        UserImportResponse toResponse() {
+            long processed = created.get() + duplicated.get() + invalid.get();
+            double seconds = ((finishedOn != null ? finishedNanos : System.nanoTime()) - startedNanos) / 1e9;
+            List<UserImportResponse.Error> sortedErrors;
+            synchronized (errors) {
+                sortedErrors = new ArrayList<>(errors);
+            }
+            sortedErrors.sort(Comparator.comparingLong(UserImportResponse.Error::getRow));
+            return new UserImportResponse(id, status, startedOn, finishedOn, read, created.get(), duplicated.get(),
+                    invalid.get(), seconds > 0 ? processed / seconds : 0, sortedErrors);
+        }
+    }
+
+    /**
+     * A parsed row, numbered from 1 without counting the CSV header, with either the request or why it couldn't be parsed.
+     */
+    private static class Row {
+
+        final long number;
+        final CreateUserRequest request;
+        final String error;
+
+        Row(long number, CreateUserRequest request, String error) {
+            this.number = number;
+            this.request = request;
+            this.error = error;
+        }
+    }
+
+    private interface RowReader {
+
+        /**
+         * @return the next row, or {@code null} at the end of the stream
+         */
+        Row next() throws IOException;
+    }
+
+    private class NdjsonRowReader implements RowReader {
+
+        private final BufferedReader reader;
+        private long number;
+
+        NdjsonRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+            number++;
+            try {
+                CreateUserRequest request = createUserRequestReader.readValue(line);
+                // A null literal is valid JSON, but not a user
+                if (request == null) {
+                    return new Row(number, null, "a user object is expected");
+                }
+                return new Row(number, request, null);
+            } catch (JsonProcessingException e) {
+                return new Row(number, null, e.getOriginalMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads RFC 4180 CSV: fields with separators, quotes or line breaks are quoted, and their quotes are doubled. The
+     * header names the columns, in any order; columns other than {@code username}, {@code email} and {@code birthday},
+     * such as the {@code id} of an export, are ignored.
+     */
+    private static class CsvRowReader implements RowReader {
+
+        private final Reader reader;
+        private final int usernameColumn;
+        private final int emailColumn;
+        private final int birthdayColumn;
+        private long number;
+
+        CsvRowReader(Reader reader) throws IOException {
+            this.reader = reader;
+            List<String> header = Optional.ofNullable(readRecord()).orElseGet(ArrayList::new);
+            // A byte order mark, as written by spreadsheets, isn't part of the first column name
+            header.replaceAll(column -> column.replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT));
+            usernameColumn = header.indexOf("username");
+            emailColumn = header.indexOf("email");
+            birthdayColumn = header.indexOf("birthday");
+            if (usernameColumn < 0 || emailColumn < 0) {
+                throw new UserImportFormatException("The CSV header must name a username and an email column.");
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            List<String> fields;
+            do {
+                fields = readRecord();
+                if (fields == null) {
+                    return null;
+                }
+            } while (fields.size() == 1 && fields.get(0).isEmpty());
+            number++;
+            CreateUserRequest request = new CreateUserRequest(field(fields, usernameColumn), field(fields, emailColumn), null);
+            String birthday = field(fields, birthdayColumn);
+            if (birthday != null && !birthday.isEmpty()) {
+                try {
+                    request.setBirthday(LocalDate.parse(birthday));
+                } catch (DateTimeParseException e) {
+                    return new Row(number, null, "birthday: must be a date formatted as yyyy-MM-dd");
+                }
+            }
+            return new Row(number, request, null);
+        }
+
+        private static String field(List<String> fields, int column) {
+            return column >= 0 && column < fields.size() ? fields.get(column) : null;
+        }
+
+        // Returns null at the end of the stream. A carriage return outside quotes is dropped, so CRLF ends a record too
+        private List<String> readRecord() throws IOException {
+            int c = reader.read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new UserImportFormatException(String.format("Row %s has an unterminated quote.", number + 1));
+                    }
+                    if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = reader.read();
+            }
+        }
+    }
+}
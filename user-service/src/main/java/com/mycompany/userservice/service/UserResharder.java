@@ -0,0 +1,176 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.config.ConsistentHashRing;
+import com.mycompany.userservice.config.ShardRoutingDataSource;
+import com.mycompany.userservice.config.ShardingProperties;
+import com.mycompany.userservice.repository.UserDirectoryRepository;
+import com.mycompany.userservice.repository.UserDirectoryRepository.Entry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moves the users that aren't on the shard the {@link ConsistentHashRing} picks for their id, e.g. the ones a new shard
+ * takes over. It runs in the background at startup while the users are being served, one user at a time:
+ * <ol>
+ *     <li>the user is locked on its shard, so the changes made to it meanwhile wait for the move;</li>
+ *     <li>its pending changes are forwarded, so they are relayed before the ones made on the new shard;</li>
+ *     <li>it's copied to the new shard, the directory is pointed there, and it's deleted from the old one.</li>
+ * </ol>
+ * A move can be retried: the copy replaces the one a move that didn't finish may have left on the new shard.
+ * The changes that waited then find no user on the old shard, and {@link ShardedUserServiceImpl} makes them again on
+ * the new one.
+ * <p>
+ * A move spans two shards and the directory, so it works on the pools of the shards themselves, with a transaction
+ * on each, rather than through the routed data source.
+ */
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "true")
+@Slf4j
+@Component
+public class UserResharder {
+
+    private static final int SCAN_SIZE = 1000;
+
+    private static final String LOCK_SQL = "select id, username, email, birthday, created_on, updated_on, version " +
+            "from users where id = ? for update";
+    private static final String COPY_SQL = "insert into users " +
+            "(id, username, email, birthday, created_on, updated_on, version) values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_SQL = "delete from users where id = ?";
+
+    private final UserDirectoryRepository userDirectoryRepository;
+    private final ConsistentHashRing consistentHashRing;
+    private final ShardRoutingDataSource shardRoutingDataSource;
+    private final UserChangeForwarder userChangeForwarder;
+    private final TaskExecutor taskExecutor;
+    private final boolean rebalanceOnStartup;
+
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+
+    public UserResharder(UserDirectoryRepository userDirectoryRepository,
+                         ConsistentHashRing consistentHashRing,
+                         ShardRoutingDataSource shardRoutingDataSource,
+                         UserChangeForwarder userChangeForwarder,
+                         TaskExecutor taskExecutor,
+                         ShardingProperties shardingProperties) {
+        this.userDirectoryRepository = userDirectoryRepository;
+        this.consistentHashRing = consistentHashRing;
+        this.shardRoutingDataSource = shardRoutingDataSource;
+        this.userChangeForwarder = userChangeForwarder;
+        this.taskExecutor = taskExecutor;
+        this.rebalanceOnStartup = shardingProperties.isRebalanceOnStartup();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (rebalanceOnStartup) {
+            taskExecutor.execute(() -> {
+                try {
+                    rebalance();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to rebalance the user shards", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * A user that can't be moved is logged and left where it is, for the next rebalance, and the others are still moved.
+     *
+     * @return the number of users moved
+     */
+    public int rebalance() {
+        long start = System.nanoTime();
+        int moved = 0;
+        long after = 0;
+        List<Entry> entries;
+        do {
+            entries = userDirectoryRepository.findEntriesAfter(after, SCAN_SIZE);
+            for (Entry entry : entries) {
+                String target = consistentHashRing.shardFor(entry.getId());
+                if (entry.getShard() == null || entry.getShard().equals(target)) {
+                    continue;
+                }
+                try {
+                    if (move(entry.getId(), entry.getShard(), target)) {
+                        moved++;
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Could not move user {} from shard {} to shard {}", entry.getId(), entry.getShard(),
+                            target, e);
+                }
+            }
+            if (!entries.isEmpty()) {
+                after = entries.get(entries.size() - 1).getId();
+            }
+        } while (entries.size() == SCAN_SIZE);
+        if (moved > 0) {
+            log.info("Moved {} users to their shards in {} ms", moved, (System.nanoTime() - start) / 1_000_000);
+        }
+        return moved;
+    }
+
+    /**
+     * Moves the user from one shard to the other.
+     *
+     * @return {@code false} if the user wasn't on the {@code from} shard anymore, e.g. because it was deleted
+     */
+    public boolean move(long id, String from, String to) {
+        Shard source = shard(from);
+        Shard target = shard(to);
+        Boolean moved = source.transactionTemplate.execute(status -> {
+            List<Map<String, Object>> rows = source.jdbcTemplate.queryForList(LOCK_SQL, id);
+            if (rows.isEmpty()) {
+                return false;
+            }
+            if (!userDirectoryRepository.findById(id).map(Entry::getShard).filter(from::equals).isPresent()) {
+                // Pointed to another shard already, by a move that failed to delete the user from this one
+                return false;
+            }
+            userChangeForwarder.forward(from);
+            Map<String, Object> row = rows.get(0);
+            // With the user locked on this shard and the directory pointing here, a copy on the target can only be the
+            // one left by a move that didn't finish
+            target.transactionTemplate.executeWithoutResult(targetStatus -> {
+                target.jdbcTemplate.update(DELETE_SQL, id);
+                target.jdbcTemplate.update(COPY_SQL, row.get("id"), row.get("username"), row.get("email"),
+                        row.get("birthday"), row.get("created_on"), row.get("updated_on"), row.get("version"));
+            });
+            if (userDirectoryRepository.updateShard(id, from, to) == 0) {
+                // Another instance moved it first
+                target.transactionTemplate.executeWithoutResult(targetStatus -> target.jdbcTemplate.update(DELETE_SQL, id));
+                return false;
+            }
+            source.jdbcTemplate.update(DELETE_SQL, id);
+            return true;
+        });
+        return Boolean.TRUE.equals(moved);
+    }
+
+    private Shard shard(String name) {
+        return shards.computeIfAbsent(name, key -> new Shard(shardRoutingDataSource.getShard(key)));
+    }
+
+    private static class Shard {
+
+        final JdbcTemplate jdbcTemplate;
+        final TransactionTemplate transactionTemplate;
+
+        Shard(DataSource dataSource) {
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        }
+    }
+}
@@ -1,18 +1,90 @@
 package com.mycompany.userservice.service;
 
+import com.mycompany.userservice.dto.UserResponse;
 import com.mycompany.userservice.model.User;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserService {
 
     User saveUser(User user);
 
+    /**
+     * Inserts the users in multi-row batches. A user whose username or email is already taken, either in the database
+     * or by an earlier user of the same list, is skipped and keeps a {@code null} id; the others are inserted anyway.
+     */
+    List<User> saveUsers(List<User> users);
+
+    /**
+     * Sets the username, email and birthday of {@code changes} that are not {@code null} on the user with the given id
+     * in a single UPDATE, without loading the user first. With an {@code expectedVersion}, the user is only updated if
+     * nobody changed it since it had that version.
+     *
+     * @throws com.mycompany.userservice.exception.UserNotFoundException if there is no user with the given id
+     * @throws com.mycompany.userservice.exception.UserVersionMismatchException if the user has another version
+     * @throws com.mycompany.userservice.exception.UserDataDuplicatedException if the username or email is taken
+     */
+    void updateUser(Long id, Long expectedVersion, User changes);
+
     void deleteUser(User user);
 
-    List<User> getUsers();
+    /**
+     * Deletes the user with the given id in a single DELETE, without loading the user first. With an
+     * {@code expectedVersion}, the user is only deleted if nobody changed it since it had that version.
+     *
+     * @throws com.mycompany.userservice.exception.UserNotFoundException if there is no user with the given id
+     * @throws com.mycompany.userservice.exception.UserVersionMismatchException if the user has another version
+     */
+    void deleteUserById(Long id, Long expectedVersion);
+
+    /**
+     * Returns up to {@code limit} users with an id greater than {@code after}, ordered by id. The rows are read straight
+     * into {@link UserResponse}s, without hydrating entities, as is the case for {@link #streamUsers(Consumer)}.
+     */
+    List<UserResponse> getUsers(Long after, int limit);
+
+    /**
+     * Passes the users with an id greater than {@code after} to the consumer, ordered by id, as they are read over a
+     * cursor. Memory use doesn't depend on the number of users, so the consumer can write them out as a whole export.
+     */
+    void streamUsers(Long after, Consumer<UserResponse> consumer);
+
+    /**
+     * Returns up to {@code limit} users with an id greater than {@code after} that match all the given filters, ordered
+     * by id. Blank or {@code null} filters are ignored, and the birthday range is inclusive.
+     */
+    List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                   LocalDate birthdayTo, Long after, int limit);
 
     User validateAndGetUserById(Long id);
 
     User validateAndGetUserByUsername(String username);
+
+    /**
+     * Works as {@link #validateAndGetUserByUsername}, but returns an empty optional instead of throwing when there is
+     * no user with the username.
+     */
+    Optional<User> findUserByUsername(String username);
+
+    /**
+     * Returns the users with the given ids, by id. The cached users are taken from the cache and the rest are fetched
+     * with a few {@code IN} queries. Ids without a user are left out.
+     */
+    Map<Long, User> getUsersByIds(Collection<Long> ids);
+
+    /**
+     * Works as {@link #getUsersByIds}, by username. The database compares the usernames ignoring their case, and so do
+     * the keys of the map returned.
+     */
+    Map<String, User> getUsersByUsernames(Collection<String> usernames);
+
+    /**
+     * Works as {@link #getUsersByUsernames}, by email. The cache isn't keyed by email, so every email is fetched.
+     */
+    Map<String, User> getUsersByEmails(Collection<String> emails);
 }
@@ -1,49 +1,281 @@
 package com.mycompany.userservice.service;
 
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
 import com.mycompany.userservice.exception.UserDataDuplicatedException;
 import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
 import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserChangeRepository;
 import com.mycompany.userservice.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+@Profile("!reactive")
+@ConditionalOnProperty(name = "app.datasource.sharding.enabled", havingValue = "false", matchIfMissing = true)
 @RequiredArgsConstructor
 @Service
 public class UserServiceImpl implements UserService {
 
+    private static final int BATCH_SIZE = 1000;
+    // Hibernate pads the IN lists to a power of two, so a chunk fills its list and a few plans cover every size
+    private static final int LOOKUP_CHUNK_SIZE = 512;
+
     private final UserRepository userRepository;
+    private final UserChangeRepository userChangeRepository;
+    private final UserCache userCache;
+    private final UserDuplicateFilter userDuplicateFilter;
+    private final UsernameIndex usernameIndex;
+    private final TransactionTemplate transactionTemplate;
+
+    // Each change is written with its outbox entry in one transaction. The cache and the duplicate filter are only
+    // updated once it commits, so a concurrent lookup can't cache the user as it was before the change
 
     @Override
     public User saveUser(User user) {
+        if (userDuplicateFilter.mightBeTaken(user.getUsername(), user.getEmail())
+                && userRepository.existsOtherUserWithUsernameOrEmail(user.getId(), user.getUsername(), user.getEmail())) {
+            throw new UserDataDuplicatedException();
+        }
+        Operation operation = user.getId() == null ? Operation.CREATED : Operation.UPDATED;
+        User userSaved;
+        try {
+            userSaved = transactionTemplate.execute(status -> {
+                User saved = userRepository.save(user);
+                userRepository.flush();
+                userChangeRepository.appendChanges(operation, List.of(saved.getId()), ZonedDateTime.now());
+                return saved;
+            });
+        } catch (DataIntegrityViolationException e) {
+            throw new UserDataDuplicatedException();
+        }
+        userCache.evict(userSaved);
+        userDuplicateFilter.add(userSaved);
+        usernameIndex.add(userSaved);
+        return userSaved;
+    }
+
+    @Override
+    public List<User> saveUsers(List<User> users) {
+        for (int from = 0; from < users.size(); from += BATCH_SIZE) {
+            List<User> batch = users.subList(from, Math.min(from + BATCH_SIZE, users.size()));
+            List<User> candidates = withoutDuplicates(batch);
+            transactionTemplate.executeWithoutResult(status -> {
+                insertAll(candidates);
+                List<Long> ids = candidates.stream()
+                        .map(User::getId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList());
+                userChangeRepository.appendChanges(Operation.CREATED, ids, ZonedDateTime.now());
+            });
+            candidates.stream().filter(user -> user.getId() != null).forEach(user -> {
+                userCache.evict(user);
+                userDuplicateFilter.add(user);
+                usernameIndex.add(user);
+            });
+        }
+        return users;
+    }
+
+    @Override
+    public void updateUser(Long id, Long expectedVersion, User changes) {
+        int updated;
         try {
-            return userRepository.save(user);
+            updated = transactionTemplate.execute(status -> {
+                ZonedDateTime now = ZonedDateTime.now();
+                int count = userRepository.updateUser(id, expectedVersion, changes.getUsername(), changes.getEmail(),
+                        changes.getBirthday(), now);
+                if (count > 0) {
+                    userChangeRepository.appendChanges(Operation.UPDATED, List.of(id), now);
+                }
+                return count;
+            });
         } catch (DataIntegrityViolationException e) {
             throw new UserDataDuplicatedException();
         }
+        if (updated == 0) {
+            throw userNotFoundOrVersionMismatch(id, expectedVersion);
+        }
+        changes.setId(id);
+        userCache.evict(changes);
+        userDuplicateFilter.add(changes);
+        usernameIndex.add(changes);
     }
 
     @Override
     public void deleteUser(User user) {
-        userRepository.delete(user);
+        transactionTemplate.executeWithoutResult(status -> {
+            userChangeRepository.appendChanges(Operation.DELETED, List.of(user.getId()), ZonedDateTime.now());
+            userRepository.delete(user);
+        });
+        userCache.evict(user);
+        userDuplicateFilter.remove(user);
+        usernameIndex.remove(user);
+    }
+
+    @Override
+    public void deleteUserById(Long id, Long expectedVersion) {
+        int deleted = transactionTemplate.execute(status -> {
+            // The change records the user as it was, so it's appended first and rolled back if nothing is deleted
+            userChangeRepository.appendChanges(Operation.DELETED, List.of(id), ZonedDateTime.now());
+            int count = userRepository.deleteUserById(id, expectedVersion);
+            if (count == 0) {
+                status.setRollbackOnly();
+            }
+            return count;
+        });
+        if (deleted == 0) {
+            throw userNotFoundOrVersionMismatch(id, expectedVersion);
+        }
+        User user = userWithId(id);
+        userCache.evict(user);
+        userDuplicateFilter.remove(user);
+        usernameIndex.remove(user);
+    }
+
+    @Override
+    public List<UserResponse> getUsers(Long after, int limit) {
+        return userRepository.findUserResponsesByIdGreaterThan(after, PageRequest.of(0, limit, Sort.by("id")));
     }
 
     @Override
-    public List<User> getUsers() {
-        return userRepository.findAll();
+    public void streamUsers(Long after, Consumer<UserResponse> consumer) {
+        userRepository.forEachUserResponse(after, consumer);
+    }
+
+    @Override
+    public List<UserResponse> searchUsers(String usernamePrefix, String emailDomain, LocalDate birthdayFrom,
+                                          LocalDate birthdayTo, Long after, int limit) {
+        return userRepository.searchUsers(usernamePrefix, emailDomain, birthdayFrom, birthdayTo, after, limit);
     }
 
     @Override
     public User validateAndGetUserById(Long id) {
-        return userRepository.findById(id)
-                .orElseThrow(() -> new UserNotFoundException(String.format("User with id '%s' doesn't exist.", id)));
+        return userCache.getById(id, userRepository::findById).orElseThrow(() -> userNotFound(id));
     }
 
     @Override
     public User validateAndGetUserByUsername(String username) {
-        return userRepository.findUserByUsername(username)
-                .orElseThrow(() -> new UserNotFoundException(String.format("User with username '%s' doesn't exist.", username)));
+        return findUserByUsername(username)
+                .orElseThrow(() -> new UserNotFoundException(UserNotFoundException.messageForUsername(username)));
+    }
+
+    @Override
+    public Optional<User> findUserByUsername(String username) {
+        return userCache.getByUsername(username, userRepository::findUserByUsername);
+    }
+
+    @Override
+    public Map<Long, User> getUsersByIds(Collection<Long> ids) {
+        return userCache.getAllById(ids, misses -> findInChunks(misses, userRepository::findByIdIn));
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        return userCache.getAllByUsername(usernames, misses -> findInChunks(misses, userRepository::findByUsernameIn));
+    }
+
+    @Override
+    public Map<String, User> getUsersByEmails(Collection<String> emails) {
+        List<String> keys = new ArrayList<>(emails);
+        Map<String, User> users = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        userCache.loadAll(() -> findInChunks(keys, userRepository::findByEmailIn))
+                .forEach(user -> users.put(user.getEmail(), user));
+        return users;
+    }
+
+    private static <K> List<User> findInChunks(List<K> keys, Function<List<K>, List<User>> finder) {
+        List<User> users = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += LOOKUP_CHUNK_SIZE) {
+            users.addAll(finder.apply(keys.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, keys.size()))));
+        }
+        return users;
+    }
+
+    private static UserNotFoundException userNotFound(Long id) {
+        return new UserNotFoundException(String.format("User with id '%s' doesn't exist.", id));
+    }
+
+    // Only called when nothing was written, so the extra lookup is off the happy path
+    private RuntimeException userNotFoundOrVersionMismatch(Long id, Long expectedVersion) {
+        if (expectedVersion != null && userRepository.existsById(id)) {
+            userCache.evict(userWithId(id));
+            return new UserVersionMismatchException(
+                    String.format("User with id '%s' doesn't have version '%s' anymore.", id, expectedVersion));
+        }
+        return userNotFound(id);
+    }
+
+    private static User userWithId(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private void insertAll(List<User> users) {
+        try {
+            userRepository.insertAll(users);
+        } catch (DataIntegrityViolationException e) {
+            // Someone took a username or email in the meantime. Insert one by one to find out which users clash
+            for (User user : users) {
+                try {
+                    userRepository.insertAll(Collections.singletonList(user));
+                } catch (DataIntegrityViolationException ex) {
+                    // The user is left unsaved, with a null id
+                }
+            }
+        }
+    }
+
+    private List<User> withoutDuplicates(List<User> users) {
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        users.stream()
+                .filter(user -> userDuplicateFilter.mightBeTaken(user.getUsername(), user.getEmail()))
+                .forEach(user -> {
+                    usernames.add(user.getUsername());
+                    emails.add(user.getEmail());
+                });
+
+        Set<String> takenUsernames = new HashSet<>();
+        Set<String> takenEmails = new HashSet<>();
+        if (!usernames.isEmpty()) {
+            userRepository.findByUsernameInOrEmailIn(usernames, emails).forEach(user -> {
+                takenUsernames.add(user.getUsername());
+                takenEmails.add(user.getEmail());
+            });
+        }
+
+        List<User> candidates = new ArrayList<>(users.size());
+        for (User user : users) {
+            if (!takenUsernames.contains(user.getUsername()) && !takenEmails.contains(user.getEmail())) {
+                takenUsernames.add(user.getUsername());
+                takenEmails.add(user.getEmail());
+                candidates.add(user);
+            }
+        }
+        return candidates;
     }
 }
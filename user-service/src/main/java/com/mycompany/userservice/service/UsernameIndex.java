@@ -0,0 +1,366 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UsernameSuggestion;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory index of the usernames for type-ahead: finds the users whose username starts with a prefix, ignoring the
+ * case of ASCII letters, in {@code O(log n + limit)}.
+ * <p>
+ * The usernames are kept sorted in a few primitive arrays instead of a tree of nodes: their UTF-8 bytes one after the
+ * other, the offset where each one starts and the id of its user. That is about 12 bytes per user plus the length of
+ * the username, e.g. 22 MB for a million users with 10 character usernames, and a prefix is found with a binary search
+ * over the arrays. Sorted arrays can't take an insert, so users saved or deleted since they were built go to a small
+ * sorted delta, which hides their old entry, and are merged into new arrays in the background once there are
+ * {@code compaction-threshold} of them.
+ * <p>
+ * The index is built from the {@code users} table at startup, and suggests nothing until then. Like
+ * {@link UserDuplicateFilter}, it only sees the users saved by this instance since.
+ */
+@Profile("!reactive")
+@Slf4j
+@Component
+public class UsernameIndex {
+
+    private static final Comparator<byte[]> ORDER = (a, b) -> compare(a, 0, a.length, b, 0, b.length);
+
+    private final UserRepository userRepository;
+    private final TaskExecutor taskExecutor;
+    private final int compactionThreshold;
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile State state = new State(Names.EMPTY);
+    private volatile boolean built;
+
+    // Guarded by this, as are all the changes to the state
+    private final Map<Long, byte[]> deltaUsernames = new HashMap<>();
+
+    public UsernameIndex(UserRepository userRepository,
+                         TaskExecutor taskExecutor,
+                         @Value("${app.username-index.compaction-threshold:10000}") int compactionThreshold) {
+        this.userRepository = userRepository;
+        this.taskExecutor = taskExecutor;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Returns up to {@code limit} users whose username starts with {@code prefix}, ordered by username.
+     */
+    public List<UsernameSuggestion> suggest(String prefix, int limit) {
+        if (!built || prefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+        byte[] key = lowestWithPrefix(prefix.getBytes(StandardCharsets.UTF_8));
+        State current = state;
+        List<UsernameSuggestion> fromNames = current.names.suggest(key, limit, current.overridden);
+        List<UsernameSuggestion> fromDelta = new ArrayList<>();
+        for (Map.Entry<byte[], Long> entry : current.delta.tailMap(key).entrySet()) {
+            if (fromDelta.size() == limit || !startsWith(entry.getKey(), 0, entry.getKey().length, key)) {
+                break;
+            }
+            fromDelta.add(new UsernameSuggestion(entry.getValue(),
+                    new String(entry.getKey(), StandardCharsets.UTF_8)));
+        }
+        return fromDelta.isEmpty() ? fromNames : merge(fromNames, fromDelta, limit);
+    }
+
+    /**
+     * Adds the user, or replaces its username if it was already in the index. A user without a username, like the
+     * changes of an update that keeps it, is ignored.
+     */
+    public synchronized void add(User user) {
+        if (user.getId() == null || user.getUsername() == null) {
+            return;
+        }
+        State current = state;
+        byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] previous = deltaUsernames.put(user.getId(), username);
+        if (previous != null) {
+            current.delta.remove(previous);
+        }
+        current.overridden.add(user.getId());
+        current.delta.put(username, user.getId());
+        compactIfNeeded(current);
+    }
+
+    public synchronized void remove(User user) {
+        State current = state;
+        byte[] previous = deltaUsernames.remove(user.getId());
+        if (previous != null) {
+            current.delta.remove(previous);
+        }
+        current.overridden.add(user.getId());
+        compactIfNeeded(current);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        try {
+            long start = System.nanoTime();
+            List<Names.Entry> entries = new ArrayList<>();
+            userRepository.forEachUser(user ->
+                    entries.add(new Names.Entry(user.getUsername().getBytes(StandardCharsets.UTF_8), user.getId())));
+            Names names = Names.of(entries);
+            synchronized (this) {
+                // The users saved while the table was read are in the delta already, and hide the ones read
+                State current = state;
+                state = new State(names, current.overridden, current.delta);
+                built = true;
+            }
+            log.info("Username index of {} users, {} bytes, built in {} ms", names.size(), names.bytes(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Unable to build the username index", e);
+        }
+    }
+
+    /**
+     * Merges the delta into new arrays. Writers wait for it, readers keep using the previous state until it's done.
+     */
+    synchronized void compact() {
+        try {
+            State current = state;
+            state = new State(current.names.merge(current.overridden, current.delta));
+            deltaUsernames.clear();
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private void compactIfNeeded(State current) {
+        if (built && current.overridden.size() >= compactionThreshold && compacting.compareAndSet(false, true)) {
+            taskExecutor.execute(this::compact);
+        }
+    }
+
+    private static List<UsernameSuggestion> merge(List<UsernameSuggestion> a, List<UsernameSuggestion> b, int limit) {
+        List<UsernameSuggestion> merged = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        Iterator<UsernameSuggestion> aIterator = a.iterator();
+        Iterator<UsernameSuggestion> bIterator = b.iterator();
+        UsernameSuggestion aNext = aIterator.hasNext() ? aIterator.next() : null;
+        UsernameSuggestion bNext = bIterator.hasNext() ? bIterator.next() : null;
+        while (merged.size() < limit && (aNext != null || bNext != null)) {
+            if (bNext == null || aNext != null && ORDER.compare(bytes(aNext), bytes(bNext)) <= 0) {
+                merged.add(aNext);
+                aNext = aIterator.hasNext() ? aIterator.next() : null;
+            } else {
+                merged.add(bNext);
+                bNext = bIterator.hasNext() ? bIterator.next() : null;
+            }
+        }
+        return merged;
+    }
+
+    private static byte[] bytes(UsernameSuggestion suggestion) {
+        return suggestion.getUsername().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The usernames are ordered by their bytes with ASCII letters lowercased, and then by their bytes as they are. Among
+     * the usernames that only differ in case, the one with every ASCII letter uppercased comes first, so that is where
+     * the search for a prefix starts.
+     */
+    private static byte[] lowestWithPrefix(byte[] prefix) {
+        byte[] key = prefix.clone();
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] >= 'a' && key[i] <= 'z') {
+                key[i] -= 'a' - 'A';
+            }
+        }
+        return key;
+    }
+
+    private static int compare(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int length = Math.min(aTo - aFrom, bTo - bFrom);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(fold(a[aFrom + i]), fold(b[bFrom + i]));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        int comparison = Integer.compare(aTo - aFrom, bTo - bFrom);
+        return comparison != 0 ? comparison : Arrays.compareUnsigned(a, aFrom, aTo, b, bFrom, bTo);
+    }
+
+    private static boolean startsWith(byte[] a, int aFrom, int aTo, byte[] prefix) {
+        if (aTo - aFrom < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (fold(a[aFrom + i]) != fold(prefix[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    private static final class State {
+
+        final Names names;
+        // The users whose entry in names is outdated, as they were saved again or deleted since
+        final Set<Long> overridden;
+        final ConcurrentSkipListMap<byte[], Long> delta;
+
+        State(Names names) {
+            this(names, ConcurrentHashMap.newKeySet(), new ConcurrentSkipListMap<>(ORDER));
+        }
+
+        State(Names names, Set<Long> overridden, ConcurrentSkipListMap<byte[], Long> delta) {
+            this.names = names;
+            this.overridden = overridden;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * The sorted usernames, immutable. The one at index {@code i} is {@code bytes[offsets[i]..offsets[i + 1])}, and
+     * {@code ids[i]} is the id of its user.
+     */
+    private static final class Names {
+
+        static final Names EMPTY = new Names(new byte[0], new int[1], new long[0]);
+
+        final byte[] bytes;
+        final int[] offsets;
+        final long[] ids;
+
+        Names(byte[] bytes, int[] offsets, long[] ids) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.ids = ids;
+        }
+
+        static Names of(List<Entry> entries) {
+            entries.sort((a, b) -> ORDER.compare(a.username, b.username));
+            int length = 0;
+            for (Entry entry : entries) {
+                length += entry.username.length;
+            }
+            Names names = new Names(new byte[length], new int[entries.size() + 1], new long[entries.size()]);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                names.set(i, entry.username, 0, entry.username.length, entry.id);
+            }
+            return names;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        long bytes() {
+            return bytes.length + 4L * offsets.length + 8L * ids.length;
+        }
+
+        List<UsernameSuggestion> suggest(byte[] key, int limit, Set<Long> overridden) {
+            List<UsernameSuggestion> suggestions = new ArrayList<>();
+            for (int i = lowerBound(key); i < ids.length && suggestions.size() < limit; i++) {
+                if (!startsWith(bytes, offsets[i], offsets[i + 1], key)) {
+                    break;
+                }
+                if (!overridden.contains(ids[i])) {
+                    suggestions.add(new UsernameSuggestion(ids[i],
+                            new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8)));
+                }
+            }
+            return suggestions;
+        }
+
+        /**
+         * Returns new names without the overridden users and with the delta, merging the two sorted sources in one pass.
+         */
+        Names merge(Set<Long> overridden, NavigableMap<byte[], Long> delta) {
+            int size = 0;
+            int length = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (!overridden.contains(ids[i])) {
+                    size++;
+                    length += offsets[i + 1] - offsets[i];
+                }
+            }
+            for (byte[] username : delta.keySet()) {
+                size++;
+                length += username.length;
+            }
+            Names merged = new Names(new byte[length], new int[size + 1], new long[size]);
+            Iterator<Map.Entry<byte[], Long>> deltaIterator = delta.entrySet().iterator();
+            Map.Entry<byte[], Long> next = deltaIterator.hasNext() ? deltaIterator.next() : null;
+            int count = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (overridden.contains(ids[i])) {
+                    continue;
+                }
+                while (next != null
+                        && compare(next.getKey(), 0, next.getKey().length, bytes, offsets[i], offsets[i + 1]) < 0) {
+                    merged.set(count++, next.getKey(), 0, next.getKey().length, next.getValue());
+                    next = deltaIterator.hasNext() ? deltaIterator.next() : null;
+                }
+                merged.set(count++, bytes, offsets[i], offsets[i + 1] - offsets[i], ids[i]);
+            }
+            while (next != null) {
+                merged.set(count++, next.getKey(), 0, next.getKey().length, next.getValue());
+                next = deltaIterator.hasNext() ? deltaIterator.next() : null;
+            }
+            return merged;
+        }
+
+        private void set(int index, byte[] username, int from, int length, long id) {
+            System.arraycopy(username, from, bytes, offsets[index], length);
+            offsets[index + 1] = offsets[index] + length;
+            ids[index] = id;
+        }
+
+        // The index of the first username not lower than the key
+        private int lowerBound(byte[] key) {
+            int low = 0;
+            int high = ids.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(bytes, offsets[middle], offsets[middle + 1], key, 0, key.length) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        static final class Entry {
+
+            final byte[] username;
+            final long id;
+
+            Entry(byte[] username, long id) {
+                this.username = username;
+                this.id = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+create table users (
+    id bigint not null auto_increment,
+    username varchar(255) not null,
+    email varchar(255) not null,
+    birthday date,
+    created_on datetime(6) not null,
+    updated_on datetime(6) not null,
+    version bigint not null,
+    primary key (id),
+    constraint UK_email unique (email),
+    constraint UK_username unique (username)
+);
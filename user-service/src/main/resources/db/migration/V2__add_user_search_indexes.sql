@@ -0,0 +1,6 @@
+-- The domain of the email, so a search by domain is an index lookup instead of a scan with like '%@domain'
+alter table users add column email_domain varchar(255) as (substring(email, locate('@', email) + 1));
+
+-- A username prefix is a range scan on UK_username
+create index IDX_email_domain_birthday on users (email_domain, birthday);
+create index IDX_birthday on users (birthday);
@@ -0,0 +1,26 @@
+-- Outbox of user changes, appended in the transaction of the change. The relay numbers the changes in the order it
+-- publishes them, so consumers never miss a change committed after a later one got its id
+create table user_changes (
+    id bigint not null auto_increment,
+    sequence_number bigint,
+    user_id bigint not null,
+    operation varchar(10) not null,
+    username varchar(255),
+    email varchar(255),
+    birthday date,
+    version bigint,
+    changed_on datetime(6) not null,
+    primary key (id)
+);
+
+-- Serves both the changes not numbered yet, in id order, and the changes after a sequence number
+create index IDX_sequence_number_id on user_changes (sequence_number, id);
+
+-- The last sequence number handed out. Its row is locked while relaying, so only one instance relays at a time
+create table user_change_relay (
+    id int not null,
+    last_sequence_number bigint not null,
+    primary key (id)
+);
+
+insert into user_change_relay (id, last_sequence_number) values (1, 0);
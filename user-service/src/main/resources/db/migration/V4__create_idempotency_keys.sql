@@ -0,0 +1,15 @@
+-- Responses to POST /api/users requests made with an Idempotency-Key, replayed to their retries. Only used with
+-- app.idempotency.store=jdbc
+create table idempotency_keys (
+    idempotency_key varchar(255) not null,
+    request_hash varchar(64) not null,
+    user_id bigint not null,
+    username varchar(255),
+    email varchar(255),
+    birthday date,
+    e_tag varchar(64) not null,
+    created_on datetime(6) not null,
+    primary key (idempotency_key)
+);
+
+create index IDX_created_on on idempotency_keys (created_on);
@@ -0,0 +1,17 @@
+-- Only used with app.datasource.sharding.enabled, in the directory database: it hands out the user ids and keeps the
+-- username and email unique across the shards, and records the shard each user lives on
+create table user_directory (
+    id bigint not null auto_increment,
+    username varchar(255) not null,
+    email varchar(255) not null,
+    shard varchar(64),
+    primary key (id),
+    constraint UK_directory_email unique (email),
+    constraint UK_directory_username unique (username)
+);
+
+-- The shard and outbox id of a change forwarded from a shard, so that it's only forwarded once
+alter table user_changes add column source_shard varchar(64);
+alter table user_changes add column source_id bigint;
+
+create unique index UK_source_shard_source_id on user_changes (source_shard, source_id);
@@ -0,0 +1,24 @@
+-- A key is recorded with its request hash before the user is created, and its response is filled in afterwards, so the
+-- response columns are nullable. A key left without a response, e.g. by an instance that stopped in between, is
+-- completed by a retry from the user created. The table is copied, as H2 and MySQL don't share a syntax to change the
+-- nullability of a column
+create table idempotency_keys_new (
+    idempotency_key varchar(255) not null,
+    request_hash varchar(64) not null,
+    user_id bigint,
+    username varchar(255),
+    email varchar(255),
+    birthday date,
+    e_tag varchar(64),
+    created_on datetime(6) not null,
+    primary key (idempotency_key)
+);
+
+insert into idempotency_keys_new select idempotency_key, request_hash, user_id, username, email, birthday, e_tag, created_on
+from idempotency_keys;
+
+drop table idempotency_keys;
+
+alter table idempotency_keys_new rename to idempotency_keys;
+
+create index IDX_created_on on idempotency_keys (created_on);
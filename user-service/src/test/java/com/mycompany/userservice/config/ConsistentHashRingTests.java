@@ -0,0 +1,70 @@
+package com.mycompany.userservice.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConsistentHashRingTests {
+
+    private static final int IDS = 100_000;
+
+    @Test
+    void testSameShardsGiveSameRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 64);
+        ConsistentHashRing other = new ConsistentHashRing(List.of("shard-2", "shard-0", "shard-1"), 64);
+
+        for (long id = 1; id <= 1000; id++) {
+            assertThat(other.shardFor(id)).isEqualTo(ring.shardFor(id));
+        }
+    }
+
+    @Test
+    void testIdsAreSpreadAcrossShards() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 64);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (long id = 1; id <= IDS; id++) {
+            counts.merge(ring.shardFor(id), 1, Integer::sum);
+        }
+
+        assertThat(counts).hasSize(3);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(IDS / 5, IDS / 2));
+    }
+
+    @Test
+    void testAddedShardOnlyTakesIdsOver() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 64);
+        ConsistentHashRing grown = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"), 64);
+
+        int moved = 0;
+        for (long id = 1; id <= IDS; id++) {
+            String before = ring.shardFor(id);
+            String after = grown.shardFor(id);
+            if (!before.equals(after)) {
+                assertThat(after).isEqualTo("shard-3");
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(IDS / 8, IDS / 3);
+    }
+
+    @Test
+    void testSingleShardTakesAllIds() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0"), 1);
+
+        assertThat(ring.shardFor(1)).isEqualTo("shard-0");
+        assertThat(ring.shardFor(Long.MAX_VALUE)).isEqualTo("shard-0");
+    }
+
+    @Test
+    void testRingNeedsShards() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of(), 64));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of("shard-0"), 0));
+    }
+}
@@ -0,0 +1,75 @@
+package com.mycompany.userservice.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class FairDataSourceTests {
+
+    private DataSource targetDataSource;
+    private FairDataSource fairDataSource;
+
+    @BeforeEach
+    void setUp() {
+        targetDataSource = mock(DataSource.class);
+        fairDataSource = new FairDataSource(targetDataSource, MAX_CONNECTIONS, TIMEOUT_MILLIS);
+    }
+
+    @Test
+    void testGetConnectionTakesPermitUntilClosed() throws SQLException {
+        Connection targetConnection = mock(Connection.class);
+        given(targetDataSource.getConnection()).willReturn(targetConnection);
+
+        Connection connection = fairDataSource.getConnection();
+        assertThat(fairDataSource.availablePermits()).isEqualTo(MAX_CONNECTIONS - 1);
+
+        connection.close();
+        connection.close();
+        verify(targetConnection, times(2)).close();
+        assertThat(fairDataSource.availablePermits()).isEqualTo(MAX_CONNECTIONS);
+    }
+
+    @Test
+    void testGetConnectionDelegatesToTargetConnection() throws SQLException {
+        Connection targetConnection = mock(Connection.class);
+        given(targetDataSource.getConnection()).willReturn(targetConnection);
+        given(targetConnection.getAutoCommit()).willReturn(true);
+
+        try (Connection connection = fairDataSource.getConnection()) {
+            assertThat(connection.getAutoCommit()).isTrue();
+            assertThat(connection).isEqualTo(connection).isNotEqualTo(targetConnection);
+        }
+    }
+
+    @Test
+    void testGetConnectionWhenAllPermitsAreTaken() throws SQLException {
+        given(targetDataSource.getConnection()).willReturn(mock(Connection.class));
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            fairDataSource.getConnection();
+        }
+
+        assertThatThrownBy(() -> fairDataSource.getConnection()).isInstanceOf(SQLTransientConnectionException.class);
+    }
+
+    @Test
+    void testGetConnectionGivesPermitBackWhenTargetFails() throws SQLException {
+        given(targetDataSource.getConnection()).willThrow(new SQLException("pool is down"));
+
+        assertThatThrownBy(() -> fairDataSource.getConnection()).hasMessage("pool is down");
+        assertThat(fairDataSource.availablePermits()).isEqualTo(MAX_CONNECTIONS);
+    }
+
+    private static final int MAX_CONNECTIONS = 2;
+    private static final long TIMEOUT_MILLIS = 50;
+}
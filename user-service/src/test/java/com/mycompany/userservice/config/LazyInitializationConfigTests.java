@@ -0,0 +1,40 @@
+package com.mycompany.userservice.config;
+
+import com.mycompany.userservice.controller.UserController;
+import com.mycompany.userservice.service.TimedUserService;
+import com.mycompany.userservice.service.UserImporter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LazyInitializationConfigTests {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(LazyInitializationConfig.class);
+
+    @Test
+    void testRequestPathIsExcluded() {
+        LazyInitializationExcludeFilter filter = LazyInitializationConfig.requestPathLazyInitializationExcludeFilter();
+
+        assertThat(isExcluded(filter, UserController.class)).isTrue();
+        assertThat(isExcluded(filter, TimedUserService.class)).isTrue();
+        assertThat(isExcluded(filter, FlywayMigrationInitializer.class)).isTrue();
+        assertThat(isExcluded(filter, UserImporter.class)).isFalse();
+        assertThat(isExcluded(filter, SwaggerConfig.class)).isFalse();
+    }
+
+    @Test
+    void testFilterOnlyWithLazyInitialization() {
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(LazyInitializationExcludeFilter.class));
+        contextRunner.withPropertyValues("spring.main.lazy-initialization=true")
+                .run(context -> assertThat(context).hasSingleBean(LazyInitializationExcludeFilter.class));
+    }
+
+    private static boolean isExcluded(LazyInitializationExcludeFilter filter, Class<?> beanType) {
+        return filter.isExcluded("bean", new RootBeanDefinition(beanType), beanType);
+    }
+}
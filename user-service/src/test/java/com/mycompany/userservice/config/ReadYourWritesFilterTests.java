@@ -0,0 +1,58 @@
+package com.mycompany.userservice.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReadYourWritesFilterTests {
+
+    private final ReadYourWritesFilter filter = new ReadYourWritesFilter(Duration.ofSeconds(5));
+
+    @Test
+    void testMutationReadsFromPrimaryAndSetsCookie() throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean primaryForced = doFilter(new MockHttpServletRequest("PUT", "/api/users/1"), response);
+
+        assertThat(primaryForced).isTrue();
+        assertThat(ReplicaRoutingDataSource.isPrimaryForced()).isFalse();
+        Cookie cookie = response.getCookie(ReadYourWritesFilter.COOKIE_NAME);
+        assertThat(cookie).isNotNull();
+        assertThat(cookie.getMaxAge()).isEqualTo(5);
+    }
+
+    @Test
+    void testReadWithCookieReadsFromPrimary() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/username/ivan");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, "true"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(doFilter(request, response)).isTrue();
+        assertThat(response.getCookie(ReadYourWritesFilter.COOKIE_NAME)).isNull();
+    }
+
+    @Test
+    void testReadWithoutCookieIsNotForcedToPrimary() throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(doFilter(new MockHttpServletRequest("GET", "/api/users"), response)).isFalse();
+        assertThat(response.getCookie(ReadYourWritesFilter.COOKIE_NAME)).isNull();
+    }
+
+    private boolean doFilter(MockHttpServletRequest request, MockHttpServletResponse response)
+            throws ServletException, IOException {
+        AtomicBoolean primaryForced = new AtomicBoolean();
+        FilterChain filterChain = (req, res) -> primaryForced.set(ReplicaRoutingDataSource.isPrimaryForced());
+        filter.doFilter(request, response, filterChain);
+        return primaryForced.get();
+    }
+}
@@ -0,0 +1,159 @@
+package com.mycompany.userservice.config;
+
+import com.mycompany.userservice.config.ReplicaRoutingProperties.Strategy;
+import com.mycompany.userservice.service.UserCache;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRoutingDataSourceTests {
+
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate readWriteTransaction;
+
+    @AfterEach
+    void tearDown() {
+        ReplicaRoutingDataSource.clearForcePrimary();
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Test
+    void testReadOnlyTransactionGoesToReplica() {
+        setUp(Strategy.ROUND_ROBIN, "replica");
+
+        assertThat(readOnlyNode()).isEqualTo("replica");
+    }
+
+    @Test
+    void testReadWriteTransactionAndNoTransactionGoToPrimary() {
+        setUp(Strategy.ROUND_ROBIN, "replica");
+
+        assertThat(readWriteNode()).isEqualTo("primary");
+        assertThat(currentNode()).isEqualTo("primary");
+    }
+
+    @Test
+    void testReadOnlyTransactionGoesToPrimaryWhenForced() {
+        setUp(Strategy.ROUND_ROBIN, "replica");
+
+        ReplicaRoutingDataSource.forcePrimary();
+
+        assertThat(readOnlyNode()).isEqualTo("primary");
+    }
+
+    @Test
+    void testReadFromPrimary() {
+        setUp(Strategy.ROUND_ROBIN, "replica");
+
+        assertThat(ReplicaRoutingDataSource.readFromPrimary(this::readOnlyNode)).isEqualTo("primary");
+        assertThat(readOnlyNode()).isEqualTo("replica");
+
+        ReplicaRoutingDataSource.forcePrimary();
+        ReplicaRoutingDataSource.readFromPrimary(this::readOnlyNode);
+
+        assertThat(readOnlyNode()).isEqualTo("primary");
+    }
+
+    @Test
+    void testUserCacheLoadsFromPrimary() {
+        setUp(Strategy.ROUND_ROBIN, "replica");
+        UserCache userCache = new UserCache("maximumSize=10", "maximumSize=10");
+        List<String> nodes = new ArrayList<>();
+
+        userCache.getById(1L, id -> {
+            nodes.add(readOnlyNode());
+            return Optional.empty();
+        });
+        userCache.getAllByUsername(List.of("ivan"), usernames -> {
+            nodes.add(readOnlyNode());
+            return List.of();
+        });
+
+        assertThat(nodes).containsExactly("primary", "primary");
+    }
+
+    @Test
+    void testReadOnlyTransactionGoesToPrimaryWhenThereAreNoReplicas() {
+        setUp(Strategy.ROUND_ROBIN);
+
+        assertThat(readOnlyNode()).isEqualTo("primary");
+    }
+
+    @Test
+    void testRoundRobinAlternatesReplicas() {
+        setUp(Strategy.ROUND_ROBIN, "replica1", "replica2");
+
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            nodes.add(readOnlyNode());
+        }
+
+        assertThat(nodes).containsExactly("replica1", "replica2", "replica1", "replica2");
+    }
+
+    @Test
+    void testLeastLoadedAvoidsBusyReplica() throws SQLException {
+        setUp(Strategy.LEAST_LOADED, "replica1", "replica2");
+
+        try (Connection ignored = dataSources.get(1).getConnection()) {
+            assertThat(readOnlyNode()).isEqualTo("replica2");
+        }
+    }
+
+    private void setUp(Strategy strategy, String... replicaNames) {
+        DataSource primary = createDataSource("primary");
+        List<DataSource> replicas = new ArrayList<>();
+        Arrays.stream(replicaNames).forEach(name -> replicas.add(createDataSource(name)));
+
+        DataSource dataSource = new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primary, replicas, strategy));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    // Each in-memory database stands for a node and knows its name
+    private HikariDataSource createDataSource(String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+        dataSource.setPoolName(name);
+        dataSources.add(dataSource);
+        new JdbcTemplate(dataSource).execute("create table if not exists node (name varchar(20))");
+        new JdbcTemplate(dataSource).execute("delete from node");
+        new JdbcTemplate(dataSource).update("insert into node values (?)", name);
+        return dataSource;
+    }
+
+    private String readOnlyNode() {
+        return readOnlyTransaction.execute(status -> currentNode());
+    }
+
+    private String readWriteNode() {
+        return readWriteTransaction.execute(status -> currentNode());
+    }
+
+    private String currentNode() {
+        return jdbcTemplate.queryForObject("select name from node", String.class);
+    }
+}
@@ -0,0 +1,113 @@
+package com.mycompany.userservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardRoutingDataSourceTests {
+
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+
+    private ShardRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        shards.put("shard-0", createDataSource("shard-0"));
+        shards.put("shard-1", createDataSource("shard-1"));
+        routingDataSource = new ShardRoutingDataSource(createDataSource("directory"), shards);
+
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Test
+    void testNoShardGoesToDirectory() {
+        String transactionNode = transactionTemplate.execute(status -> currentNode());
+
+        assertThat(currentNode()).isEqualTo("directory");
+        assertThat(transactionNode).isEqualTo("directory");
+    }
+
+    @Test
+    void testCallOnGoesToShard() {
+        String node = ShardRoutingDataSource.callOn("shard-1", this::currentNode);
+        String transactionNode = ShardRoutingDataSource.callOn("shard-0",
+                () -> transactionTemplate.execute(status -> currentNode()));
+
+        assertThat(node).isEqualTo("shard-1");
+        assertThat(transactionNode).isEqualTo("shard-0");
+        assertThat(ShardRoutingDataSource.currentShard()).isNull();
+    }
+
+    @Test
+    void testNestedCallOnRestoresPreviousShard() {
+        List<String> nodes = new ArrayList<>();
+
+        ShardRoutingDataSource.runOn("shard-0", () -> {
+            nodes.add(ShardRoutingDataSource.callOn("shard-1", this::currentNode));
+            nodes.add(currentNode());
+        });
+
+        assertThat(nodes).containsExactly("shard-1", "shard-0");
+        assertThat(currentNode()).isEqualTo("directory");
+    }
+
+    @Test
+    void testTransactionKeepsItsShard() {
+        String node = ShardRoutingDataSource.callOn("shard-0", () -> transactionTemplate.execute(status -> {
+            currentNode();
+            return ShardRoutingDataSource.<String>callOn("shard-1", this::currentNode);
+        }));
+
+        assertThat(node).isEqualTo("shard-0");
+    }
+
+    @Test
+    void testShardNamesAndPools() {
+        assertThat(routingDataSource.getShardNames()).containsExactly("shard-0", "shard-1");
+        assertThat(new JdbcTemplate(routingDataSource.getShard("shard-1"))
+                .queryForObject("select name from node", String.class)).isEqualTo("shard-1");
+        assertThrows(IllegalArgumentException.class, () -> routingDataSource.getShard("shard-2"));
+    }
+
+    // Each in-memory database stands for a node and knows its name
+    private HikariDataSource createDataSource(String name) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+        dataSource.setPoolName(name);
+        dataSources.add(dataSource);
+        new JdbcTemplate(dataSource).execute("create table if not exists node (name varchar(20))");
+        new JdbcTemplate(dataSource).execute("delete from node");
+        new JdbcTemplate(dataSource).update("insert into node values (?)", name);
+        return dataSource;
+    }
+
+    private String currentNode() {
+        return jdbcTemplate.queryForObject("select name from node", String.class);
+    }
+}
@@ -0,0 +1,115 @@
+package com.mycompany.userservice.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufFactory;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.util.List;
+
+import static com.mycompany.userservice.config.UserProtobufHttpMessageConverter.APPLICATION_PROTOBUF;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UserProtobufHttpMessageConverterTests {
+
+    private static final Type USER_RESPONSE_LIST = new TypeReference<List<UserResponse>>() {
+    }.getType();
+
+    private final UserProtobufHttpMessageConverter converter = new UserProtobufHttpMessageConverter(
+            BinaryFormatsConfig.binaryObjectMapper(Jackson2ObjectMapperBuilder.json()
+                    .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS), new ProtobufFactory()));
+
+    @Test
+    void testSupportedTypes() {
+        assertThat(converter.canRead(CreateUserRequest.class, null, APPLICATION_PROTOBUF)).isTrue();
+        assertThat(converter.canRead(UpdateUserRequest.class, null, APPLICATION_PROTOBUF)).isTrue();
+        assertThat(converter.canRead(UserResponse.class, null, APPLICATION_PROTOBUF)).isFalse();
+        assertThat(converter.canRead(UserChangeEvent.class, null, APPLICATION_PROTOBUF)).isFalse();
+        assertThat(converter.canRead(USER_RESPONSE_LIST, null, APPLICATION_PROTOBUF)).isFalse();
+
+        assertThat(converter.canWrite(UserResponse.class, UserResponse.class, APPLICATION_PROTOBUF)).isTrue();
+        assertThat(converter.canWrite(USER_RESPONSE_LIST, List.class, APPLICATION_PROTOBUF)).isTrue();
+        assertThat(converter.canWrite(new TypeReference<List<UserChangeEvent>>() {
+        }.getType(), List.class, APPLICATION_PROTOBUF)).isFalse();
+        assertThat(converter.canWrite(UserResponse.class, UserResponse.class, null)).isTrue();
+    }
+
+    @Test
+    void testWriteAndReadCreateUserRequest() throws IOException {
+        CreateUserRequest request = new CreateUserRequest("ivan", "ivan@test", LocalDate.parse("1965-03-01"));
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(request, CreateUserRequest.class, APPLICATION_PROTOBUF, outputMessage);
+
+        assertThat(outputMessage.getHeaders().getContentType()).isEqualTo(APPLICATION_PROTOBUF);
+        assertThat(outputMessage.getHeaders().getContentLength()).isEqualTo(outputMessage.getBodyAsBytes().length);
+        Object read = converter.read(CreateUserRequest.class, null, new MockHttpInputMessage(outputMessage.getBodyAsBytes()));
+        assertThat(read).isEqualTo(request);
+    }
+
+    @Test
+    void testReadUpdateUserRequestWithMissingFields() throws IOException {
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(new UpdateUserRequest(null, "ivan2@test", null), UpdateUserRequest.class, APPLICATION_PROTOBUF,
+                outputMessage);
+
+        Object read = converter.read(UpdateUserRequest.class, null, new MockHttpInputMessage(outputMessage.getBodyAsBytes()));
+
+        assertThat(read).isEqualTo(new UpdateUserRequest(null, "ivan2@test", null));
+    }
+
+    @Test
+    void testWriteUserResponseList() throws IOException {
+        List<UserResponse> users = List.of(
+                new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01")),
+                new UserResponse(2L, "ivan2", "ivan2@test", null));
+
+        byte[] first = write(users.get(0));
+        byte[] second = write(users.get(1));
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(users, USER_RESPONSE_LIST, APPLICATION_PROTOBUF, outputMessage);
+
+        // Each element of the repeated field is length-prefixed and tagged with field 1, wire type 2
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(new byte[]{0x0a, (byte) first.length});
+        expected.write(first);
+        expected.write(new byte[]{0x0a, (byte) second.length});
+        expected.write(second);
+        assertThat(outputMessage.getBodyAsBytes()).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void testWriteUserResponseWithEpochDayBirthday() throws IOException {
+        byte[] body = write(new UserResponse(1L, null, null, LocalDate.parse("1969-12-31")));
+
+        // id = 1 (field 1, varint), then birthday = -1 (field 4, zigzag varint)
+        assertThat(body).containsExactly(0x08, 0x01, 0x20, 0x01);
+    }
+
+    @Test
+    void testReadMalformedBody() {
+        MockHttpInputMessage inputMessage = new MockHttpInputMessage(new byte[]{(byte) 0xff, (byte) 0xff, 0x01});
+
+        assertThrows(HttpMessageNotReadableException.class,
+                () -> converter.read(CreateUserRequest.class, null, inputMessage));
+    }
+
+    private byte[] write(UserResponse userResponse) throws IOException {
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(userResponse, UserResponse.class, APPLICATION_PROTOBUF, outputMessage);
+        return outputMessage.getBodyAsBytes();
+    }
+}
@@ -0,0 +1,243 @@
+package com.mycompany.userservice.controller;
+
+import com.mycompany.userservice.dto.CreateUserBatchRequest;
+import com.mycompany.userservice.dto.CreateUserRequest;
+import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.handler.MyReactiveErrorAttributes;
+import com.mycompany.userservice.mapper.UserMapperImpl;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.service.ReactiveUserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+
+@ActiveProfiles("reactive")
+@WebFluxTest(ReactiveUserController.class)
+@Import({UserMapperImpl.class, MyReactiveErrorAttributes.class, SimpleMeterRegistry.class})
+class ReactiveUserControllerTests {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private ReactiveUserService userService;
+
+    @Test
+    void testGetUsersWhenInformingAfterAndLimit() {
+        User user = getDefaultUser();
+        given(userService.getUsers(0L, 1)).willReturn(Flux.just(user));
+
+        webTestClient.get().uri(uriBuilder -> uriBuilder.path(API_USERS_URL).queryParam("after", 0).queryParam("limit", 1).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath(JSON_$_LENGTH).isEqualTo(1)
+                .jsonPath(JSON_$_0_ID).isEqualTo(user.getId().intValue())
+                .jsonPath(JSON_$_0_USERNAME).isEqualTo(user.getUsername());
+    }
+
+    @Test
+    void testStreamUsersAsNdjson() {
+        User user = getDefaultUser();
+        given(userService.streamUsers()).willReturn(Flux.just(user, user));
+
+        webTestClient.get().uri(API_USERS_URL + "?stream=true")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(String.class).hasSize(2);
+    }
+
+    @Test
+    void testGetUserByUsernameWhenNonExistent() {
+        given(userService.validateAndGetUserByUsername(anyString()))
+                .willReturn(Mono.error(new UserNotFoundException("User with username 'ivan' doesn't exist.")));
+
+        webTestClient.get().uri(API_USERS_USERNAME_USERNAME_URL, "ivan")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath(JSON_$_STATUS).isEqualTo(404)
+                .jsonPath(JSON_$_EXCEPTION).isEqualTo(UserNotFoundException.class.getName())
+                .jsonPath(JSON_$_MESSAGE).isEqualTo("User with username 'ivan' doesn't exist.")
+                .jsonPath(JSON_$_ERROR_CODE).isEqualTo("UserNotFound")
+                .jsonPath(JSON_$_PATH).isEqualTo("/api/users/username/ivan")
+                .jsonPath(JSON_$_REQUEST_ID).doesNotExist();
+    }
+
+    @Test
+    void testGetUserByUsernameAnswersNotModifiedForCurrentETag() {
+        given(userService.validateAndGetUserByUsername("ivan")).willReturn(Mono.just(getDefaultUser()));
+
+        webTestClient.get().uri(API_USERS_USERNAME_USERNAME_URL, "ivan")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1-0\"");
+        webTestClient.get().uri(API_USERS_USERNAME_USERNAME_URL, "ivan")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"1-0\"")
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    void testUpdateUserWhenIfMatchIsStale() {
+        given(userService.validateAndGetUserById(1L)).willReturn(Mono.just(getDefaultUser()));
+        given(userService.updateUser(any(User.class), eq(0L))).willReturn(
+                Mono.error(new UserVersionMismatchException("User with id '1' doesn't have version '0' anymore.")));
+
+        webTestClient.put().uri(API_USERS_ID_URL, 1L)
+                .header(HttpHeaders.IF_MATCH, "\"1-0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new UpdateUserRequest("ivan2", null, null))
+                .exchange()
+                .expectStatus().isEqualTo(412)
+                .expectBody()
+                .jsonPath(JSON_$_ERROR_CODE).isEqualTo("UserVersionMismatch");
+    }
+
+    @Test
+    void testUpdateUserWithIfMatchReturnsNewETag() {
+        User user = getDefaultUser();
+        User updated = getDefaultUser();
+        updated.setVersion(1L);
+        given(userService.validateAndGetUserById(1L)).willReturn(Mono.just(user));
+        given(userService.updateUser(user, 0L)).willReturn(Mono.just(updated));
+
+        webTestClient.put().uri(API_USERS_ID_URL, 1L)
+                .header(HttpHeaders.IF_MATCH, "\"1-0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new UpdateUserRequest(null, null, null))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1-1\"");
+    }
+
+    @Test
+    void testDeleteUserWhenIfMatchIsOfAnotherUser() {
+        webTestClient.delete().uri(API_USERS_ID_URL, 1L)
+                .header(HttpHeaders.IF_MATCH, "\"2-0\"")
+                .exchange()
+                .expectStatus().isEqualTo(412)
+                .expectBody()
+                .jsonPath(JSON_$_ERROR_CODE).isEqualTo("UserVersionMismatch");
+    }
+
+    @Test
+    void testCreateUserWhenInformingInvalidInfo() {
+        webTestClient.post().uri(API_USERS_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new CreateUserRequest("", "ivan@test", null))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath(JSON_$_EXCEPTION).isEqualTo("org.springframework.web.bind.MethodArgumentNotValidException")
+                .jsonPath(JSON_$_MESSAGE).isEqualTo("Validation failed for object='createUserRequest'. Error count: 1")
+                .jsonPath(JSON_$_ERROR_CODE).isEqualTo("BadRequest")
+                .jsonPath(JSON_$_ERRORS_0_FIELD).isEqualTo("username");
+    }
+
+    @Test
+    void testCreateUserWhenInformingExistentUsername() {
+        given(userService.saveUser(any(User.class))).willReturn(Mono.error(new UserDataDuplicatedException()));
+
+        webTestClient.post().uri(API_USERS_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(getDefaultCreateUserRequest())
+                .exchange()
+                .expectStatus().isEqualTo(409)
+                .expectBody()
+                .jsonPath(JSON_$_MESSAGE).isEqualTo(UserDataDuplicatedException.MESSAGE)
+                .jsonPath(JSON_$_ERROR_CODE).isEqualTo("UserDataDuplicated");
+    }
+
+    @Test
+    void testCreateUsersReportsDuplicatedItems() {
+        User user = getDefaultUser();
+        given(userService.saveUser(any(User.class)))
+                .willReturn(Mono.just(user))
+                .willReturn(Mono.error(new UserDataDuplicatedException()));
+
+        CreateUserBatchRequest createUserBatchRequest = new CreateUserBatchRequest();
+        createUserBatchRequest.setUsers(Arrays.asList(getDefaultCreateUserRequest(), getDefaultCreateUserRequest()));
+
+        webTestClient.post().uri(API_USERS_BATCH_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(createUserBatchRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.created").isEqualTo(1)
+                .jsonPath("$.failed").isEqualTo(1)
+                .jsonPath("$.items[0].status").isEqualTo(201)
+                .jsonPath("$.items[0].user.id").isEqualTo(user.getId().intValue())
+                .jsonPath("$.items[1].status").isEqualTo(409)
+                .jsonPath("$.items[1].errorCode").isEqualTo("UserDataDuplicated");
+    }
+
+    @Test
+    void testDeleteUserWhenExistent() {
+        User user = getDefaultUser();
+        given(userService.validateAndGetUserById(1L)).willReturn(Mono.just(user));
+        given(userService.deleteUser(user, null)).willReturn(Mono.empty());
+
+        webTestClient.delete().uri(API_USERS_ID_URL, user.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath(JSON_$_ID).isEqualTo(user.getId().intValue())
+                .jsonPath(JSON_$_USERNAME).isEqualTo(user.getUsername());
+    }
+
+    private User getDefaultUser() {
+        User user = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        user.setId(1L);
+        return user;
+    }
+
+    private CreateUserRequest getDefaultCreateUserRequest() {
+        return new CreateUserRequest("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+    }
+
+    private static final String API_USERS_URL = "/api/users";
+    private static final String API_USERS_ID_URL = "/api/users/{id}";
+    private static final String API_USERS_BATCH_URL = "/api/users/batch";
+    private static final String API_USERS_USERNAME_USERNAME_URL = "/api/users/username/{username}";
+
+    private static final String JSON_$_LENGTH = "$.length()";
+
+    private static final String JSON_$_ID = "$.id";
+    private static final String JSON_$_USERNAME = "$.username";
+
+    private static final String JSON_$_0_ID = "$[0].id";
+    private static final String JSON_$_0_USERNAME = "$[0].username";
+
+    private static final String JSON_$_STATUS = "$.status";
+    private static final String JSON_$_EXCEPTION = "$.exception";
+    private static final String JSON_$_MESSAGE = "$.message";
+    private static final String JSON_$_PATH = "$.path";
+    private static final String JSON_$_ERROR_CODE = "$.errorCode";
+    private static final String JSON_$_REQUEST_ID = "$.requestId";
+    private static final String JSON_$_ERRORS_0_FIELD = "$.errors[0].field";
+}
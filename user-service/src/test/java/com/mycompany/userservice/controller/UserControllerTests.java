@@ -1,49 +1,105 @@
 package com.mycompany.userservice.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.mycompany.userservice.config.UserProtobufHttpMessageConverter;
+import com.mycompany.userservice.dto.CreateUserBatchRequest;
 import com.mycompany.userservice.dto.CreateUserRequest;
 import com.mycompany.userservice.dto.UpdateUserRequest;
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserImportResponse;
+import com.mycompany.userservice.dto.UserImportResponse.Status;
+import com.mycompany.userservice.dto.UserLookupRequest;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.dto.UsernameSuggestion;
 import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserImportFormatException;
 import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.handler.UserNotFoundResponses;
 import com.mycompany.userservice.mapper.UserMapperImpl;
 import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.InMemoryIdempotencyKeyRepository;
+import com.mycompany.userservice.service.IdempotencyService;
+import com.mycompany.userservice.service.UserChangeBroadcaster;
+import com.mycompany.userservice.service.UserChangeFeed;
+import com.mycompany.userservice.service.UserImporter;
+import com.mycompany.userservice.service.UserImporter.Format;
 import com.mycompany.userservice.service.UserService;
+import com.mycompany.userservice.service.UsernameIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
-
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+
+import static com.mycompany.userservice.config.UserProtobufHttpMessageConverter.APPLICATION_PROTOBUF;
 import static java.time.format.DateTimeFormatter.ISO_LOCAL_DATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.BDDMockito.willDoNothing;
 import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(UserController.class)
-@Import(UserMapperImpl.class)
+@Import({UserMapperImpl.class, SimpleMeterRegistry.class, IdempotencyService.class, InMemoryIdempotencyKeyRepository.class,
+        UserNotFoundResponses.class})
 class UserControllerTests {
 
     @Autowired
@@ -52,12 +108,27 @@ class UserControllerTests {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private InMemoryIdempotencyKeyRepository idempotencyKeyRepository;
+
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private UserImporter userImporter;
+
+    @MockBean
+    private UserChangeFeed userChangeFeed;
+
+    @MockBean
+    private UserChangeBroadcaster userChangeBroadcaster;
+
+    @MockBean
+    private UsernameIndex usernameIndex;
+
     @Test
     void testGetUsersWhenThereIsNone() throws Exception {
-        given(userService.getUsers()).willReturn(Collections.emptyList());
+        given(userService.getUsers(anyLong(), anyInt())).willReturn(Collections.emptyList());
 
         ResultActions resultActions = mockMvc.perform(get(API_USERS_URL))
                 .andDo(print());
@@ -69,10 +140,10 @@ class UserControllerTests {
 
     @Test
     void testGetUsersWhenThereIsOne() throws Exception {
-        User user = getDefaultUser();
-        List<User> users = Collections.singletonList(user);
+        UserResponse user = getDefaultUserResponse();
+        List<UserResponse> users = Collections.singletonList(user);
 
-        given(userService.getUsers()).willReturn(users);
+        given(userService.getUsers(anyLong(), anyInt())).willReturn(users);
 
         ResultActions resultActions = mockMvc.perform(get(API_USERS_URL))
                 .andDo(print());
@@ -86,21 +157,415 @@ class UserControllerTests {
                 .andExpect(jsonPath(JSON_$_0_BIRTHDAY, is(user.getBirthday().format(ISO_LOCAL_DATE))));
     }
 
+    @Test
+    void testGetUsersByIds() throws Exception {
+        User user1 = getDefaultUser();
+        User user3 = new User("ivan3", "ivan3@test", LocalDate.parse("2018-03-03"));
+        user3.setId(3L);
+        given(userService.getUsersByIds(List.of(3L, 2L, 1L))).willReturn(Map.of(1L, user1, 3L, user3));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_URL).param("ids", "3,2,1,3"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.users", hasSize(2)))
+                .andExpect(jsonPath("$.users[0].id", is(3)))
+                .andExpect(jsonPath("$.users[1].id", is(1)))
+                .andExpect(jsonPath("$.users[1].username", is(user1.getUsername())))
+                .andExpect(jsonPath("$.missing.ids", contains(2)))
+                .andExpect(jsonPath("$.missing.usernames").doesNotExist())
+                .andExpect(jsonPath("$.missing.emails").doesNotExist());
+        verify(userService, never()).getUsersByUsernames(any());
+    }
+
+    @Test
+    void testLookupUsers() throws Exception {
+        User user = getDefaultUser();
+        given(userService.getUsersByIds(List.of(1L))).willReturn(Map.of(1L, user));
+        given(userService.getUsersByUsernames(List.of("ivan2", "ivan"))).willReturn(Map.of("ivan", user));
+        given(userService.getUsersByEmails(List.of("ivan3@test"))).willReturn(Collections.emptyMap());
+        UserLookupRequest userLookupRequest = new UserLookupRequest(List.of(1L), List.of("ivan2", "ivan"),
+                List.of("ivan3@test"));
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_LOOKUP_URL)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(userLookupRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.users", hasSize(2)))
+                .andExpect(jsonPath("$.users[0].id", is(1)))
+                .andExpect(jsonPath("$.users[1].username", is("ivan")))
+                .andExpect(jsonPath("$.missing.ids").doesNotExist())
+                .andExpect(jsonPath("$.missing.usernames", contains("ivan2")))
+                .andExpect(jsonPath("$.missing.emails", contains("ivan3@test")));
+    }
+
+    @Test
+    void testLookupUsersWhenInformingTooManyIds() throws Exception {
+        List<Long> ids = LongStream.rangeClosed(1, 1001).boxed().collect(Collectors.toList());
+        UserLookupRequest userLookupRequest = new UserLookupRequest(ids, List.of(), List.of());
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_LOOKUP_URL)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(userLookupRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+        verify(userService, never()).getUsersByIds(any());
+    }
+
+    @Test
+    void testGetUsersWhenInformingAfterAndLimit() throws Exception {
+        UserResponse user = getDefaultUserResponse();
+        given(userService.getUsers(0L, 1)).willReturn(Collections.singletonList(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_URL).param("after", "0").param("limit", "1"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath(JSON_$, hasSize(1)))
+                .andExpect(jsonPath(JSON_$_0_ID, is(user.getId().intValue())));
+    }
+
+    @Test
+    void testSearchUsers() throws Exception {
+        UserResponse userResponse = new UserResponse(1L, "ivan", "ivan@test.com", LocalDate.parse("2018-01-01"));
+        given(userService.searchUsers("iv", "test.com", LocalDate.parse("2018-01-01"), LocalDate.parse("2018-12-31"), 0L, 100))
+                .willReturn(Collections.singletonList(userResponse));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_SEARCH_URL)
+                        .param("usernamePrefix", "iv")
+                        .param("emailDomain", "test.com")
+                        .param("birthdayFrom", "2018-01-01")
+                        .param("birthdayTo", "2018-12-31"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath(JSON_$, hasSize(1)))
+                .andExpect(jsonPath(JSON_$_0_ID, is(1)))
+                .andExpect(jsonPath(JSON_$_0_USERNAME, is(userResponse.getUsername())))
+                .andExpect(jsonPath(JSON_$_0_EMAIL, is(userResponse.getEmail())))
+                .andExpect(jsonPath(JSON_$_0_BIRTHDAY, is("2018-01-01")));
+    }
+
+    @Test
+    void testSuggestUsernames() throws Exception {
+        given(usernameIndex.suggest("iv", 10)).willReturn(List.of(new UsernameSuggestion(1L, "ivan")));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_SUGGEST_URL).param("prefix", "iv"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath(JSON_$, hasSize(1)))
+                .andExpect(jsonPath(JSON_$_0_ID, is(1)))
+                .andExpect(jsonPath(JSON_$_0_USERNAME, is("ivan")));
+    }
+
+    @Test
+    void testSuggestUsernamesCapsLimit() throws Exception {
+        given(usernameIndex.suggest("iv", 100)).willReturn(Collections.emptyList());
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_SUGGEST_URL).param("prefix", "iv").param("limit", "5000"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath(JSON_$, hasSize(0)));
+    }
+
+    @Test
+    void testSearchUsersCapsLimit() throws Exception {
+        given(userService.searchUsers(isNull(), isNull(), isNull(), isNull(), eq(5L), eq(1000))).willReturn(Collections.emptyList());
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_SEARCH_URL).param("after", "5").param("limit", "5000"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath(JSON_$, hasSize(0)));
+        verify(userService).searchUsers(isNull(), isNull(), isNull(), isNull(), eq(5L), eq(1000));
+    }
+
+    @Test
+    void testSearchUsersWhenInformingInvalidBirthday() throws Exception {
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_SEARCH_URL).param("birthdayFrom", "01/01/2018"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testStreamUsersAsJsonArray() throws Exception {
+        UserResponse user = getDefaultUserResponse();
+        willAnswer(invocation -> {
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(user);
+            return null;
+        }).given(userService).streamUsers(eq(0L), any());
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_URL).param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath(JSON_$, hasSize(1)))
+                .andExpect(jsonPath(JSON_$_0_ID, is(user.getId().intValue())))
+                .andExpect(jsonPath(JSON_$_0_USERNAME, is(user.getUsername())));
+    }
+
+    @Test
+    void testStreamUsersAsNdjson() throws Exception {
+        UserResponse user = getDefaultUserResponse();
+        willAnswer(invocation -> {
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(user);
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(user);
+            return null;
+        }).given(userService).streamUsers(eq(0L), any());
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_URL).param("stream", "true")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print());
+
+        String line = "{\"id\":1,\"username\":\"ivan\",\"email\":\"ivan@test\",\"birthday\":\"2018-01-01\"}\n";
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(line + line));
+    }
+
+    @Test
+    void testGetChanges() throws Exception {
+        UserChangeEvent change = new UserChangeEvent(8, Operation.UPDATED, getDefaultUserResponse(), 2, ZonedDateTime.now());
+        DeferredResult<List<UserChangeEvent>> changes = new DeferredResult<>();
+        changes.setResult(Collections.singletonList(change));
+        given(userChangeFeed.getChanges(7L, UserController.MAX_LIMIT, Duration.ofSeconds(UserController.DEFAULT_CHANGES_WAIT)))
+                .willReturn(changes);
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_CHANGES_URL).param("since", "7").param("limit", "5000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath(JSON_$, hasSize(1)))
+                .andExpect(jsonPath("$[0].sequenceNumber", is(8)))
+                .andExpect(jsonPath("$[0].operation", is("UPDATED")))
+                .andExpect(jsonPath("$[0].user.username", is("ivan")))
+                .andExpect(jsonPath("$[0].version", is(2)));
+    }
+
+    @Test
+    void testSubscribeToChangesResumesFromLastEventId() throws Exception {
+        given(userChangeBroadcaster.subscribe(7L)).willReturn(new SseEmitter());
+
+        mockMvc.perform(get(API_USERS_CHANGES_URL).accept(MediaType.TEXT_EVENT_STREAM).header("Last-Event-ID", "7"))
+                .andExpect(request().asyncStarted());
+
+        verify(userChangeBroadcaster).subscribe(7L);
+        verify(userChangeFeed, never()).getChanges(anyLong(), anyInt(), any());
+    }
+
+    @Test
+    void testExportUsersAsNdjsonFromCheckpoint() throws Exception {
+        UserResponse user = getDefaultUserResponse();
+        willAnswer(invocation -> {
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(user);
+            return null;
+        }).given(userService).streamUsers(eq(5L), any());
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_EXPORT_URL).param("format", "ndjson").param("after", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"users.ndjson\""))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().string("{\"id\":1,\"username\":\"ivan\",\"email\":\"ivan@test\",\"birthday\":\"2018-01-01\"}\n"));
+    }
+
+    @Test
+    void testExportUsersAsCsv() throws Exception {
+        willAnswer(invocation -> {
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(getDefaultUserResponse());
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(new UserResponse(2L, "ivan,\"2\"", "ivan2@test", null));
+            return null;
+        }).given(userService).streamUsers(eq(0L), any());
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_EXPORT_URL).param("format", "csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv;charset=UTF-8"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"users.csv\""))
+                .andExpect(content().string("id,username,email,birthday\r\n" +
+                        "1,ivan,ivan@test,2018-01-01\r\n" +
+                        "2,\"ivan,\"\"2\"\"\",ivan2@test,\r\n"));
+    }
+
+    @Test
+    void testExportUsersGzipped() throws Exception {
+        willAnswer(invocation -> {
+            invocation.<Consumer<UserResponse>>getArgument(1).accept(getDefaultUserResponse());
+            return null;
+        }).given(userService).streamUsers(eq(0L), any());
+
+        MvcResult mvcResult = mockMvc.perform(get(API_USERS_EXPORT_URL).param("format", "csv").param("gzip", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvcResult = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn();
+
+        byte[] body = mvcResult.getResponse().getContentAsByteArray();
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertThat(new String(gzipInputStream.readAllBytes(), StandardCharsets.UTF_8))
+                    .isEqualTo("id,username,email,birthday\r\n1,ivan,ivan@test,2018-01-01\r\n");
+        }
+    }
+
+    @Test
+    void testExportUsersWhenInformingUnknownFormat() throws Exception {
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_EXPORT_URL).param("format", "xml"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+        verify(userService, never()).streamUsers(anyLong(), any());
+    }
+
+    @Test
+    void testImportUsersFromCsv() throws Exception {
+        UserImportResponse userImportResponse = getDefaultUserImportResponse();
+        given(userImporter.importUsers(any(InputStream.class), eq(Format.CSV))).willReturn(userImportResponse);
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_IMPORT_URL)
+                        .contentType("text/csv")
+                        .content("username,email\nivan,ivan@test\ntaken,taken@test\n"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(userImportResponse.getId())))
+                .andExpect(jsonPath("$.status", is("COMPLETED")))
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.duplicated", is(1)))
+                .andExpect(jsonPath("$.errors[0].row", is(2)))
+                .andExpect(jsonPath("$.errors[0].errorCode", is("UserDataDuplicated")));
+    }
+
+    @Test
+    void testImportUsersFromNdjson() throws Exception {
+        given(userImporter.importUsers(any(InputStream.class), eq(Format.NDJSON))).willReturn(getDefaultUserImportResponse());
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_IMPORT_URL)
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"username\":\"ivan\",\"email\":\"ivan@test\"}\n"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("COMPLETED")));
+    }
+
+    @Test
+    void testImportUsersWhenInformingUnsupportedContentType() throws Exception {
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_IMPORT_URL)
+                        .contentType(MediaType.APPLICATION_XML)
+                        .content("<users/>"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    void testImportUsersWhenCsvHasNoUsernameColumn() throws Exception {
+        given(userImporter.importUsers(any(InputStream.class), eq(Format.CSV)))
+                .willThrow(new UserImportFormatException("The CSV header must name a username and an email column."));
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_IMPORT_URL)
+                        .contentType("text/csv")
+                        .content("email\nivan@test\n"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetImport() throws Exception {
+        UserImportResponse userImportResponse = getDefaultUserImportResponse();
+        given(userImporter.getImport(userImportResponse.getId())).willReturn(Optional.of(userImportResponse));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_IMPORT_ID_URL, userImportResponse.getId()))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(userImportResponse.getId())))
+                .andExpect(jsonPath("$.rowsPerSecond", is(2000.0)));
+    }
+
+    @Test
+    void testGetImportWhenNonExistent() throws Exception {
+        given(userImporter.getImport(anyString())).willReturn(Optional.empty());
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_IMPORT_ID_URL, "unknown"))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetImports() throws Exception {
+        given(userImporter.getImports()).willReturn(Collections.singletonList(getDefaultUserImportResponse()));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_IMPORT_URL))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(jsonPath(JSON_$, hasSize(1)));
+    }
+
     @Test
     void testGetUserByUsernameWhenNonExistent() throws Exception {
-        given(userService.validateAndGetUserByUsername(anyString())).willThrow(UserNotFoundException.class);
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.empty());
 
         ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, "test"))
                 .andDo(print());
 
-        resultActions.andExpect(status().isNotFound());
+        resultActions.andExpect(status().isNotFound())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.timestamp").isString())
+                .andExpect(jsonPath("$.status", is(404)))
+                .andExpect(jsonPath("$.error", is("Not Found")))
+                .andExpect(jsonPath("$.exception", is(UserNotFoundException.class.getName())))
+                .andExpect(jsonPath("$.message", is("User with username 'test' doesn't exist.")))
+                .andExpect(jsonPath("$.path", is("/api/users/username/test")))
+                .andExpect(jsonPath("$.errorCode", is("UserNotFound")));
     }
 
     @Test
     void testGetUserByUsernameWhenExistent() throws Exception {
         User user = getDefaultUser();
 
-        given(userService.validateAndGetUserByUsername(anyString())).willReturn(user);
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.of(user));
 
         ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, user.getUsername()))
                 .andDo(print());
@@ -113,6 +578,134 @@ class UserControllerTests {
                 .andExpect(jsonPath(JSON_$_BIRTHDAY, is(user.getBirthday().format(ISO_LOCAL_DATE))));
     }
 
+    @Test
+    void testGetUsersWhenAcceptingAnyMediaType() throws Exception {
+        given(userService.getUsers(anyLong(), anyInt())).willReturn(Collections.singletonList(getDefaultUserResponse()));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_URL).accept(MediaType.ALL))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    void testGetUsersAsProtobuf() throws Exception {
+        UserResponse user = getDefaultUserResponse();
+        given(userService.getUsers(anyLong(), anyInt())).willReturn(Collections.singletonList(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_URL).accept(APPLICATION_PROTOBUF))
+                .andDo(print());
+
+        MvcResult mvcResult = resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_PROTOBUF))
+                .andReturn();
+        JsonNode users = readProtobuf("UserResponseList", mvcResult.getResponse().getContentAsByteArray()).get("users");
+        assertThat(users).hasSize(1);
+        assertThat(users.get(0).get("id").asLong()).isEqualTo(user.getId());
+        assertThat(users.get(0).get("username").asText()).isEqualTo(user.getUsername());
+        assertThat(users.get(0).get("email").asText()).isEqualTo(user.getEmail());
+        assertThat(users.get(0).get("birthday").asLong()).isEqualTo(user.getBirthday().toEpochDay());
+    }
+
+    @Test
+    void testGetUserByUsernameAsCbor() throws Exception {
+        User user = getDefaultUser();
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.of(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, user.getUsername())
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andDo(print());
+
+        MvcResult mvcResult = resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn();
+        JsonNode userNode = new ObjectMapper(new CBORFactory()).readTree(mvcResult.getResponse().getContentAsByteArray());
+        assertThat(userNode.get("id").asLong()).isEqualTo(user.getId());
+        assertThat(userNode.get("username").asText()).isEqualTo(user.getUsername());
+        assertThat(userNode.get("birthday").isInt()).isTrue();
+        assertThat(userNode.get("birthday").asLong()).isEqualTo(user.getBirthday().toEpochDay());
+    }
+
+    @Test
+    void testCreateUserAsSmile() throws Exception {
+        User user = getDefaultUser();
+        given(userService.saveUser(any(User.class))).willReturn(user);
+
+        ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+        byte[] content = smileMapper.writeValueAsBytes(Map.of("username", user.getUsername(), "email", user.getEmail(),
+                "birthday", user.getBirthday().toEpochDay()));
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_URL)
+                        .contentType(SMILE)
+                        .accept(SMILE)
+                        .content(content))
+                .andDo(print());
+
+        MvcResult mvcResult = resultActions.andExpect(status().isCreated())
+                .andExpect(content().contentType(SMILE))
+                .andReturn();
+        verify(userService).saveUser(argThat(saved -> user.getBirthday().equals(saved.getBirthday())));
+        JsonNode userNode = smileMapper.readTree(mvcResult.getResponse().getContentAsByteArray());
+        assertThat(userNode.get("id").asLong()).isEqualTo(user.getId());
+        assertThat(userNode.get("birthday").asLong()).isEqualTo(user.getBirthday().toEpochDay());
+    }
+
+    @Test
+    void testCreateUserAsProtobufWhenInformingInvalidEmail() throws Exception {
+        ObjectMapper protobufMapper = new ObjectMapper(new ProtobufFactory());
+        byte[] content = protobufMapper.writer(UserProtobufHttpMessageConverter.loadSchema().forType("CreateUserRequest"))
+                .writeValueAsBytes(Map.of("username", "ivan", "email", "ivan"));
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_URL)
+                        .contentType(APPLICATION_PROTOBUF)
+                        .content(content))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+        verify(userService, never()).saveUser(any(User.class));
+    }
+
+    @Test
+    void testGetUserByUsernameReturnsETag() throws Exception {
+        User user = getDefaultUser();
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.of(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, user.getUsername()))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-0\""));
+    }
+
+    @Test
+    void testGetUserByUsernameWhenNotModified() throws Exception {
+        User user = getDefaultUser();
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.of(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, user.getUsername())
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"1-0\""))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-0\""))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void testGetUserByUsernameWhenModified() throws Exception {
+        User user = getDefaultUser();
+        user.setVersion(1);
+        given(userService.findUserByUsername(anyString())).willReturn(Optional.of(user));
+
+        ResultActions resultActions = mockMvc.perform(get(API_USERS_USERNAME_USERNAME_URL, user.getUsername())
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"1-0\""))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-1\""))
+                .andExpect(jsonPath(JSON_$_USERNAME, is(user.getUsername())));
+    }
+
     @Test
     void testCreateUserWhenInformingExistentUsername() throws Exception {
         CreateUserRequest createUserRequest = getDefaultCreateUserRequest();
@@ -160,14 +753,114 @@ class UserControllerTests {
                 .andExpect(jsonPath(JSON_$_BIRTHDAY, is(user.getBirthday().format(ISO_LOCAL_DATE))));
     }
 
+    @Test
+    void testCreateUserReplaysResponseToRetryWithSameIdempotencyKey() throws Exception {
+        User user = getDefaultUser();
+        given(userService.saveUser(any(User.class))).willReturn(user);
+        String content = objectMapper.writeValueAsString(getDefaultCreateUserRequest());
+
+        mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist(IDEMPOTENT_REPLAYED));
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andDo(print());
+
+        resultActions.andExpect(status().isCreated())
+                .andExpect(header().string(IDEMPOTENT_REPLAYED, "true"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-0\""))
+                .andExpect(jsonPath(JSON_$_ID, is(user.getId().intValue())))
+                .andExpect(jsonPath(JSON_$_USERNAME, is(user.getUsername())));
+        verify(userService).saveUser(any(User.class));
+    }
+
+    @Test
+    void testCreateUserReplaysUserCreatedByAttemptThatDidNotSaveResponse() throws Exception {
+        User user = getDefaultUser();
+        given(userService.saveUser(any(User.class))).willReturn(user);
+        String content = objectMapper.writeValueAsString(getDefaultCreateUserRequest());
+        mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-3")
+                        .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated());
+        // key-4 is left reserved for the same request, as by an instance that stopped after creating the user
+        idempotencyKeyRepository.reserve("key-4", idempotencyKeyRepository.findByKey("key-3").orElseThrow().getRequestHash());
+        given(userService.saveUser(any(User.class))).willThrow(new UserDataDuplicatedException());
+        given(userService.findUserByUsername(user.getUsername())).willReturn(Optional.of(user));
+
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-4")
+                        .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andDo(print());
+
+        resultActions.andExpect(status().isCreated())
+                .andExpect(header().string(IDEMPOTENT_REPLAYED, "true"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-0\""))
+                .andExpect(jsonPath(JSON_$_ID, is(user.getId().intValue())));
+    }
+
+    @Test
+    void testCreateUserWhenIdempotencyKeyIsReusedWithAnotherRequest() throws Exception {
+        given(userService.saveUser(any(User.class))).willReturn(getDefaultUser());
+        mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-2")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(getDefaultCreateUserRequest())))
+                .andExpect(status().isCreated());
+
+        CreateUserRequest otherRequest = new CreateUserRequest("ivan2", "ivan2@test", null);
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_URL).header(IDEMPOTENCY_KEY, "key-2")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(otherRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isUnprocessableEntity());
+        verify(userService).saveUser(any(User.class));
+    }
+
+    @Test
+    void testCreateUsersReportsDuplicatedItems() throws Exception {
+        given(userService.saveUsers(anyList())).willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            users.get(0).setId(1L);
+            return users;
+        });
+
+        CreateUserBatchRequest createUserBatchRequest = new CreateUserBatchRequest(Arrays.asList(
+                getDefaultCreateUserRequest(), getDefaultCreateUserRequest()));
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_BATCH_URL)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createUserBatchRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.failed", is(1)))
+                .andExpect(jsonPath("$.items[0].status", is(201)))
+                .andExpect(jsonPath("$.items[0].user.id", is(1)))
+                .andExpect(jsonPath("$.items[1].status", is(409)))
+                .andExpect(jsonPath("$.items[1].errorCode", is("UserDataDuplicated")));
+    }
+
+    @Test
+    void testCreateUsersWhenInformingInvalidItem() throws Exception {
+        CreateUserBatchRequest createUserBatchRequest = new CreateUserBatchRequest(Collections.singletonList(
+                new CreateUserRequest("ivan", "ivan", LocalDate.parse("2018-01-01"))));
+        ResultActions resultActions = mockMvc.perform(post(API_USERS_BATCH_URL)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createUserBatchRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isBadRequest());
+    }
+
     @Test
     void testUpdateUserWhenInformingExistingUsername() throws Exception {
         User user = getDefaultUser();
         UpdateUserRequest updateUserRequest = new UpdateUserRequest();
         updateUserRequest.setUsername("ivan2");
 
-        given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        willThrow(UserDataDuplicatedException.class).given(userService).saveUser(any(User.class));
+        willThrow(UserDataDuplicatedException.class).given(userService).updateUser(anyLong(), any(), any(User.class));
 
         ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, user.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -183,8 +876,7 @@ class UserControllerTests {
         UpdateUserRequest updateUserRequest = new UpdateUserRequest();
         updateUserRequest.setEmail("ivan2@test");
 
-        given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        willThrow(UserDataDuplicatedException.class).given(userService).saveUser(any(User.class));
+        willThrow(UserDataDuplicatedException.class).given(userService).updateUser(anyLong(), any(), any(User.class));
 
         ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, user.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -198,9 +890,11 @@ class UserControllerTests {
     void testUpdateUserWhenChangingAllFields() throws Exception {
         User user = getDefaultUser();
         UpdateUserRequest updateUserRequest = new UpdateUserRequest("ivan2", "ivan2@test", LocalDate.parse("2018-02-02"));
+        User updatedUser = new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02"));
+        updatedUser.setId(user.getId());
 
-        given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        given(userService.saveUser(any(User.class))).willReturn(user);
+        willDoNothing().given(userService).updateUser(anyLong(), any(), any(User.class));
+        given(userService.validateAndGetUserById(anyLong())).willReturn(updatedUser);
 
         ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, user.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -220,9 +914,11 @@ class UserControllerTests {
         User user = getDefaultUser();
         UpdateUserRequest updateUserRequest = new UpdateUserRequest();
         updateUserRequest.setUsername("ivan2");
+        User updatedUser = new User("ivan2", user.getEmail(), user.getBirthday());
+        updatedUser.setId(user.getId());
 
-        given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        given(userService.saveUser(any(User.class))).willReturn(user);
+        willDoNothing().given(userService).updateUser(anyLong(), any(), any(User.class));
+        given(userService.validateAndGetUserById(anyLong())).willReturn(updatedUser);
 
         ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, user.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -242,9 +938,11 @@ class UserControllerTests {
         User user = getDefaultUser();
         UpdateUserRequest updateUserRequest = new UpdateUserRequest();
         updateUserRequest.setBirthday(LocalDate.parse("2018-02-02"));
+        User updatedUser = new User(user.getUsername(), user.getEmail(), LocalDate.parse("2018-02-02"));
+        updatedUser.setId(user.getId());
 
-        given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        given(userService.saveUser(any(User.class))).willReturn(user);
+        willDoNothing().given(userService).updateUser(anyLong(), any(), any(User.class));
+        given(userService.validateAndGetUserById(anyLong())).willReturn(updatedUser);
 
         ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, user.getId())
                         .contentType(MediaType.APPLICATION_JSON)
@@ -259,12 +957,96 @@ class UserControllerTests {
                 .andExpect(jsonPath(JSON_$_BIRTHDAY, is(updateUserRequest.getBirthday().format(ISO_LOCAL_DATE))));
     }
 
+    @Test
+    void testUpdateUserWhenNonExistent() throws Exception {
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        willThrow(UserNotFoundException.class).given(userService).updateUser(anyLong(), any(), any(User.class));
+
+        ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, 1L)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testUpdateUserWhenPreferringMinimalReturn() throws Exception {
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        willDoNothing().given(userService).updateUser(anyLong(), any(), any(User.class));
+
+        ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, 1L)
+                        .header(PREFER, RETURN_MINIMAL)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNoContent())
+                .andExpect(header().string(PREFERENCE_APPLIED, RETURN_MINIMAL))
+                .andExpect(content().string(""));
+        verify(userService, never()).validateAndGetUserById(anyLong());
+    }
+
+    @Test
+    void testUpdateUserWhenInformingIfMatch() throws Exception {
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        willDoNothing().given(userService).updateUser(anyLong(), any(), any(User.class));
+
+        ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, 1L)
+                        .header(PREFER, RETURN_MINIMAL)
+                        .header(HttpHeaders.IF_MATCH, "\"1-3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNoContent())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-4\""));
+        verify(userService).updateUser(eq(1L), eq(3L), any(User.class));
+    }
+
+    @Test
+    void testUpdateUserWhenVersionIsStale() throws Exception {
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        willThrow(UserVersionMismatchException.class).given(userService).updateUser(anyLong(), any(), any(User.class));
+
+        ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"1-3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void testUpdateUserWhenIfMatchIsOfAnotherUser() throws Exception {
+        UpdateUserRequest updateUserRequest = new UpdateUserRequest();
+        updateUserRequest.setUsername("ivan2");
+
+        ResultActions resultActions = mockMvc.perform(put(API_USERS_ID_URL, 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"2-3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateUserRequest)))
+                .andDo(print());
+
+        resultActions.andExpect(status().isPreconditionFailed());
+        verify(userService, never()).updateUser(anyLong(), any(), any(User.class));
+    }
+
     @Test
     void testDeleteUserWhenExistent() throws Exception {
         User user = getDefaultUser();
 
         given(userService.validateAndGetUserById(anyLong())).willReturn(user);
-        willDoNothing().given(userService).deleteUser(any(User.class));
+        willDoNothing().given(userService).deleteUserById(anyLong(), any());
 
         ResultActions resultActions = mockMvc.perform(delete(API_USERS_ID_URL, user.getId()))
                 .andDo(print());
@@ -277,6 +1059,42 @@ class UserControllerTests {
                 .andExpect(jsonPath(JSON_$_BIRTHDAY, is(user.getBirthday().format(ISO_LOCAL_DATE))));
     }
 
+    @Test
+    void testDeleteUserWhenPreferringMinimalReturn() throws Exception {
+        willDoNothing().given(userService).deleteUserById(anyLong(), any());
+
+        ResultActions resultActions = mockMvc.perform(delete(API_USERS_ID_URL, 1L).header(PREFER, RETURN_MINIMAL))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNoContent())
+                .andExpect(header().string(PREFERENCE_APPLIED, RETURN_MINIMAL));
+        verify(userService).deleteUserById(1L, null);
+        verify(userService, never()).validateAndGetUserById(anyLong());
+    }
+
+    @Test
+    void testDeleteUserWhenPreferringMinimalReturnAndNonExistent() throws Exception {
+        willThrow(UserNotFoundException.class).given(userService).deleteUserById(anyLong(), any());
+
+        ResultActions resultActions = mockMvc.perform(delete(API_USERS_ID_URL, 1L).header(PREFER, RETURN_MINIMAL))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testDeleteUserWhenInformingIfMatch() throws Exception {
+        willDoNothing().given(userService).deleteUserById(anyLong(), any());
+
+        ResultActions resultActions = mockMvc.perform(delete(API_USERS_ID_URL, 1L)
+                        .header(PREFER, RETURN_MINIMAL)
+                        .header(HttpHeaders.IF_MATCH, "W/\"1-2\", \"1-3\""))
+                .andDo(print());
+
+        resultActions.andExpect(status().isNoContent());
+        verify(userService).deleteUserById(1L, 3L);
+    }
+
     @Test
     void testDeleteUserWhenNonExistent() throws Exception {
         given(userService.validateAndGetUserById(anyLong())).willThrow(UserNotFoundException.class);
@@ -287,20 +1105,52 @@ class UserControllerTests {
         resultActions.andExpect(status().isNotFound());
     }
 
+    private static JsonNode readProtobuf(String messageType, byte[] content) throws IOException {
+        return new ObjectMapper(new ProtobufFactory()).readerFor(JsonNode.class)
+                .with(UserProtobufHttpMessageConverter.loadSchema().forType(messageType))
+                .readValue(content);
+    }
+
     private User getDefaultUser() {
         User user = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
         user.setId(1L);
         return user;
     }
 
+    private UserResponse getDefaultUserResponse() {
+        return new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+    }
+
+    private UserImportResponse getDefaultUserImportResponse() {
+        return new UserImportResponse("1f0c3a4e", Status.COMPLETED, ZonedDateTime.now(), ZonedDateTime.now(), 2, 1, 1, 0,
+                2000.0, Collections.singletonList(new UserImportResponse.Error(2, "UserDataDuplicated",
+                UserDataDuplicatedException.MESSAGE)));
+    }
+
     public CreateUserRequest getDefaultCreateUserRequest() {
         return new CreateUserRequest("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
     }
 
+    private static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
     private static final String API_USERS_URL = "/api/users";
     private static final String API_USERS_ID_URL = "/api/users/{id}";
+    private static final String API_USERS_BATCH_URL = "/api/users/batch";
+    private static final String API_USERS_SEARCH_URL = "/api/users/search";
+    private static final String API_USERS_CHANGES_URL = "/api/users/changes";
+    private static final String API_USERS_EXPORT_URL = "/api/users/export";
+    private static final String API_USERS_IMPORT_URL = "/api/users/import";
+    private static final String API_USERS_IMPORT_ID_URL = "/api/users/import/{id}";
+    private static final String API_USERS_LOOKUP_URL = "/api/users/lookup";
+    private static final String API_USERS_SUGGEST_URL = "/api/users/suggest";
     private static final String API_USERS_USERNAME_USERNAME_URL = "/api/users/username/{username}";
 
+    private static final String PREFER = "Prefer";
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String RETURN_MINIMAL = "return=minimal";
+
     private static final String JSON_$ = "$";
 
     private static final String JSON_$_ID = "$.id";
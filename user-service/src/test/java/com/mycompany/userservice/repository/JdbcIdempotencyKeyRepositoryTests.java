@@ -0,0 +1,73 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.IdempotentResponse;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.repository.IdempotencyKeyRepository.Entry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import(JdbcIdempotencyKeyRepository.class)
+@TestPropertySource(properties = "app.idempotency.store=jdbc")
+class JdbcIdempotencyKeyRepositoryTests {
+
+    @Autowired
+    private JdbcIdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Test
+    void testSaveAndFindByKey() {
+        Entry entry = getEntry("hash");
+
+        idempotencyKeyRepository.save("key", entry);
+
+        assertThat(idempotencyKeyRepository.findByKey("key")).contains(entry);
+        assertThat(idempotencyKeyRepository.findByKey("other")).isEmpty();
+    }
+
+    @Test
+    void testSaveKeepsFirstEntry() {
+        idempotencyKeyRepository.save("key", getEntry("hash"));
+        idempotencyKeyRepository.save("key", getEntry("other-hash"));
+
+        assertThat(idempotencyKeyRepository.findByKey("key")).map(Entry::getRequestHash).contains("hash");
+    }
+
+    @Test
+    void testReserveSaveAndRelease() {
+        assertThat(idempotencyKeyRepository.reserve("key", "hash")).isTrue();
+        assertThat(idempotencyKeyRepository.reserve("key", "other-hash")).isFalse();
+        assertThat(idempotencyKeyRepository.findByKey("key")).contains(new Entry("hash", null));
+
+        idempotencyKeyRepository.save("key", getEntry("hash"));
+        idempotencyKeyRepository.release("key", "hash");
+
+        assertThat(idempotencyKeyRepository.findByKey("key")).contains(getEntry("hash"));
+
+        idempotencyKeyRepository.reserve("other", "hash");
+        idempotencyKeyRepository.release("other", "hash");
+
+        assertThat(idempotencyKeyRepository.findByKey("other")).isEmpty();
+    }
+
+    @Test
+    void testDeleteCreatedBefore() {
+        idempotencyKeyRepository.save("key", getEntry("hash"));
+
+        assertThat(idempotencyKeyRepository.deleteCreatedBefore(ZonedDateTime.now().minusHours(1))).isZero();
+        assertThat(idempotencyKeyRepository.deleteCreatedBefore(ZonedDateTime.now().plusSeconds(1))).isEqualTo(1);
+        assertThat(idempotencyKeyRepository.findByKey("key")).isEmpty();
+    }
+
+    private static Entry getEntry(String requestHash) {
+        return new Entry(requestHash, new IdempotentResponse(
+                new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01")), "\"1-0\""));
+    }
+}
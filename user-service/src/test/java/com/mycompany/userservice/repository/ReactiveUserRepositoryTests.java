@@ -0,0 +1,139 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.r2dbc.DataR2dbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("reactive")
+@DataR2dbcTest(properties = {
+        "spring.main.web-application-type=none",
+        "spring.r2dbc.url=r2dbc:h2:mem:///reactivedb"
+})
+@Import(ReactiveUserRepository.class)
+class ReactiveUserRepositoryTests {
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private ReactiveUserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        databaseClient.sql(CREATE_TABLE_SQL).then()
+                .then(databaseClient.sql("delete from users").then())
+                .block();
+    }
+
+    @Test
+    void testFindUserByUsernameWhenExistent() {
+        User user = userRepository.save(getDefaultUser()).block();
+
+        StepVerifier.create(userRepository.findUserByUsername("ivan"))
+                .assertNext(userFound -> {
+                    assertThat(userFound.getId()).isEqualTo(user.getId());
+                    assertThat(userFound.getEmail()).isEqualTo(user.getEmail());
+                    assertThat(userFound.getBirthday()).isEqualTo(user.getBirthday());
+                    assertThat(userFound.getCreatedOn()).isNotNull();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testFindUserByUsernameWhenNonExistent() {
+        StepVerifier.create(userRepository.findUserByUsername("ivan2")).verifyComplete();
+    }
+
+    @Test
+    void testFindUserByEmailWhenExistent() {
+        User user = userRepository.save(getDefaultUser()).block();
+
+        StepVerifier.create(userRepository.findUserByEmail("ivan@test"))
+                .assertNext(userFound -> assertThat(userFound.getId()).isEqualTo(user.getId()))
+                .verifyComplete();
+    }
+
+    @Test
+    void testFindUserByEmailWhenNonExistent() {
+        StepVerifier.create(userRepository.findUserByEmail("ivan2@test")).verifyComplete();
+    }
+
+    @Test
+    void testSaveUpdatesExistingUser() {
+        User user = userRepository.save(getDefaultUser()).block();
+        user.setUsername("ivan2");
+        user.setBirthday(null);
+        userRepository.save(user).block();
+
+        StepVerifier.create(userRepository.findById(user.getId()))
+                .assertNext(userFound -> {
+                    assertThat(userFound.getUsername()).isEqualTo("ivan2");
+                    assertThat(userFound.getBirthday()).isNull();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testSaveWhenUsernameIsTaken() {
+        userRepository.save(getDefaultUser()).block();
+
+        StepVerifier.create(userRepository.save(new User("ivan", "ivan2@test", null)))
+                .verifyError(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    void testFindByIdGreaterThanAndDelete() {
+        User user1 = userRepository.save(getDefaultUser()).block();
+        User user2 = userRepository.save(new User("ivan2", "ivan2@test", null)).block();
+
+        StepVerifier.create(userRepository.findByIdGreaterThan(user1.getId(), 10))
+                .assertNext(userFound -> assertThat(userFound.getId()).isEqualTo(user2.getId()))
+                .verifyComplete();
+
+        userRepository.delete(user1).block();
+        StepVerifier.create(userRepository.findAll().map(User::getId))
+                .expectNext(user2.getId())
+                .verifyComplete();
+    }
+
+    @Test
+    void testUpdateIfVersionAndDeleteIfVersion() {
+        User user = userRepository.save(getDefaultUser()).block();
+        user.setUsername("ivan2");
+
+        StepVerifier.create(userRepository.updateIfVersion(user, 1)).verifyComplete();
+        StepVerifier.create(userRepository.updateIfVersion(user, 0))
+                .assertNext(userUpdated -> assertThat(userUpdated.getVersion()).isEqualTo(1))
+                .verifyComplete();
+        StepVerifier.create(userRepository.deleteIfVersion(user.getId(), 0)).expectNext(false).verifyComplete();
+        StepVerifier.create(userRepository.deleteIfVersion(user.getId(), 1)).expectNext(true).verifyComplete();
+
+        StepVerifier.create(userRepository.findById(user.getId())).verifyComplete();
+    }
+
+    private User getDefaultUser() {
+        return new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+    }
+
+    private static final String CREATE_TABLE_SQL = "create table if not exists users (" +
+            "id bigint auto_increment primary key, " +
+            "username varchar(255) not null, " +
+            "email varchar(255) not null, " +
+            "birthday date, " +
+            "created_on timestamp not null, " +
+            "updated_on timestamp not null, " +
+            "version bigint not null, " +
+            "constraint UK_email unique (email), " +
+            "constraint UK_username unique (username))";
+}
@@ -0,0 +1,134 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserChangeRepository.PendingChange;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import(UserChangeRepository.class)
+class UserChangeRepositoryTests {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserChangeRepository userChangeRepository;
+
+    @Test
+    void testAppendChangesRecordsCurrentUserData() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), ZonedDateTime.now());
+        List<UserChangeEvent> changes = userChangeRepository.numberNextChanges(10);
+
+        assertThat(changes).singleElement().satisfies(change -> {
+            assertThat(change.getOperation()).isEqualTo(Operation.CREATED);
+            assertThat(change.getUser().getId()).isEqualTo(user.getId());
+            assertThat(change.getUser().getUsername()).isEqualTo("ivan");
+            assertThat(change.getUser().getBirthday()).isEqualTo(LocalDate.parse("2018-01-01"));
+            assertThat(change.getVersion()).isEqualTo(user.getVersion());
+        });
+    }
+
+    @Test
+    void testNumberNextChangesContinuesFromLastSequenceNumber() {
+        User user1 = entityManager.persist(new User("ivan", "ivan@test", null));
+        User user2 = entityManager.persistAndFlush(new User("ivan2", "ivan2@test", null));
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user1.getId(), user2.getId()), ZonedDateTime.now());
+        userChangeRepository.appendChanges(Operation.DELETED, List.of(user1.getId()), ZonedDateTime.now());
+
+        List<UserChangeEvent> firstBatch = userChangeRepository.numberNextChanges(2);
+        List<UserChangeEvent> secondBatch = userChangeRepository.numberNextChanges(2);
+
+        assertThat(firstBatch).extracting(UserChangeEvent::getSequenceNumber).containsExactly(1L, 2L);
+        assertThat(secondBatch).extracting(UserChangeEvent::getSequenceNumber).containsExactly(3L);
+        assertThat(secondBatch.get(0).getOperation()).isEqualTo(Operation.DELETED);
+        assertThat(userChangeRepository.numberNextChanges(2)).isEmpty();
+    }
+
+    @Test
+    void testFindChangesAfter() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", null));
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), ZonedDateTime.now());
+        userChangeRepository.appendChanges(Operation.UPDATED, List.of(user.getId()), ZonedDateTime.now());
+        userChangeRepository.appendChanges(Operation.UPDATED, List.of(user.getId()), ZonedDateTime.now());
+        assertThat(userChangeRepository.findChangesAfter(0, 10)).isEmpty();
+
+        List<UserChangeEvent> numbered = userChangeRepository.numberNextChanges(10);
+        long first = numbered.get(0).getSequenceNumber();
+
+        assertThat(userChangeRepository.findChangesAfter(first, 1))
+                .extracting(UserChangeEvent::getSequenceNumber).containsExactly(first + 1);
+        assertThat(userChangeRepository.findChangesAfter(first + 2, 10)).isEmpty();
+    }
+
+    @Test
+    void testDeleteChangesBeforeKeepsChangesNotRelayed() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", null));
+        ZonedDateTime lastWeek = ZonedDateTime.now().minusWeeks(1);
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), lastWeek);
+        userChangeRepository.numberNextChanges(10);
+        userChangeRepository.appendChanges(Operation.UPDATED, List.of(user.getId()), lastWeek);
+
+        assertThat(userChangeRepository.deleteChangesBefore(ZonedDateTime.now().minusDays(1))).isEqualTo(1);
+        assertThat(userChangeRepository.numberNextChanges(10)).singleElement()
+                .extracting(UserChangeEvent::getOperation).isEqualTo(Operation.UPDATED);
+    }
+
+    @Test
+    void testAppendForwardedChangesOnlyOnce() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), ZonedDateTime.now());
+        userChangeRepository.appendChanges(Operation.UPDATED, List.of(user.getId()), ZonedDateTime.now());
+        List<PendingChange> pending = userChangeRepository.findPendingChanges(10);
+        userChangeRepository.deleteChanges(List.of(pending.get(0).getId(), pending.get(1).getId()));
+
+        assertThat(userChangeRepository.appendForwardedChanges("shard-0", pending.subList(0, 1))).isEqualTo(1);
+        assertThat(userChangeRepository.appendForwardedChanges("shard-0", pending)).isEqualTo(1);
+        assertThat(userChangeRepository.appendForwardedChanges("shard-1", pending.subList(0, 1))).isEqualTo(1);
+
+        List<UserChangeEvent> changes = userChangeRepository.numberNextChanges(10);
+        assertThat(changes).extracting(UserChangeEvent::getOperation)
+                .containsExactly(Operation.CREATED, Operation.UPDATED, Operation.CREATED);
+        assertThat(changes.get(0).getUser().getBirthday()).isEqualTo(LocalDate.parse("2018-01-01"));
+    }
+
+    @Test
+    void testAppendForwardedChangesSkipsDuplicatesOfTheBatch() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", null));
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), ZonedDateTime.now());
+        userChangeRepository.appendChanges(Operation.UPDATED, List.of(user.getId()), ZonedDateTime.now());
+        List<PendingChange> pending = userChangeRepository.findPendingChanges(10);
+        userChangeRepository.deleteChanges(List.of(pending.get(0).getId(), pending.get(1).getId()));
+
+        // As if another forwarder appended the first change between the lookup and the insert
+        assertThat(userChangeRepository.appendForwardedChanges("shard-0",
+                List.of(pending.get(0), pending.get(0), pending.get(1)))).isEqualTo(2);
+
+        assertThat(userChangeRepository.numberNextChanges(10)).extracting(UserChangeEvent::getOperation)
+                .containsExactly(Operation.CREATED, Operation.UPDATED);
+    }
+
+    @Test
+    void testFindPendingChangesSkipsNumberedOnes() {
+        User user = entityManager.persistAndFlush(new User("ivan", "ivan@test", null));
+        userChangeRepository.appendChanges(Operation.CREATED, List.of(user.getId()), ZonedDateTime.now());
+        userChangeRepository.numberNextChanges(10);
+        userChangeRepository.appendChanges(Operation.DELETED, List.of(user.getId()), ZonedDateTime.now());
+
+        assertThat(userChangeRepository.findPendingChanges(10)).singleElement()
+                .extracting(pending -> pending.getChange().getOperation()).isEqualTo(Operation.DELETED);
+    }
+}
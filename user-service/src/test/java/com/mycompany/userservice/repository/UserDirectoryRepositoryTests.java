@@ -0,0 +1,122 @@
+package com.mycompany.userservice.repository;
+
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserDirectoryRepository.Entry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest
+@Import(UserDirectoryRepository.class)
+@TestPropertySource(properties = "app.datasource.sharding.enabled=true")
+class UserDirectoryRepositoryTests {
+
+    @Autowired
+    private UserDirectoryRepository userDirectoryRepository;
+
+    @Test
+    void testInsertAllSetsIdsAndShards() {
+        User user1 = new User("ivan", "ivan@test", null);
+        User user2 = new User("ivan2", "ivan2@test", null);
+
+        userDirectoryRepository.insertAll(List.of(user1, user2), id -> "shard-" + id % 2);
+
+        assertThat(user1.getId()).isNotNull();
+        assertThat(userDirectoryRepository.findById(user1.getId()))
+                .contains(new Entry(user1.getId(), "ivan", "ivan@test", "shard-" + user1.getId() % 2));
+        assertThat(userDirectoryRepository.findByIdIn(List.of(user1.getId(), user2.getId()))).hasSize(2);
+        assertThat(userDirectoryRepository.findByUsernameIn(List.of("ivan2"))).extracting(Entry::getId)
+                .containsExactly(user2.getId());
+        assertThat(userDirectoryRepository.findByEmailIn(List.of("ivan@test", "other@test"))).extracting(Entry::getId)
+                .containsExactly(user1.getId());
+    }
+
+    @Test
+    void testInsertAllWithTakenUsernameClaimsNothing() {
+        userDirectoryRepository.insertAll(List.of(new User("ivan", "ivan@test", null)), id -> "shard-0");
+
+        assertThrows(DataIntegrityViolationException.class, () -> userDirectoryRepository.insertAll(
+                List.of(new User("ivan2", "ivan2@test", null), new User("ivan", "other@test", null)), id -> "shard-0"));
+        assertThat(userDirectoryRepository.findByUsernameIn(List.of("ivan2"))).isEmpty();
+    }
+
+    @Test
+    void testFindByUsernameInOrEmailIn() {
+        userDirectoryRepository.insertAll(List.of(new User("ivan", "ivan@test", null),
+                new User("mario", "mario@test", null)), id -> "shard-0");
+
+        assertThat(userDirectoryRepository.findByUsernameInOrEmailIn(Set.of("ivan"), Set.of("mario@test")))
+                .extracting(Entry::getUsername).containsExactlyInAnyOrder("ivan", "mario");
+        assertThat(userDirectoryRepository.findByUsernameInOrEmailIn(Set.of(), Set.of("mario@test")))
+                .extracting(Entry::getUsername).containsExactly("mario");
+        assertThat(userDirectoryRepository.findByUsernameInOrEmailIn(Set.of(), Set.of())).isEmpty();
+    }
+
+    @Test
+    void testExistsOtherEntryWithUsernameOrEmail() {
+        User user = new User("ivan", "ivan@test", null);
+        userDirectoryRepository.insertAll(List.of(user), id -> "shard-0");
+
+        assertThat(userDirectoryRepository.existsOtherEntryWithUsernameOrEmail(null, "ivan", "other@test")).isTrue();
+        assertThat(userDirectoryRepository.existsOtherEntryWithUsernameOrEmail(user.getId(), "ivan", "ivan@test"))
+                .isFalse();
+        assertThat(userDirectoryRepository.existsOtherEntryWithUsernameOrEmail(null, "mario", "mario@test")).isFalse();
+    }
+
+    @Test
+    void testUpdateNamesAndShard() {
+        User user = new User("ivan", "ivan@test", null);
+        User other = new User("mario", "mario@test", null);
+        userDirectoryRepository.insertAll(List.of(user, other), id -> "shard-0");
+
+        assertThat(userDirectoryRepository.updateNames(user.getId(), "ivan2", null)).isEqualTo(1);
+        assertThrows(DataIntegrityViolationException.class,
+                () -> userDirectoryRepository.updateNames(user.getId(), null, "mario@test"));
+        assertThat(userDirectoryRepository.updateShard(user.getId(), "shard-1", "shard-2")).isZero();
+        assertThat(userDirectoryRepository.updateShard(user.getId(), "shard-0", "shard-1")).isEqualTo(1);
+
+        assertThat(userDirectoryRepository.findById(user.getId()))
+                .contains(new Entry(user.getId(), "ivan2", "ivan@test", "shard-1"));
+    }
+
+    @Test
+    void testRestoreNamesOnlyIfStillClaimed() {
+        User user = new User("ivan", "ivan@test", null);
+        userDirectoryRepository.insertAll(List.of(user), id -> "shard-0");
+        userDirectoryRepository.updateNames(user.getId(), "ivan2", null);
+        userDirectoryRepository.updateNames(user.getId(), "ivan3", null);
+
+        assertThat(userDirectoryRepository.restoreNames(user.getId(), "ivan2", "ivan@test", "ivan", "ivan@test"))
+                .isZero();
+        assertThat(userDirectoryRepository.restoreNames(user.getId(), "ivan3", "ivan@test", "ivan2", "ivan@test"))
+                .isEqualTo(1);
+
+        assertThat(userDirectoryRepository.findById(user.getId()))
+                .contains(new Entry(user.getId(), "ivan2", "ivan@test", "shard-0"));
+    }
+
+    @Test
+    void testFindEntriesAfterAndDelete() {
+        User user1 = new User("ivan", "ivan@test", null);
+        User user2 = new User("mario", "mario@test", null);
+        userDirectoryRepository.insertAll(List.of(user1, user2), id -> "shard-0");
+
+        assertThat(userDirectoryRepository.findEntriesAfter(0, 1)).extracting(Entry::getId)
+                .containsExactly(user1.getId());
+        assertThat(userDirectoryRepository.findEntriesAfter(user1.getId(), 10)).extracting(Entry::getId)
+                .containsExactly(user2.getId());
+
+        userDirectoryRepository.deleteById(user1.getId());
+
+        assertThat(userDirectoryRepository.findById(user1.getId())).isEmpty();
+    }
+}
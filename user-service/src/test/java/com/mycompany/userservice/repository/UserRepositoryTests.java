@@ -1,15 +1,27 @@
 package com.mycompany.userservice.repository;
 
+import com.mycompany.userservice.dto.UserResponse;
 import com.mycompany.userservice.model.User;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @DataJpaTest
 class UserRepositoryTests {
@@ -30,6 +42,16 @@ class UserRepositoryTests {
         assertThat(userOptional.get()).isEqualTo(user);
     }
 
+    @Test
+    void testFindUserByUsernameLoadsUserReadOnly() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+        entityManager.clear();
+
+        User userFound = userRepository.findUserByUsername(user.getUsername()).orElseThrow();
+
+        assertThat(entityManager.getEntityManager().unwrap(Session.class).isReadOnly(userFound)).isTrue();
+    }
+
     @Test
     void testFindUserByUsernameWhenNonExistent() {
         Optional<User> userOptional = userRepository.findUserByUsername("ivan2");
@@ -52,6 +74,238 @@ class UserRepositoryTests {
         assertThat(userOptional).isNotPresent();
     }
 
+    @Test
+    void testFindUserResponsesByIdGreaterThan() {
+        User user1 = entityManager.persist(getDefaultUser());
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        User user3 = entityManager.persist(new User("ivan3", "ivan3@test", LocalDate.parse("2018-03-03")));
+        entityManager.flush();
+        entityManager.clear();
+
+        List<UserResponse> users = userRepository.findUserResponsesByIdGreaterThan(user1.getId(),
+                PageRequest.of(0, 1, Sort.by("id")));
+
+        assertThat(users).containsExactly(
+                new UserResponse(user2.getId(), user2.getUsername(), user2.getEmail(), user2.getBirthday()));
+
+        users = userRepository.findUserResponsesByIdGreaterThan(user2.getId(), PageRequest.of(0, 10, Sort.by("id")));
+
+        assertThat(users).containsExactly(
+                new UserResponse(user3.getId(), user3.getUsername(), user3.getEmail(), user3.getBirthday()));
+        assertThat(entityManager.getEntityManager().contains(user2)).isFalse();
+    }
+
+    @Test
+    void testForEachUser() {
+        User user1 = entityManager.persist(getDefaultUser());
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        entityManager.flush();
+
+        List<Long> ids = new ArrayList<>();
+        userRepository.forEachUser(user -> ids.add(user.getId()));
+
+        assertThat(ids).containsExactly(user1.getId(), user2.getId());
+    }
+
+    @Test
+    void testForEachUserResponse() {
+        User user1 = entityManager.persist(getDefaultUser());
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        entityManager.flush();
+
+        List<UserResponse> users = new ArrayList<>();
+        userRepository.forEachUserResponse(0L, users::add);
+
+        assertThat(users).containsExactly(
+                new UserResponse(user1.getId(), user1.getUsername(), user1.getEmail(), user1.getBirthday()),
+                new UserResponse(user2.getId(), user2.getUsername(), user2.getEmail(), user2.getBirthday()));
+
+        users.clear();
+        userRepository.forEachUserResponse(user1.getId(), users::add);
+
+        assertThat(users).extracting(UserResponse::getId).containsExactly(user2.getId());
+    }
+
+    @Test
+    void testInsertAll() {
+        User user1 = getDefaultUser();
+        User user2 = new User("ivan2", "ivan2@test", null);
+
+        userRepository.insertAll(Arrays.asList(user1, user2));
+
+        assertThat(user1.getId()).isNotNull();
+        assertThat(user2.getId()).isEqualTo(user1.getId() + 1);
+        assertThat(user1.getCreatedOn()).isNotNull();
+        assertThat(userRepository.findUserByUsername("ivan2")).hasValueSatisfying(user -> {
+            assertThat(user.getId()).isEqualTo(user2.getId());
+            assertThat(user.getEmail()).isEqualTo(user2.getEmail());
+            assertThat(user.getBirthday()).isNull();
+        });
+    }
+
+    @Test
+    void testInsertAllWhenInformingExistentUsername() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+
+        List<User> users = Arrays.asList(new User("ivan2", "ivan2@test", null), new User(user.getUsername(), "ivan3@test", null));
+
+        assertThatThrownBy(() -> userRepository.insertAll(users)).isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(userRepository.findUserByUsername("ivan2")).isNotPresent();
+    }
+
+    @Test
+    void testFindByUsernameInOrEmailIn() {
+        User user1 = entityManager.persist(getDefaultUser());
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        entityManager.persist(new User("ivan3", "ivan3@test", LocalDate.parse("2018-03-03")));
+
+        List<User> users = userRepository.findByUsernameInOrEmailIn(
+                Collections.singletonList(user1.getUsername()), Collections.singletonList(user2.getEmail()));
+
+        assertThat(users).containsExactlyInAnyOrder(user1, user2);
+    }
+
+    @Test
+    void testFindByIdInUsernameInAndEmailIn() {
+        User user1 = entityManager.persist(getDefaultUser());
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02")));
+        entityManager.persist(new User("ivan3", "ivan3@test", LocalDate.parse("2018-03-03")));
+
+        assertThat(userRepository.findByIdIn(Arrays.asList(user1.getId(), user2.getId(), -1L)))
+                .containsExactlyInAnyOrder(user1, user2);
+        assertThat(userRepository.findByUsernameIn(Arrays.asList("ivan2", "ivan4"))).containsExactly(user2);
+        assertThat(userRepository.findByEmailIn(Collections.singletonList(user1.getEmail()))).containsExactly(user1);
+    }
+
+    @Test
+    void testExistsOtherUserWithUsernameOrEmail() {
+        User user = entityManager.persist(getDefaultUser());
+
+        assertThat(userRepository.existsOtherUserWithUsernameOrEmail(null, user.getUsername(), "ivan2@test")).isTrue();
+        assertThat(userRepository.existsOtherUserWithUsernameOrEmail(null, "ivan2", user.getEmail())).isTrue();
+        assertThat(userRepository.existsOtherUserWithUsernameOrEmail(null, "ivan2", "ivan2@test")).isFalse();
+        assertThat(userRepository.existsOtherUserWithUsernameOrEmail(user.getId(), user.getUsername(), user.getEmail())).isFalse();
+    }
+
+    @Test
+    void testUpdateUser() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+
+        int updated = userRepository.updateUser(user.getId(), null, "ivan2", null, null, ZonedDateTime.now());
+
+        assertThat(updated).isEqualTo(1);
+        User userUpdated = entityManager.find(User.class, user.getId());
+        assertThat(userUpdated.getUsername()).isEqualTo("ivan2");
+        assertThat(userUpdated.getEmail()).isEqualTo(user.getEmail());
+        assertThat(userUpdated.getBirthday()).isEqualTo(user.getBirthday());
+        assertThat(userUpdated.getVersion()).isEqualTo(user.getVersion() + 1);
+    }
+
+    @Test
+    void testUpdateUserWhenNonExistent() {
+        assertThat(userRepository.updateUser(1L, null, "ivan2", null, null, ZonedDateTime.now())).isZero();
+    }
+
+    @Test
+    void testUpdateUserWhenVersionMatches() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+
+        assertThat(userRepository.updateUser(user.getId(), user.getVersion(), "ivan2", null, null, ZonedDateTime.now()))
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testUpdateUserWhenVersionIsStale() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+        userRepository.updateUser(user.getId(), null, null, "ivan2@test", null, ZonedDateTime.now());
+
+        assertThat(userRepository.updateUser(user.getId(), user.getVersion(), "ivan2", null, null, ZonedDateTime.now()))
+                .isZero();
+        assertThat(entityManager.find(User.class, user.getId()).getUsername()).isEqualTo(user.getUsername());
+    }
+
+    @Test
+    void testUpdateUserWhenInformingExistentUsername() {
+        entityManager.persist(getDefaultUser());
+        User user = entityManager.persistFlushFind(new User("ivan2", "ivan2@test", null));
+
+        assertThatThrownBy(() -> userRepository.updateUser(user.getId(), null, "ivan", null, null, ZonedDateTime.now()))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    void testSaveUserWhenVersionIsStale() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+        entityManager.detach(user);
+        userRepository.updateUser(user.getId(), null, null, "ivan2@test", null, ZonedDateTime.now());
+
+        user.setUsername("ivan2");
+
+        assertThatThrownBy(() -> userRepository.saveAndFlush(user)).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void testDeleteUserById() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+
+        assertThat(userRepository.deleteUserById(user.getId(), null)).isEqualTo(1);
+        assertThat(userRepository.findById(user.getId())).isNotPresent();
+        assertThat(userRepository.deleteUserById(user.getId(), null)).isZero();
+    }
+
+    @Test
+    void testDeleteUserByIdWhenVersionIsStale() {
+        User user = entityManager.persistFlushFind(getDefaultUser());
+        userRepository.updateUser(user.getId(), null, "ivan2", null, null, ZonedDateTime.now());
+
+        assertThat(userRepository.deleteUserById(user.getId(), user.getVersion())).isZero();
+        assertThat(userRepository.deleteUserById(user.getId(), user.getVersion() + 1)).isEqualTo(1);
+    }
+
+    @Test
+    void testSearchUsersByUsernamePrefix() {
+        entityManager.persist(new User("ivan", "ivan@test", null));
+        entityManager.persist(new User("ivana", "ivana@test", null));
+        entityManager.persist(new User("igor", "igor@test", null));
+        entityManager.persist(new User("iv_x", "iv_x@test", null));
+        entityManager.flush();
+
+        assertThat(userRepository.searchUsers("iva", null, null, null, 0L, 10))
+                .extracting(UserResponse::getUsername).containsExactly("ivan", "ivana");
+        assertThat(userRepository.searchUsers("iv_", null, null, null, 0L, 10))
+                .extracting(UserResponse::getUsername).containsExactly("iv_x");
+    }
+
+    @Test
+    void testSearchUsersByEmailDomainAndBirthdayRange() {
+        entityManager.persist(new User("ivan", "ivan@test.com", LocalDate.parse("2018-01-01")));
+        entityManager.persist(new User("ivan2", "ivan2@test.com", LocalDate.parse("2019-01-01")));
+        entityManager.persist(new User("ivan3", "ivan3@other.com", LocalDate.parse("2018-06-01")));
+        entityManager.persist(new User("ivan4", "ivan4@test.com", null));
+        entityManager.flush();
+
+        assertThat(userRepository.searchUsers(null, "test.com", null, null, 0L, 10))
+                .extracting(UserResponse::getUsername).containsExactly("ivan", "ivan2", "ivan4");
+        assertThat(userRepository.searchUsers(null, "test.com", LocalDate.parse("2018-01-01"), LocalDate.parse("2018-12-31"), 0L, 10))
+                .extracting(UserResponse::getUsername).containsExactly("ivan");
+        assertThat(userRepository.searchUsers(null, null, LocalDate.parse("2018-06-01"), null, 0L, 10))
+                .extracting(UserResponse::getUsername).containsExactly("ivan2", "ivan3");
+    }
+
+    @Test
+    void testSearchUsersIsKeysetPaginated() {
+        User user1 = entityManager.persist(new User("ivan1", "ivan1@test", LocalDate.parse("2018-01-01")));
+        User user2 = entityManager.persist(new User("ivan2", "ivan2@test", LocalDate.parse("2018-01-01")));
+        User user3 = entityManager.persist(new User("ivan3", "ivan3@test", LocalDate.parse("2018-01-01")));
+        entityManager.flush();
+
+        List<UserResponse> firstPage = userRepository.searchUsers("ivan", null, null, null, 0L, 2);
+        List<UserResponse> secondPage = userRepository.searchUsers("ivan", null, null, null, user2.getId(), 2);
+
+        assertThat(firstPage).extracting(UserResponse::getId).containsExactly(user1.getId(), user2.getId());
+        assertThat(secondPage).containsExactly(new UserResponse(user3.getId(), "ivan3", "ivan3@test", LocalDate.parse("2018-01-01")));
+    }
+
     private User getDefaultUser() {
         return new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
     }
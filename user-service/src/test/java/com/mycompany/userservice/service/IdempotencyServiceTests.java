@@ -0,0 +1,199 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.IdempotentResponse;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.exception.IdempotencyKeyReusedException;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.repository.IdempotencyKeyRepository;
+import com.mycompany.userservice.repository.IdempotencyKeyRepository.Entry;
+import com.mycompany.userservice.repository.InMemoryIdempotencyKeyRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyServiceTests {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final IdempotencyKeyRepository idempotencyKeyRepository =
+            new InMemoryIdempotencyKeyRepository(Duration.ofHours(1), 100);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IdempotencyService idempotencyService = new IdempotencyService(idempotencyKeyRepository,
+            Jackson2ObjectMapperBuilder.json().build(), meterRegistry, Duration.ofHours(1));
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testExecuteReplaysResponseOfFirstRequest() {
+        AtomicInteger executions = new AtomicInteger();
+
+        IdempotentResponse first = idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+            executions.incrementAndGet();
+            return getResponse(1L);
+        });
+        IdempotentResponse retry = idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+            executions.incrementAndGet();
+            return getResponse(2L);
+        });
+
+        assertThat(retry).isEqualTo(first);
+        assertThat(executions).hasValue(1);
+        assertThat(meterRegistry.get(IdempotencyService.REQUESTS_COUNTER).tag("result", "replayed").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testExecuteWhenKeyIsReusedWithAnotherRequest() {
+        idempotencyService.execute("key", Map.of("username", "ivan"), () -> getResponse(1L));
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> idempotencyService.execute("key", Map.of("username", "ivan2"), () -> getResponse(2L)));
+    }
+
+    @Test
+    void testExecuteDoesNotKeepFailures() {
+        assertThrows(UserDataDuplicatedException.class, () -> idempotencyService.execute("key", Map.of("username", "ivan"),
+                () -> {
+                    throw new UserDataDuplicatedException();
+                }));
+
+        assertThat(idempotencyService.execute("key", Map.of("username", "ivan"), () -> getResponse(1L)))
+                .isEqualTo(getResponse(1L));
+    }
+
+    @Test
+    void testExecuteReplaysWhenAnotherInstanceCreatedTheUserMeanwhile() {
+        IdempotentResponse response = idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+            // Saved by the other instance while this one tries to create the same user
+            idempotencyKeyRepository.save("key", new Entry(hashOfOtherInstanceRequest(), getResponse(1L)));
+            throw new UserDataDuplicatedException();
+        });
+
+        assertThat(response).isEqualTo(getResponse(1L));
+    }
+
+    @Test
+    void testExecuteReplaysUserCreatedByAttemptThatStoppedBeforeSavingResponse() {
+        // Reserved by an attempt that created the user and stopped before saving its response
+        idempotencyKeyRepository.reserve("key", hashOfOtherInstanceRequest());
+
+        IdempotentResponse response = idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+            throw new UserDataDuplicatedException();
+        }, () -> Optional.of(getResponse(1L)));
+
+        assertThat(response).isEqualTo(getResponse(1L));
+        assertThat(idempotencyKeyRepository.findByKey("key")).map(Entry::getResponse).contains(getResponse(1L));
+        assertThat(meterRegistry.get(IdempotencyService.REQUESTS_COUNTER).tag("result", "replayed").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testExecuteDoesNotReplayUserCreatedBeforeKeyWasReserved() {
+        assertThrows(UserDataDuplicatedException.class, () -> idempotencyService.execute("key", Map.of("username", "ivan"),
+                () -> {
+                    throw new UserDataDuplicatedException();
+                }, () -> Optional.of(getResponse(1L))));
+
+        assertThat(idempotencyKeyRepository.findByKey("key")).isEmpty();
+    }
+
+    @Test
+    void testExecuteCoalescesConcurrentRequestsWithSameKey() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+
+        CompletableFuture<IdempotentResponse> first = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+                    executions.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return getResponse(1L);
+                }), executor);
+        started.await(5, TimeUnit.SECONDS);
+        List<CompletableFuture<IdempotentResponse>> retries = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() ->
+                        idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+                            executions.incrementAndGet();
+                            return getResponse(2L);
+                        }), executor))
+                .collect(Collectors.toList());
+        while (meterRegistry.get(IdempotencyService.REQUESTS_COUNTER).tag("result", "coalesced").counter().count() < 4) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(getResponse(1L));
+        for (CompletableFuture<IdempotentResponse> retry : retries) {
+            assertThat(retry.get(5, TimeUnit.SECONDS)).isEqualTo(getResponse(1L));
+        }
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void testExecuteSharesFailureWithCoalescedRequests() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<IdempotentResponse> first = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("key", Map.of("username", "ivan"), () -> {
+                    started.countDown();
+                    await(release);
+                    throw new UserDataDuplicatedException();
+                }), executor);
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<IdempotentResponse> retry = CompletableFuture.supplyAsync(() ->
+                idempotencyService.execute("key", Map.of("username", "ivan"), () -> getResponse(2L)), executor);
+        while (meterRegistry.get(IdempotencyService.REQUESTS_COUNTER).tag("result", "coalesced").counter().count() < 1) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(UserDataDuplicatedException.class);
+        assertThatThrownBy(() -> retry.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(UserDataDuplicatedException.class);
+    }
+
+    private String hashOfOtherInstanceRequest() {
+        // Same request, so the same hash: recorded through a throwaway service sharing the repository
+        IdempotencyKeyRepository other = new InMemoryIdempotencyKeyRepository(Duration.ofHours(1), 100);
+        new IdempotencyService(other, Jackson2ObjectMapperBuilder.json().build(), new SimpleMeterRegistry(), Duration.ofHours(1))
+                .execute("key", Map.of("username", "ivan"), () -> getResponse(1L));
+        return other.findByKey("key").orElseThrow().getRequestHash();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static IdempotentResponse getResponse(Long id) {
+        return new IdempotentResponse(new UserResponse(id, "ivan", "ivan@test", null), "\"" + id + "-0\"");
+    }
+}
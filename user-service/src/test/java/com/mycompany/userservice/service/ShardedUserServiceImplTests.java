@@ -0,0 +1,395 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.config.ConsistentHashRing;
+import com.mycompany.userservice.config.ShardRoutingDataSource;
+import com.mycompany.userservice.config.ShardingConfig;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import com.mycompany.userservice.repository.UserDirectoryRepository;
+import com.mycompany.userservice.repository.UserDirectoryRepository.Entry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+// An in-memory database stands for the directory and each of the shards, whose lock timeout leaves the concurrent
+// renames of a user time to wait for each other
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+@Import({ShardingConfig.class, ShardedUserServiceImpl.class, UserDirectoryRepository.class, UserChangeRepository.class,
+        UserCache.class, UserChangeForwarder.class, UserResharder.class, ShardedUserServiceImplTests.ExecutorConfig.class})
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:sharded-directory;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=sa",
+        "app.datasource.sharding.enabled=true",
+        "app.datasource.sharding.rebalance-on-startup=false",
+        "app.datasource.sharding.shards[0].name=shard-0",
+        "app.datasource.sharding.shards[0].url=jdbc:h2:mem:sharded-0;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "app.datasource.sharding.shards[0].username=sa",
+        "app.datasource.sharding.shards[0].password=sa",
+        "app.datasource.sharding.shards[1].name=shard-1",
+        "app.datasource.sharding.shards[1].url=jdbc:h2:mem:sharded-1;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "app.datasource.sharding.shards[1].username=sa",
+        "app.datasource.sharding.shards[1].password=sa"
+})
+class ShardedUserServiceImplTests {
+
+    private static final List<String> SHARDS = List.of("shard-0", "shard-1");
+
+    @Autowired
+    private ShardedUserServiceImpl userService;
+
+    @Autowired
+    private UserDirectoryRepository userDirectoryRepository;
+
+    @Autowired
+    private UserChangeForwarder userChangeForwarder;
+
+    @Autowired
+    private UserResharder userResharder;
+
+    @Autowired
+    private ConsistentHashRing consistentHashRing;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private UserDuplicateFilter userDuplicateFilter;
+
+    @MockBean
+    private UsernameIndex usernameIndex;
+
+    @TestConfiguration
+    static class ExecutorConfig {
+
+        @Bean
+        TaskExecutor taskExecutor() {
+            return new SyncTaskExecutor();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("delete from user_directory");
+        jdbcTemplate.update("delete from user_changes");
+        for (String shard : SHARDS) {
+            ShardRoutingDataSource.runOn(shard, () -> {
+                jdbcTemplate.update("delete from user_changes");
+                jdbcTemplate.update("delete from users");
+            });
+        }
+    }
+
+    @Test
+    void testSaveUserGoesToShardOfItsId() {
+        User user = userService.saveUser(new User("ivan", "ivan@test", LocalDate.parse("2018-01-01")));
+
+        String shard = consistentHashRing.shardFor(user.getId());
+        assertThat(userDirectoryRepository.findById(user.getId())).map(Entry::getShard).contains(shard);
+        assertThat(countUsers(shard)).isEqualTo(1);
+        assertThat(countUsers(otherShard(shard))).isZero();
+        assertThat(userService.validateAndGetUserById(user.getId()).getUsername()).isEqualTo("ivan");
+        assertThat(userService.validateAndGetUserByUsername("ivan").getId()).isEqualTo(user.getId());
+    }
+
+    @Test
+    void testSaveUserWithUsernameTakenOnAnyShard() {
+        saveUsers(10);
+
+        for (int i = 0; i < 10; i++) {
+            User user = new User("user" + i, "new" + i + "@test", null);
+            assertThrows(UserDataDuplicatedException.class, () -> userService.saveUser(user));
+        }
+        assertThat(countUsers("shard-0") + countUsers("shard-1")).isEqualTo(10);
+    }
+
+    @Test
+    void testSaveUsersSpreadsUsersAndSkipsDuplicates() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            users.add(new User("user" + i, "user" + i + "@test", null));
+        }
+        users.add(new User("user0", "other@test", null));
+
+        userService.saveUsers(users);
+
+        assertThat(users.get(20).getId()).isNull();
+        assertThat(countUsers("shard-0")).isPositive();
+        assertThat(countUsers("shard-1")).isPositive();
+        assertThat(countUsers("shard-0") + countUsers("shard-1")).isEqualTo(20);
+        for (User user : users.subList(0, 20)) {
+            assertThat(countUsers(consistentHashRing.shardFor(user.getId()), user.getId())).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testSaveUsersSkipsUserClashingOnItsShard() {
+        // Left without a directory entry on both shards, e.g. by a crash
+        insertUser("shard-0", 1_000_000L, "clash", "clash0@test");
+        insertUser("shard-1", 1_000_001L, "clash", "clash1@test");
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new User("user" + i, "user" + i + "@test", null));
+        }
+        users.add(new User("clash", "clash@test", null));
+
+        userService.saveUsers(users);
+
+        assertThat(users.get(10).getId()).isNull();
+        assertThat(userDirectoryRepository.findByUsernameIn(List.of("clash"))).isEmpty();
+        assertThat(users.subList(0, 10)).allSatisfy(user -> assertThat(user.getId()).isNotNull());
+        verify(usernameIndex, times(10)).add(any(User.class));
+    }
+
+    @Test
+    void testSaveUsersMakesUsersOfOtherShardsVisibleWhenOneFails() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            users.add(new User("user" + i, "user" + i + "@test", null));
+        }
+
+        ShardRoutingDataSource.runOn("shard-1", () -> jdbcTemplate.execute("alter table users rename to users_gone"));
+        try {
+            assertThrows(RuntimeException.class, () -> userService.saveUsers(users));
+        } finally {
+            ShardRoutingDataSource.runOn("shard-1", () -> jdbcTemplate.execute("alter table users_gone rename to users"));
+        }
+
+        List<User> saved = users.stream().filter(user -> user.getId() != null).collect(Collectors.toList());
+        assertThat(saved).isNotEmpty().hasSizeLessThan(20)
+                .allSatisfy(user -> assertThat(consistentHashRing.shardFor(user.getId())).isEqualTo("shard-0"));
+        assertThat(countUsers("shard-0")).isEqualTo(saved.size());
+        assertThat(userDirectoryRepository.findByUsernameIn(users.stream().map(User::getUsername)
+                .collect(Collectors.toList()))).hasSize(saved.size());
+        verify(usernameIndex, times(saved.size())).add(any(User.class));
+    }
+
+    @Test
+    void testGetUsersAndSearchMergeShardsById() {
+        List<User> users = saveUsers(10);
+        List<Long> ids = users.stream().map(User::getId).sorted().collect(Collectors.toList());
+
+        assertThat(userService.getUsers(0L, 4)).extracting(UserResponse::getId).containsExactlyElementsOf(ids.subList(0, 4));
+        assertThat(userService.getUsers(ids.get(3), 100)).extracting(UserResponse::getId)
+                .containsExactlyElementsOf(ids.subList(4, 10));
+        assertThat(userService.searchUsers("user", null, null, null, 0L, 100)).hasSize(10);
+
+        List<Long> streamed = new ArrayList<>();
+        userService.streamUsers(ids.get(0), user -> streamed.add(user.getId()));
+        assertThat(streamed).containsExactlyElementsOf(ids.subList(1, 10));
+    }
+
+    @Test
+    void testMultiGetsGoToEveryShard() {
+        List<User> users = saveUsers(10);
+        List<Long> ids = users.stream().map(User::getId).collect(Collectors.toList());
+
+        assertThat(userService.getUsersByIds(ids)).containsOnlyKeys(ids);
+        assertThat(userService.getUsersByUsernames(List.of("user0", "user9", "missing"))).containsOnlyKeys("user0", "user9");
+        assertThat(userService.getUsersByEmails(List.of("user1@test", "user2@test"))).containsOnlyKeys("user1@test", "user2@test");
+    }
+
+    @Test
+    void testUpdateUserClaimsNewUsername() {
+        List<User> users = saveUsers(2);
+        Long id = users.get(0).getId();
+
+        User taken = new User("user1", null, null);
+        assertThrows(UserDataDuplicatedException.class, () -> userService.updateUser(id, null, taken));
+        assertThrows(UserVersionMismatchException.class,
+                () -> userService.updateUser(id, 5L, new User("ivan", null, null)));
+        // The username claimed by the update that failed was given back
+        assertThat(userDirectoryRepository.findById(id)).map(Entry::getUsername).contains("user0");
+        userService.updateUser(id, 0L, new User("ivan", null, LocalDate.parse("2018-01-01")));
+
+        User user = userService.validateAndGetUserById(id);
+        assertThat(user.getUsername()).isEqualTo("ivan");
+        assertThat(user.getVersion()).isEqualTo(1);
+        assertThat(userDirectoryRepository.findById(id)).map(Entry::getUsername).contains("ivan");
+    }
+
+    @Test
+    void testConcurrentRenamesLeaveDirectoryAndShardAgreeing() throws Exception {
+        Long id = saveUsers(1).get(0).getId();
+        String shard = consistentHashRing.shardFor(id);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> renames = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                User changes = new User("renamed" + i, "renamed" + i + "@test", null);
+                renames.add(executor.submit(() -> userService.updateUser(id, null, changes)));
+            }
+            for (Future<?> rename : renames) {
+                rename.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> row = ShardRoutingDataSource.callOn(shard,
+                () -> jdbcTemplate.queryForMap("select username, email from users where id = ?", id));
+        Entry entry = userDirectoryRepository.findById(id).orElseThrow();
+        assertThat(entry.getUsername()).isEqualTo(row.get("username"));
+        assertThat(entry.getEmail()).isEqualTo(row.get("email"));
+    }
+
+    @Test
+    void testDeleteUserByIdReleasesUsername() {
+        Long id = saveUsers(1).get(0).getId();
+
+        userService.deleteUserById(id, null);
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserById(id));
+        assertThrows(UserNotFoundException.class, () -> userService.deleteUserById(id, null));
+        assertThat(userService.saveUser(new User("user0", "user0@test", null)).getId()).isNotEqualTo(id);
+    }
+
+    @Test
+    void testMovedUserIsFoundAndChangedOnItsNewShard() {
+        Long id = saveUsers(1).get(0).getId();
+        String from = consistentHashRing.shardFor(id);
+        String to = otherShard(from);
+
+        assertThat(userResharder.move(id, from, to)).isTrue();
+        assertThat(userResharder.move(id, from, to)).isFalse();
+
+        assertThat(countUsers(from)).isZero();
+        assertThat(countUsers(to, id)).isEqualTo(1);
+        assertThat(userService.getUsersByIds(List.of(id))).containsOnlyKeys(id);
+        userService.updateUser(id, 0L, new User(null, "moved@test", null));
+        assertThat(userService.validateAndGetUserById(id).getEmail()).isEqualTo("moved@test");
+    }
+
+    @Test
+    void testRebalanceMovesUsersBackToTheirShards() {
+        List<User> users = saveUsers(4);
+        for (User user : users) {
+            String shard = consistentHashRing.shardFor(user.getId());
+            userResharder.move(user.getId(), shard, otherShard(shard));
+        }
+
+        assertThat(userResharder.rebalance()).isEqualTo(4);
+        assertThat(userResharder.rebalance()).isZero();
+        for (User user : users) {
+            assertThat(countUsers(consistentHashRing.shardFor(user.getId()), user.getId())).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testMoveReplacesCopyLeftByMoveThatDidNotFinish() {
+        Long id = saveUsers(1).get(0).getId();
+        String from = consistentHashRing.shardFor(id);
+        String to = otherShard(from);
+        insertUser(to, id, "stale", "stale@test");
+
+        assertThat(userResharder.move(id, from, to)).isTrue();
+
+        assertThat(countUsers(from)).isZero();
+        assertThat(ShardRoutingDataSource.callOn(to,
+                () -> jdbcTemplate.queryForObject("select username from users where id = ?", String.class, id)))
+                .isEqualTo("user0");
+    }
+
+    @Test
+    void testRebalanceMovesOtherUsersWhenOneCannotBeMoved() {
+        List<User> users = saveUsers(4);
+        for (User user : users) {
+            String shard = consistentHashRing.shardFor(user.getId());
+            userResharder.move(user.getId(), shard, otherShard(shard));
+        }
+        // The username of the first user is taken on its shard, so it can't be copied back there
+        User stuck = users.get(0);
+        insertUser(consistentHashRing.shardFor(stuck.getId()), 1_000_000L, stuck.getUsername(), "other@test");
+
+        assertThat(userResharder.rebalance()).isEqualTo(3);
+        assertThat(countUsers(otherShard(consistentHashRing.shardFor(stuck.getId())), stuck.getId())).isEqualTo(1);
+        for (User user : users.subList(1, 4)) {
+            assertThat(countUsers(consistentHashRing.shardFor(user.getId()), user.getId())).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testForwarderMovesShardChangesToDirectoryOutbox() {
+        saveUsers(6);
+        userService.deleteUserById(userService.validateAndGetUserByUsername("user0").getId(), null);
+
+        assertThat(userChangeForwarder.forwardAll()).isEqualTo(7);
+        assertThat(userChangeForwarder.forwardAll()).isZero();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from user_changes", Integer.class)).isEqualTo(7);
+        for (String shard : SHARDS) {
+            assertThat(ShardRoutingDataSource.callOn(shard,
+                    () -> jdbcTemplate.queryForObject("select count(*) from user_changes", Integer.class))).isZero();
+        }
+    }
+
+    private List<User> saveUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(userService.saveUser(new User("user" + i, "user" + i + "@test", null)));
+        }
+        return users;
+    }
+
+    private void insertUser(String shard, Long id, String username, String email) {
+        Timestamp now = Timestamp.from(Instant.now());
+        ShardRoutingDataSource.runOn(shard, () -> jdbcTemplate.update("insert into users " +
+                        "(id, username, email, created_on, updated_on, version) values (?, ?, ?, ?, ?, 0)",
+                id, username, email, now, now));
+    }
+
+    private int countUsers(String shard) {
+        return ShardRoutingDataSource.callOn(shard,
+                () -> jdbcTemplate.queryForObject("select count(*) from users", Integer.class));
+    }
+
+    private int countUsers(String shard, Long id) {
+        return ShardRoutingDataSource.callOn(shard,
+                () -> jdbcTemplate.queryForObject("select count(*) from users where id = ?", Integer.class, id));
+    }
+
+    private static String otherShard(String shard) {
+        return shard.equals("shard-0") ? "shard-1" : "shard-0";
+    }
+}
@@ -0,0 +1,127 @@
+package com.mycompany.userservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTests {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentCallsForSameKeyShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+
+        List<CompletableFuture<String>> calls = IntStream.range(0, 8)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> singleFlight.execute("ivan", key -> {
+                    executions.incrementAndGet();
+                    await(release);
+                    return key + "-" + i;
+                }), executor))
+                .collect(Collectors.toList());
+        awaitSharedCalls(7);
+        release.countDown();
+
+        List<String> results = calls.stream().map(CompletableFuture::join).distinct().collect(Collectors.toList());
+        assertThat(results).hasSize(1);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void testConcurrentCallsForSameKeyShareException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<CompletableFuture<String>> calls = IntStream.range(0, 3)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> singleFlight.execute("ivan", key -> {
+                    await(release);
+                    throw new IllegalStateException("failed");
+                }), executor))
+                .collect(Collectors.toList());
+        awaitSharedCalls(2);
+        release.countDown();
+
+        for (CompletableFuture<String> call : calls) {
+            assertThatThrownBy(() -> call.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void testCallAfterForgetAllDoesNotJoinCallInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> singleFlight.execute("ivan", key -> {
+            started.countDown();
+            await(release);
+            return "before";
+        }), executor);
+        started.await(5, TimeUnit.SECONDS);
+
+        singleFlight.forgetAll();
+
+        assertThat(singleFlight.execute("ivan", key -> "after")).isEqualTo("after");
+        release.countDown();
+        assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("before");
+        assertThat(singleFlight.getSharedCalls()).isZero();
+    }
+
+    @Test
+    void testCallsForDifferentKeysDoNotWaitForEachOther() {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> blocked = CompletableFuture.supplyAsync(() -> singleFlight.execute("ivan", key -> {
+            await(release);
+            return key;
+        }), executor);
+
+        assertThat(singleFlight.execute("ivan2", key -> key)).isEqualTo("ivan2");
+
+        release.countDown();
+        assertThat(blocked.join()).isEqualTo("ivan");
+        assertThat(singleFlight.getSharedCalls()).isZero();
+    }
+
+    @Test
+    void testCallAfterCompletionRunsAgain() {
+        AtomicInteger executions = new AtomicInteger();
+
+        singleFlight.execute("ivan", key -> key + executions.incrementAndGet());
+        String result = singleFlight.execute("ivan", key -> key + executions.incrementAndGet());
+
+        assertThat(result).isEqualTo("ivan2");
+    }
+
+    private void awaitSharedCalls(long sharedCalls) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getSharedCalls() < sharedCalls && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class TimedUserServiceTests {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UserService target = mock(UserService.class);
+    private final UserService userService = new TimedUserService(target, meterRegistry);
+
+    @Test
+    void testMethodsAreTimed() {
+        given(target.validateAndGetUserById(anyLong())).willReturn(new User());
+
+        userService.validateAndGetUserById(1L);
+        userService.validateAndGetUserById(2L);
+        userService.deleteUserById(1L, null);
+
+        assertThat(timer("validateAndGetUserById", "none").count()).isEqualTo(2);
+        assertThat(timer("deleteUserById", "none").count()).isEqualTo(1);
+        assertThat(timer("saveUser", "none").count()).isZero();
+    }
+
+    @Test
+    void testExceptionsAreTimedSeparately() {
+        given(target.validateAndGetUserById(anyLong())).willThrow(new UserNotFoundException("User with id '1' doesn't exist."));
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserById(1L));
+
+        assertThat(timer("validateAndGetUserById", "UserNotFoundException").count()).isEqualTo(1);
+        assertThat(timer("validateAndGetUserById", "none").count()).isZero();
+    }
+
+    private Timer timer(String method, String exception) {
+        return meterRegistry.get(TimedUserService.USER_SERVICE_TIMER)
+                .tag("method", method)
+                .tag("exception", exception)
+                .timer();
+    }
+}
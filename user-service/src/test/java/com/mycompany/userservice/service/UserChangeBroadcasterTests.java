@@ -0,0 +1,138 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class UserChangeBroadcasterTests {
+
+    private final UserChangeRepository userChangeRepository = mock(UserChangeRepository.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private UserChangeBroadcaster userChangeBroadcaster;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        userChangeBroadcaster = new UserChangeBroadcaster(userChangeRepository, Jackson2ObjectMapperBuilder.json().build(),
+                meterRegistry, 3, Duration.ofMinutes(1), 2);
+        mockMvc = MockMvcBuilders.standaloneSetup(new SubscribeController(userChangeBroadcaster)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        userChangeBroadcaster.destroy();
+    }
+
+    @Test
+    void testSubscribePushesPublishedChanges() throws Exception {
+        MvcResult mvcResult = subscribe(null);
+
+        userChangeBroadcaster.publish(List.of(getChange(1, Operation.CREATED), getChange(2, Operation.DELETED)));
+
+        String content = awaitContent(mvcResult, "id:2");
+        assertThat(content).contains("id:1\nevent:CREATED\ndata:{\"sequenceNumber\":1,\"operation\":\"CREATED\"");
+        assertThat(content).contains("id:2\nevent:DELETED\ndata:");
+        assertThat(content).contains("\"user\":{\"id\":1,\"username\":\"ivan\",\"email\":\"ivan@test\",\"birthday\":\"2018-01-01\"}");
+        assertThat(meterRegistry.get(UserChangeBroadcaster.SUBSCRIBERS_GAUGE).gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void testSubscribeSinceSendsBacklogWithoutDuplicates() throws Exception {
+        given(userChangeRepository.findChangesAfter(5, 4))
+                .willReturn(List.of(getChange(6, Operation.UPDATED), getChange(7, Operation.UPDATED)));
+
+        MvcResult mvcResult = subscribe(5L);
+        userChangeBroadcaster.publish(List.of(getChange(7, Operation.UPDATED), getChange(8, Operation.DELETED)));
+
+        String content = awaitContent(mvcResult, "id:8");
+        assertThat(eventIds(content)).containsExactly("6", "7", "8");
+    }
+
+    @Test
+    void testSlowSubscriberIsResyncedAndDisconnected() throws Exception {
+        given(userChangeRepository.findChangesAfter(0, 4)).willReturn(LongStream.rangeClosed(1, 4)
+                .mapToObj(sequenceNumber -> getChange(sequenceNumber, Operation.CREATED))
+                .collect(Collectors.toList()));
+
+        MvcResult mvcResult = subscribe(0L);
+
+        String content = awaitContent(mvcResult, "event:resync");
+        assertThat(eventIds(content)).containsExactly("1", "2", "3");
+        assertThat(content).contains("event:resync\ndata:{\"since\":3}");
+        assertThat(meterRegistry.get(UserChangeBroadcaster.RESYNCS_COUNTER).counter().count()).isEqualTo(1);
+        assertThat(userChangeBroadcaster.getSubscriberCount()).isZero();
+    }
+
+    private MvcResult subscribe(Long since) throws Exception {
+        return mockMvc.perform(since == null ? get("/changes") : get("/changes").param("since", since.toString()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    private static String awaitContent(MvcResult mvcResult, String expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String content = mvcResult.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            content = mvcResult.getResponse().getContentAsString();
+        }
+        return content;
+    }
+
+    private static List<String> eventIds(String content) {
+        return content.lines()
+                .filter(line -> line.startsWith("id:"))
+                .map(line -> line.substring(3))
+                .collect(Collectors.toList());
+    }
+
+    private static UserChangeEvent getChange(long sequenceNumber, Operation operation) {
+        return new UserChangeEvent(sequenceNumber, operation,
+                new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01")), 0, ZonedDateTime.now());
+    }
+
+    @RestController
+    static class SubscribeController {
+
+        private final UserChangeBroadcaster userChangeBroadcaster;
+
+        SubscribeController(UserChangeBroadcaster userChangeBroadcaster) {
+            this.userChangeBroadcaster = userChangeBroadcaster;
+        }
+
+        @GetMapping("/changes")
+        SseEmitter subscribe(@RequestParam(required = false) Long since) {
+            return userChangeBroadcaster.subscribe(since);
+        }
+    }
+}
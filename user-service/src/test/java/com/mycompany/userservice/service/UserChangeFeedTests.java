@@ -0,0 +1,61 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class UserChangeFeedTests {
+
+    private final UserChangeRepository userChangeRepository = mock(UserChangeRepository.class);
+    private final UserChangeFeed userChangeFeed = new UserChangeFeed(userChangeRepository);
+
+    @Test
+    void testGetChangesWhenThereAreSome() {
+        List<UserChangeEvent> changes = List.of(getChange(4));
+        given(userChangeRepository.findChangesAfter(3, 10)).willReturn(changes);
+
+        DeferredResult<List<UserChangeEvent>> result = userChangeFeed.getChanges(3, 10, Duration.ofSeconds(30));
+
+        assertThat(result.getResult()).isEqualTo(changes);
+    }
+
+    @Test
+    void testGetChangesWithoutWaiting() {
+        given(userChangeRepository.findChangesAfter(anyLong(), anyInt())).willReturn(Collections.emptyList());
+
+        DeferredResult<List<UserChangeEvent>> result = userChangeFeed.getChanges(3, 10, Duration.ZERO);
+
+        assertThat(result.getResult()).isEqualTo(Collections.emptyList());
+    }
+
+    @Test
+    void testGetChangesWaitsForPublishedChanges() {
+        given(userChangeRepository.findChangesAfter(anyLong(), anyInt())).willReturn(Collections.emptyList());
+
+        DeferredResult<List<UserChangeEvent>> result = userChangeFeed.getChanges(4, 1, Duration.ofSeconds(30));
+        assertThat(result.hasResult()).isFalse();
+
+        userChangeFeed.publish(List.of(getChange(4), getChange(5), getChange(6)));
+
+        assertThat(result.getResult()).asList().extracting("sequenceNumber").containsExactly(5L);
+    }
+
+    private static UserChangeEvent getChange(long sequenceNumber) {
+        return new UserChangeEvent(sequenceNumber, Operation.UPDATED, new UserResponse(1L, "ivan", "ivan@test", null),
+                sequenceNumber, ZonedDateTime.now());
+    }
+}
@@ -0,0 +1,79 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserChangeEvent;
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.repository.UserChangeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+
+class UserChangeRelayTests {
+
+    private final UserChangeRepository userChangeRepository = mock(UserChangeRepository.class);
+    private final UserChangeSink userChangeSink = mock(UserChangeSink.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    private UserChangeRelay userChangeRelay;
+
+    @BeforeEach
+    void setUp() {
+        given(transactionManager.getTransaction(any())).willReturn(new SimpleTransactionStatus());
+        userChangeRelay = new UserChangeRelay(userChangeRepository, List.of(userChangeSink),
+                new TransactionTemplate(transactionManager), 2, Duration.ofDays(7));
+    }
+
+    @Test
+    void testRelayPublishesBatchesUntilOneIsNotFull() {
+        List<UserChangeEvent> firstBatch = List.of(getChange(1), getChange(2));
+        List<UserChangeEvent> secondBatch = List.of(getChange(3));
+        given(userChangeRepository.numberNextChanges(2)).willReturn(firstBatch, secondBatch);
+
+        assertThat(userChangeRelay.relay()).isEqualTo(3);
+
+        then(userChangeSink).should().publish(firstBatch);
+        then(userChangeSink).should().publish(secondBatch);
+    }
+
+    @Test
+    void testRelayWhenThereAreNoChanges() {
+        given(userChangeRepository.numberNextChanges(2)).willReturn(Collections.emptyList());
+
+        assertThat(userChangeRelay.relay()).isZero();
+
+        then(userChangeSink).should(never()).publish(anyList());
+    }
+
+    @Test
+    void testRelayRollsBackWhenSinkFails() {
+        given(userChangeRepository.numberNextChanges(2)).willReturn(List.of(getChange(1)));
+        willThrow(IllegalStateException.class).given(userChangeSink).publish(anyList());
+
+        assertThrows(IllegalStateException.class, () -> userChangeRelay.relay());
+
+        then(transactionManager).should().rollback(any());
+        then(transactionManager).should(never()).commit(any());
+    }
+
+    private static UserChangeEvent getChange(long sequenceNumber) {
+        return new UserChangeEvent(sequenceNumber, Operation.CREATED, new UserResponse(sequenceNumber, "ivan", "ivan@test", null),
+                0, ZonedDateTime.now());
+    }
+}
@@ -0,0 +1,77 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+class UserDuplicateFilterTests {
+
+    private UserRepository userRepository;
+    private UserDuplicateFilter userDuplicateFilter;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        userDuplicateFilter = new UserDuplicateFilter(userRepository, new SyncTaskExecutor(), 1000, 0.01, 2);
+    }
+
+    @Test
+    void testMightBeTakenBeforeWarmUp() {
+        assertThat(userDuplicateFilter.mightBeTaken("ivan", "ivan@test")).isTrue();
+    }
+
+    @Test
+    void testMightBeTakenAfterWarmUp() {
+        willAnswer(invocation -> {
+            invocation.<Consumer<User>>getArgument(0).accept(getDefaultUser());
+            return null;
+        }).given(userRepository).forEachUser(any());
+
+        userDuplicateFilter.warmUp();
+
+        assertThat(userDuplicateFilter.mightBeTaken("ivan", "ivan2@test")).isTrue();
+        assertThat(userDuplicateFilter.mightBeTaken("IVAN", "ivan2@test")).isTrue();
+        assertThat(userDuplicateFilter.mightBeTaken("ivan2", "ivan@test")).isTrue();
+        assertThat(userDuplicateFilter.mightBeTaken("ivan2", "ivan2@test")).isFalse();
+    }
+
+    @Test
+    void testAdd() {
+        userDuplicateFilter.warmUp();
+
+        userDuplicateFilter.add(getDefaultUser());
+
+        assertThat(userDuplicateFilter.mightBeTaken("ivan", "ivan2@test")).isTrue();
+    }
+
+    @Test
+    void testRemoveRebuildsOnceThresholdIsReached() {
+        userDuplicateFilter.warmUp();
+        userDuplicateFilter.add(getDefaultUser());
+
+        userDuplicateFilter.remove(getDefaultUser());
+        assertThat(userDuplicateFilter.mightBeTaken("ivan", "ivan@test")).isTrue();
+
+        userDuplicateFilter.remove(getDefaultUser());
+        assertThat(userDuplicateFilter.mightBeTaken("ivan", "ivan@test")).isFalse();
+        then(userRepository).should(times(2)).forEachUser(any());
+    }
+
+    private User getDefaultUser() {
+        User user = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        user.setId(1L);
+        return user;
+    }
+}
@@ -0,0 +1,177 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UserImportResponse;
+import com.mycompany.userservice.dto.UserImportResponse.Status;
+import com.mycompany.userservice.exception.UserImportFormatException;
+import com.mycompany.userservice.mapper.UserMapperImpl;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.service.UserImporter.Format;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+class UserImporterTests {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<List<String>> savedBatches = new ArrayList<>();
+
+    private UserImporter userImporter;
+
+    @BeforeEach
+    void setUp() {
+        UserService userService = mock(UserService.class);
+        AtomicLong ids = new AtomicLong();
+        // Saves every user but the ones named "taken", the way saveUsers leaves duplicates without an id
+        willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            savedBatches.add(users.stream().map(User::getUsername).collect(Collectors.toList()));
+            users.stream().filter(user -> !user.getUsername().equals("taken")).forEach(user -> user.setId(ids.incrementAndGet()));
+            return users;
+        }).given(userService).saveUsers(anyList());
+
+        userImporter = new UserImporter(userService, new UserMapperImpl(),
+                Validation.buildDefaultValidatorFactory().getValidator(), Jackson2ObjectMapperBuilder.json().build(),
+                meterRegistry, 2, 1, 10, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        userImporter.destroy();
+    }
+
+    @Test
+    void testImportUsersFromCsv() throws IOException {
+        String csv = "id,email,username,birthday\r\n" +
+                "7,ivan@test,ivan,2018-01-01\r\n" +
+                "\r\n" +
+                "8,\"ivan2@test\",\"iv,an\"\"2\",\r\n" +
+                "9,ivan3@test,taken,2018-03-03\r\n" +
+                "10,not-an-email,ivan4,2018-04-04\r\n" +
+                "11,ivan5@test,ivan5,04/05/2018\r\n" +
+                "12,ivan6@test,ivan6,2018-06-06";
+
+        UserImportResponse response = userImporter.importUsers(toInputStream(csv), Format.CSV);
+
+        assertThat(response.getStatus()).isEqualTo(Status.COMPLETED);
+        assertThat(response.getRead()).isEqualTo(6);
+        assertThat(response.getCreated()).isEqualTo(3);
+        assertThat(response.getDuplicated()).isEqualTo(1);
+        assertThat(response.getInvalid()).isEqualTo(2);
+        assertThat(response.getFinishedOn()).isNotNull();
+        assertThat(response.getErrors()).containsExactly(
+                new UserImportResponse.Error(3, "UserDataDuplicated", "The username and/or email informed already exists."),
+                new UserImportResponse.Error(4, "BadRequest", "email: must be a well-formed email address"),
+                new UserImportResponse.Error(5, "BadRequest", "birthday: must be a date formatted as yyyy-MM-dd"));
+        assertThat(savedBatches).containsExactly(List.of("ivan", "iv,an\"2"), List.of("taken"), List.of("ivan6"));
+        assertThat(meterRegistry.get(UserImporter.ROWS_COUNTER).tag("result", "created").counter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get(UserImporter.ROWS_COUNTER).tag("result", "invalid").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void testImportUsersFromNdjson() throws IOException {
+        String ndjson = "{\"username\":\"ivan\",\"email\":\"ivan@test\",\"birthday\":\"2018-01-01\"}\n" +
+                "{\"username\":\"ivan2\",\n" +
+                "\n" +
+                "{\"id\":3,\"username\":\"\",\"email\":\"ivan3@test\"}\n" +
+                "{\"username\":\"ivan4\",\"email\":\"ivan4@test\",\"birthday\":\"2999-01-01\"}\n";
+
+        UserImportResponse response = userImporter.importUsers(toInputStream(ndjson), Format.NDJSON);
+
+        assertThat(response.getRead()).isEqualTo(4);
+        assertThat(response.getCreated()).isEqualTo(1);
+        assertThat(response.getInvalid()).isEqualTo(3);
+        assertThat(response.getErrors()).extracting(UserImportResponse.Error::getRow).containsExactly(2L, 3L, 4L);
+        assertThat(response.getErrors().get(1).getMessage()).isEqualTo("username: must not be blank");
+        assertThat(response.getErrors().get(2).getMessage()).isEqualTo("birthday: must be a past date");
+    }
+
+    @Test
+    void testImportUsersFromNdjsonWithNullLine() throws IOException {
+        String ndjson = "null\n" +
+                "{\"username\":\"ivan\",\"email\":\"ivan@test\"}\n";
+
+        UserImportResponse response = userImporter.importUsers(toInputStream(ndjson), Format.NDJSON);
+
+        assertThat(response.getStatus()).isEqualTo(Status.COMPLETED);
+        assertThat(response.getCreated()).isEqualTo(1);
+        assertThat(response.getInvalid()).isEqualTo(1);
+        assertThat(response.getErrors()).containsExactly(
+                new UserImportResponse.Error(1, "BadRequest", "a user object is expected"));
+    }
+
+    @Test
+    void testImportUsersWithTooLongUsername() throws IOException {
+        String csv = "username,email\n" +
+                "a".repeat(256) + ",ivan@test\n" +
+                "a".repeat(255) + ",ivan2@test\n";
+
+        UserImportResponse response = userImporter.importUsers(toInputStream(csv), Format.CSV);
+
+        assertThat(response.getCreated()).isEqualTo(1);
+        assertThat(response.getDuplicated()).isZero();
+        assertThat(response.getErrors()).containsExactly(
+                new UserImportResponse.Error(1, "BadRequest", "username: size must be between 0 and 255"));
+    }
+
+    @Test
+    void testImportUsersFromCsvWithoutUsernameColumn() {
+        InputStream inputStream = toInputStream("email,birthday\nivan@test,2018-01-01\n");
+
+        assertThrows(UserImportFormatException.class, () -> userImporter.importUsers(inputStream, Format.CSV));
+
+        List<UserImportResponse> imports = userImporter.getImports();
+        assertThat(imports).hasSize(1);
+        assertThat(imports.get(0).getStatus()).isEqualTo(Status.FAILED);
+    }
+
+    @Test
+    void testGetImport() throws IOException {
+        UserImportResponse response = userImporter.importUsers(
+                toInputStream("username,email\nivan,ivan@test\ntaken,taken@test\n"), Format.CSV);
+
+        assertThat(userImporter.getImport(response.getId())).contains(response);
+        assertThat(userImporter.getImport("unknown")).isEmpty();
+        assertThat(userImporter.getImports()).singleElement()
+                .satisfies(summary -> {
+                    assertThat(summary.getCreated()).isEqualTo(1);
+                    assertThat(summary.getErrors()).isNull();
+                });
+    }
+
+    @Test
+    void testImportUsersReportsAtMostMaxReportedErrors() throws IOException {
+        StringBuilder csv = new StringBuilder("username,email\n");
+        for (int i = 0; i < 15; i++) {
+            csv.append("taken,ivan").append(i).append("@test\n");
+        }
+
+        UserImportResponse response = userImporter.importUsers(toInputStream(csv.toString()), Format.CSV);
+
+        assertThat(response.getDuplicated()).isEqualTo(15);
+        assertThat(response.getErrors()).hasSize(10);
+    }
+
+    private static InputStream toInputStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
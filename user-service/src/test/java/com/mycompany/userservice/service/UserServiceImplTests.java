@@ -1,62 +1,217 @@
 package com.mycompany.userservice.service;
 
+import com.mycompany.userservice.dto.UserChangeEvent.Operation;
+import com.mycompany.userservice.dto.UserResponse;
+import com.mycompany.userservice.exception.UserDataDuplicatedException;
 import com.mycompany.userservice.exception.UserNotFoundException;
+import com.mycompany.userservice.exception.UserVersionMismatchException;
 import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserChangeRepository;
 import com.mycompany.userservice.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 
 @ExtendWith(SpringExtension.class)
-@Import(UserServiceImpl.class)
+@Import({UserServiceImpl.class, UserCache.class, UserServiceImplTests.TransactionConfig.class})
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
 class UserServiceImplTests {
 
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserCache userCache;
+
     @MockBean
     private UserRepository userRepository;
 
+    @MockBean
+    private UserChangeRepository userChangeRepository;
+
+    @MockBean
+    private UserDuplicateFilter userDuplicateFilter;
+
+    @MockBean
+    private UsernameIndex usernameIndex;
+
+    @TestConfiguration
+    static class TransactionConfig {
+
+        @Bean
+        TransactionTemplate transactionTemplate() {
+            PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+            given(transactionManager.getTransaction(any())).willReturn(new SimpleTransactionStatus());
+            return new TransactionTemplate(transactionManager);
+        }
+    }
+
     @Test
     void testSaveUser() {
         User user = getDefaultUser();
         given(userRepository.save(any(User.class))).willReturn(user);
 
+        User userSaved = userService.saveUser(user);
+        assertThat(userSaved).isEqualTo(user);
+        then(userChangeRepository).should().appendChanges(eq(Operation.UPDATED), eq(List.of(1L)), any());
+    }
+
+    @Test
+    void testSaveUserWhenFilterSaysFreeSkipsExistenceCheck() {
+        User user = getDefaultUser();
+        given(userRepository.save(any(User.class))).willReturn(user);
+
+        userService.saveUser(user);
+
+        then(userRepository).should(never()).existsOtherUserWithUsernameOrEmail(any(), anyString(), anyString());
+        then(userDuplicateFilter).should().add(user);
+        then(usernameIndex).should().add(user);
+    }
+
+    @Test
+    void testSaveUserWhenFilterSaysMaybeTakenAndItIs() {
+        User user = getDefaultUser();
+        given(userDuplicateFilter.mightBeTaken(anyString(), anyString())).willReturn(true);
+        given(userRepository.existsOtherUserWithUsernameOrEmail(user.getId(), user.getUsername(), user.getEmail()))
+                .willReturn(true);
+
+        assertThrows(UserDataDuplicatedException.class, () -> userService.saveUser(user));
+        then(userRepository).should(never()).save(any(User.class));
+    }
+
+    @Test
+    void testSaveUserWhenFilterSaysMaybeTakenButItIsNot() {
+        User user = getDefaultUser();
+        given(userDuplicateFilter.mightBeTaken(anyString(), anyString())).willReturn(true);
+        given(userRepository.save(any(User.class))).willReturn(user);
+
         User userSaved = userService.saveUser(user);
         assertThat(userSaved).isEqualTo(user);
     }
 
+    @Test
+    void testSaveUserWhenDatabaseRejectsDuplicate() {
+        User user = getDefaultUser();
+        given(userRepository.save(any(User.class))).willThrow(new DataIntegrityViolationException("UK_username"));
+
+        assertThrows(UserDataDuplicatedException.class, () -> userService.saveUser(user));
+        then(userChangeRepository).should(never()).appendChanges(any(), anyCollection(), any());
+    }
+
+    @Test
+    void testSaveUsersSkipsDuplicates() {
+        User existing = getDefaultUser();
+        User user1 = new User("ivan", "ivan2@test", LocalDate.parse("2018-01-01"));
+        User user2 = new User("ivan2", "ivan2@test", LocalDate.parse("2018-01-01"));
+        User user3 = new User("ivan2", "ivan3@test", LocalDate.parse("2018-01-01"));
+        User user4 = new User("ivan4", "ivan4@test", LocalDate.parse("2018-01-01"));
+
+        given(userDuplicateFilter.mightBeTaken(anyString(), anyString())).willReturn(true);
+        given(userRepository.findByUsernameInOrEmailIn(anyCollection(), anyCollection()))
+                .willReturn(Collections.singletonList(existing));
+        willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            users.forEach(user -> user.setId((long) user.getUsername().hashCode()));
+            return null;
+        }).given(userRepository).insertAll(anyList());
+
+        List<User> usersSaved = userService.saveUsers(Arrays.asList(user1, user2, user3, user4));
+
+        assertThat(usersSaved).containsExactly(user1, user2, user3, user4);
+        assertThat(user1.getId()).isNull();
+        assertThat(user2.getId()).isNotNull();
+        assertThat(user3.getId()).isNull();
+        assertThat(user4.getId()).isNotNull();
+        then(userRepository).should(times(1)).insertAll(Arrays.asList(user2, user4));
+        then(userChangeRepository).should()
+                .appendChanges(eq(Operation.CREATED), eq(List.of(user2.getId(), user4.getId())), any());
+    }
+
+    @Test
+    void testSaveUsersFallsBackToOneByOneWhenBatchFails() {
+        User user1 = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        User user2 = new User("ivan2", "ivan2@test", LocalDate.parse("2018-01-01"));
+
+        given(userRepository.findByUsernameInOrEmailIn(anyCollection(), anyCollection()))
+                .willReturn(Collections.emptyList());
+        willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            if (users.contains(user1)) {
+                throw new DataIntegrityViolationException("UK_username");
+            }
+            users.forEach(user -> user.setId(2L));
+            return null;
+        }).given(userRepository).insertAll(anyList());
+
+        userService.saveUsers(Arrays.asList(user1, user2));
+
+        assertThat(user1.getId()).isNull();
+        assertThat(user2.getId()).isEqualTo(2L);
+    }
+
     @Test
     void testGetUsersWhenThereIsNone() {
-        given(userRepository.findAll()).willReturn(Collections.emptyList());
+        given(userRepository.findUserResponsesByIdGreaterThan(anyLong(), any(Pageable.class))).willReturn(Collections.emptyList());
 
-        List<User> usersFound = userService.getUsers();
+        List<UserResponse> usersFound = userService.getUsers(0L, 10);
         assertThat(usersFound).isEmpty();
     }
 
     @Test
     void testGetUsersWhenThereIsOne() {
-        User user = getDefaultUser();
-        List<User> users = Collections.singletonList(user);
+        UserResponse user = new UserResponse(1L, "ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        List<UserResponse> users = Collections.singletonList(user);
 
-        given(userRepository.findAll()).willReturn(users);
+        given(userRepository.findUserResponsesByIdGreaterThan(anyLong(), any(Pageable.class))).willReturn(users);
 
-        List<User> usersFound = userService.getUsers();
+        List<UserResponse> usersFound = userService.getUsers(0L, 10);
         assertThat(usersFound).hasSize(1);
         assertThat(usersFound.get(0)).isEqualTo(user);
     }
@@ -97,6 +252,352 @@ class UserServiceImplTests {
         assertThat(exception.getMessage()).isEqualTo("User with username 'ivan' doesn't exist.");
     }
 
+    @Test
+    void testFindUserByUsernameWhenNonExisting() {
+        given(userRepository.findUserByUsername(anyString())).willReturn(Optional.empty());
+
+        assertThat(userService.findUserByUsername("ivan")).isEmpty();
+    }
+
+    @Test
+    void testMissingUsernameIsCached() {
+        given(userRepository.findUserByUsername(anyString())).willReturn(Optional.empty());
+
+        assertThat(userService.findUserByUsername("ivan")).isEmpty();
+        assertThat(userService.findUserByUsername("ivan")).isEmpty();
+
+        then(userRepository).should(times(1)).findUserByUsername("ivan");
+    }
+
+    @Test
+    void testSaveUserForgetsMissingUsername() {
+        User user = getDefaultUser();
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.empty());
+        assertThat(userService.findUserByUsername("ivan")).isEmpty();
+
+        given(userRepository.save(any(User.class))).willReturn(user);
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.of(user));
+        userService.saveUser(user);
+
+        assertThat(userService.findUserByUsername("ivan")).contains(user);
+    }
+
+    @Test
+    void testSaveUserForgetsMissingUsernameInAnotherCase() {
+        User user = new User("Ivan", "ivan@test", LocalDate.parse("2018-01-01"));
+        user.setId(1L);
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.empty());
+        assertThat(userService.findUserByUsername("ivan")).isEmpty();
+
+        given(userRepository.save(any(User.class))).willReturn(user);
+        // As the database compares usernames ignoring their case
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.of(user));
+        userService.saveUser(user);
+
+        assertThat(userService.findUserByUsername("ivan")).contains(user);
+        assertThat(userService.findUserByUsername("IVAN")).contains(user);
+        then(userRepository).should(times(2)).findUserByUsername("ivan");
+        then(userRepository).should(never()).findUserByUsername("IVAN");
+    }
+
+    @Test
+    void testGetUsersByIdsFetchesOnlyUncachedUsers() {
+        User user1 = getDefaultUser();
+        User user2 = new User("ivan2", "ivan2@test", LocalDate.parse("2018-02-02"));
+        user2.setId(2L);
+        given(userRepository.findById(1L)).willReturn(Optional.of(user1));
+        given(userRepository.findByIdIn(List.of(2L, 3L))).willReturn(List.of(user2));
+        userService.validateAndGetUserById(1L);
+
+        Map<Long, User> users = userService.getUsersByIds(List.of(1L, 2L, 3L));
+
+        assertThat(users).containsOnlyKeys(1L, 2L);
+        assertThat(users.get(2L)).isEqualTo(user2);
+        // The users fetched are cached too
+        userService.getUsersByIds(List.of(1L, 2L));
+        then(userRepository).should(times(1)).findByIdIn(any());
+    }
+
+    @Test
+    void testGetUsersByIdsFetchesInChunks() {
+        List<Long> ids = LongStream.rangeClosed(1, 600).boxed().collect(Collectors.toList());
+        given(userRepository.findByIdIn(any())).willReturn(Collections.emptyList());
+
+        assertThat(userService.getUsersByIds(ids)).isEmpty();
+
+        then(userRepository).should().findByIdIn(ids.subList(0, 512));
+        then(userRepository).should().findByIdIn(ids.subList(512, 600));
+    }
+
+    @Test
+    void testGetUsersByUsernamesRemembersMissingUsernames() {
+        User user = getDefaultUser();
+        given(userRepository.findByUsernameIn(List.of("ivan", "ivan2"))).willReturn(List.of(user));
+
+        assertThat(userService.getUsersByUsernames(List.of("ivan", "ivan2"))).containsOnlyKeys("ivan");
+        assertThat(userService.getUsersByUsernames(List.of("ivan", "ivan2"))).containsOnlyKeys("ivan");
+        assertThat(userService.findUserByUsername("ivan2")).isEmpty();
+
+        then(userRepository).should(times(1)).findByUsernameIn(any());
+        then(userRepository).should(never()).findUserByUsername(anyString());
+    }
+
+    @Test
+    void testGetUsersByUsernamesIgnoresCaseLikeTheDatabase() {
+        User user = getDefaultUser();
+        given(userRepository.findByUsernameIn(List.of("Ivan"))).willReturn(List.of(user));
+        given(userRepository.findUserByUsername("Ivan")).willReturn(Optional.of(user));
+
+        Map<String, User> users = userService.getUsersByUsernames(List.of("Ivan"));
+
+        assertThat(users.get("Ivan")).isEqualTo(user);
+        assertThat(userService.findUserByUsername("Ivan")).contains(user);
+    }
+
+    @Test
+    void testGetUsersByEmailsIgnoresCaseLikeTheDatabase() {
+        User user = getDefaultUser();
+        given(userRepository.findByEmailIn(List.of("IVAN@test"))).willReturn(List.of(user));
+
+        assertThat(userService.getUsersByEmails(List.of("IVAN@test")).get("IVAN@test")).isEqualTo(user);
+    }
+
+    @Test
+    void testGetUsersByEmailsCachesUsersById() {
+        User user = getDefaultUser();
+        given(userRepository.findByEmailIn(List.of(user.getEmail(), "ivan2@test"))).willReturn(List.of(user));
+
+        Map<String, User> users = userService.getUsersByEmails(List.of(user.getEmail(), "ivan2@test"));
+
+        assertThat(users).containsOnlyKeys(user.getEmail());
+        assertThat(userService.validateAndGetUserById(1L)).isEqualTo(user);
+        then(userRepository).should(never()).findById(anyLong());
+    }
+
+    @Test
+    void testValidateAndGetUserByIdIsCached() {
+        User user = getDefaultUser();
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(user));
+
+        userService.validateAndGetUserById(user.getId());
+        User userFound = userService.validateAndGetUserById(user.getId());
+
+        assertThat(userFound).isEqualTo(user).isNotSameAs(user);
+        then(userRepository).should(times(1)).findById(user.getId());
+    }
+
+    @Test
+    void testValidateAndGetUserByUsernameIsCached() {
+        User user = getDefaultUser();
+        given(userRepository.findUserByUsername(anyString())).willReturn(Optional.of(user));
+
+        userService.validateAndGetUserByUsername(user.getUsername());
+        User userFound = userService.validateAndGetUserByUsername(user.getUsername());
+
+        assertThat(userFound).isEqualTo(user);
+        then(userRepository).should(times(1)).findUserByUsername(user.getUsername());
+    }
+
+    @Test
+    void testConcurrentLookupsOfMissingUsernameShareOneQuery() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        given(userRepository.findUserByUsername("ivan")).willAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> lookups = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                lookups.add(executor.submit(() -> userService.validateAndGetUserByUsername("ivan")));
+            }
+            awaitSharedLoads("usernames", 3);
+            release.countDown();
+
+            for (Future<?> lookup : lookups) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> lookup.get(5, TimeUnit.SECONDS));
+                assertThat(e).hasCauseInstanceOf(UserNotFoundException.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        then(userRepository).should(times(1)).findUserByUsername("ivan");
+    }
+
+    @Test
+    void testLookupAfterAnEvictionDoesNotJoinLoadInFlight() throws Exception {
+        User user = getDefaultUser();
+        User renamed = getDefaultUser();
+        renamed.setUsername("ivan2");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        given(userRepository.findById(1L))
+                .willAnswer(invocation -> {
+                    // Reads the user before the rename, and returns it after
+                    started.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return Optional.of(user);
+                })
+                .willReturn(Optional.of(renamed));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<User> lookupBefore = executor.submit(() -> userService.validateAndGetUserById(1L));
+            started.await(5, TimeUnit.SECONDS);
+            given(userRepository.updateUser(eq(1L), any(), eq("ivan2"), any(), any(), any())).willReturn(1);
+            userService.updateUser(1L, null, renamed);
+
+            User lookupAfter = userService.validateAndGetUserById(1L);
+            release.countDown();
+
+            assertThat(lookupAfter.getUsername()).isEqualTo("ivan2");
+            assertThat(lookupBefore.get(5, TimeUnit.SECONDS).getUsername()).isEqualTo("ivan");
+        } finally {
+            executor.shutdownNow();
+        }
+        then(userRepository).should(times(2)).findById(1L);
+    }
+
+    @Test
+    void testLookupOverlappingAnEvictionIsNotCached() {
+        User user = getDefaultUser();
+        given(userRepository.findById(1L)).willAnswer(invocation -> {
+            // The user is updated by another request while this one reads it
+            userService.deleteUser(getDefaultUser());
+            return Optional.of(user);
+        });
+
+        userService.validateAndGetUserById(1L);
+        userService.validateAndGetUserById(1L);
+
+        then(userRepository).should(times(2)).findById(1L);
+    }
+
+    @Test
+    void testSaveUserEvictsOldAndNewUsername() {
+        User user = getDefaultUser();
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(user));
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.of(user));
+
+        User userFound = userService.validateAndGetUserByUsername("ivan");
+        userFound.setUsername("ivan2");
+        given(userRepository.save(any(User.class))).willReturn(userFound);
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.empty());
+        given(userRepository.findUserByUsername("ivan2")).willReturn(Optional.of(userFound));
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(userFound));
+
+        userService.saveUser(userFound);
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserByUsername("ivan"));
+        assertThat(userService.validateAndGetUserByUsername("ivan2").getUsername()).isEqualTo("ivan2");
+        assertThat(userService.validateAndGetUserById(user.getId()).getUsername()).isEqualTo("ivan2");
+    }
+
+    @Test
+    void testDeleteUserEvictsUser() {
+        User user = getDefaultUser();
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(user));
+
+        userService.validateAndGetUserById(user.getId());
+        userService.deleteUser(user);
+        given(userRepository.findById(anyLong())).willReturn(Optional.empty());
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserById(user.getId()));
+    }
+
+    @Test
+    void testUpdateUserEvictsOldUsername() {
+        User user = getDefaultUser();
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(user));
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.of(user));
+        userService.validateAndGetUserByUsername("ivan");
+
+        User updatedUser = new User("ivan2", user.getEmail(), user.getBirthday());
+        updatedUser.setId(user.getId());
+        given(userRepository.updateUser(eq(1L), isNull(), eq("ivan2"), isNull(), isNull(), any())).willReturn(1);
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(updatedUser));
+        given(userRepository.findUserByUsername("ivan")).willReturn(Optional.empty());
+
+        userService.updateUser(1L, null, new User("ivan2", null, null));
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserByUsername("ivan"));
+        assertThat(userService.validateAndGetUserById(1L).getUsername()).isEqualTo("ivan2");
+        then(userDuplicateFilter).should().add(any(User.class));
+        then(userChangeRepository).should().appendChanges(eq(Operation.UPDATED), eq(List.of(1L)), any());
+    }
+
+    @Test
+    void testUpdateUserWhenNonExistent() {
+        given(userRepository.updateUser(anyLong(), any(), any(), any(), any(), any())).willReturn(0);
+
+        assertThrows(UserNotFoundException.class, () -> userService.updateUser(1L, null, new User("ivan2", null, null)));
+        then(userChangeRepository).should(never()).appendChanges(any(), anyCollection(), any());
+    }
+
+    @Test
+    void testUpdateUserWhenVersionIsStale() {
+        given(userRepository.updateUser(anyLong(), any(), any(), any(), any(), any())).willReturn(0);
+        given(userRepository.existsById(1L)).willReturn(true);
+
+        assertThrows(UserVersionMismatchException.class, () -> userService.updateUser(1L, 0L, new User("ivan2", null, null)));
+    }
+
+    @Test
+    void testUpdateUserWhenVersionIsInformedAndNonExistent() {
+        given(userRepository.updateUser(anyLong(), any(), any(), any(), any(), any())).willReturn(0);
+        given(userRepository.existsById(1L)).willReturn(false);
+
+        assertThrows(UserNotFoundException.class, () -> userService.updateUser(1L, 0L, new User("ivan2", null, null)));
+    }
+
+    @Test
+    void testUpdateUserWhenDatabaseRejectsDuplicate() {
+        given(userRepository.updateUser(anyLong(), any(), any(), any(), any(), any())).willThrow(DataIntegrityViolationException.class);
+
+        assertThrows(UserDataDuplicatedException.class, () -> userService.updateUser(1L, null, new User("ivan2", null, null)));
+    }
+
+    @Test
+    void testDeleteUserByIdEvictsUser() {
+        User user = getDefaultUser();
+        given(userRepository.findById(anyLong())).willReturn(Optional.of(user));
+        given(userRepository.deleteUserById(1L, null)).willReturn(1);
+
+        userService.validateAndGetUserById(user.getId());
+        userService.deleteUserById(user.getId(), null);
+        given(userRepository.findById(anyLong())).willReturn(Optional.empty());
+
+        assertThrows(UserNotFoundException.class, () -> userService.validateAndGetUserById(user.getId()));
+        then(userDuplicateFilter).should().remove(any(User.class));
+        then(userChangeRepository).should().appendChanges(eq(Operation.DELETED), eq(List.of(1L)), any());
+    }
+
+    @Test
+    void testDeleteUserByIdWhenNonExistent() {
+        given(userRepository.deleteUserById(anyLong(), any())).willReturn(0);
+
+        assertThrows(UserNotFoundException.class, () -> userService.deleteUserById(1L, null));
+        then(userDuplicateFilter).should(never()).remove(any(User.class));
+    }
+
+    @Test
+    void testDeleteUserByIdWhenVersionIsStale() {
+        given(userRepository.deleteUserById(anyLong(), any())).willReturn(0);
+        given(userRepository.existsById(1L)).willReturn(true);
+
+        assertThrows(UserVersionMismatchException.class, () -> userService.deleteUserById(1L, 0L));
+        then(userDuplicateFilter).should(never()).remove(any(User.class));
+    }
+
+    private void awaitSharedLoads(String cache, long sharedLoads) throws InterruptedException {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        userCache.bindTo(meterRegistry);
+        FunctionCounter counter = meterRegistry.get(UserCache.SHARED_LOADS_COUNTER).tag("cache", cache).functionCounter();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (counter.count() < sharedLoads && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
     private User getDefaultUser() {
         User user = new User("ivan", "ivan@test", LocalDate.parse("2018-01-01"));
         user.setId(1L);
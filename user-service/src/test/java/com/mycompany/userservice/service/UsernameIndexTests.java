@@ -0,0 +1,129 @@
+package com.mycompany.userservice.service;
+
+import com.mycompany.userservice.dto.UsernameSuggestion;
+import com.mycompany.userservice.model.User;
+import com.mycompany.userservice.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+class UsernameIndexTests {
+
+    private UserRepository userRepository;
+    private UsernameIndex usernameIndex;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        usernameIndex = new UsernameIndex(userRepository, new SyncTaskExecutor(), 3);
+        willAnswer(invocation -> {
+            Consumer<User> action = invocation.getArgument(0);
+            action.accept(getUser(1L, "ivan"));
+            action.accept(getUser(2L, "Ivana"));
+            action.accept(getUser(3L, "igor"));
+            action.accept(getUser(4L, "iv\u00e1n"));
+            action.accept(getUser(5L, "mario"));
+            return null;
+        }).given(userRepository).forEachUser(any());
+    }
+
+    @Test
+    void testSuggestBeforeBuild() {
+        assertThat(usernameIndex.suggest("iv", 10)).isEmpty();
+    }
+
+    @Test
+    void testSuggest() {
+        usernameIndex.build();
+
+        assertThat(usernames(usernameIndex.suggest("iv", 10))).containsExactly("ivan", "Ivana", "iv\u00e1n");
+        assertThat(usernames(usernameIndex.suggest("IVAN", 10))).containsExactly("ivan", "Ivana");
+        assertThat(usernames(usernameIndex.suggest("iv\u00e1", 10))).containsExactly("iv\u00e1n");
+        assertThat(usernames(usernameIndex.suggest("i", 2))).containsExactly("igor", "ivan");
+        assertThat(usernameIndex.suggest("ivan", 1)).containsExactly(new UsernameSuggestion(1L, "ivan"));
+        assertThat(usernameIndex.suggest("x", 10)).isEmpty();
+        assertThat(usernameIndex.suggest("", 10)).isEmpty();
+    }
+
+    @Test
+    void testAddAndRemove() {
+        usernameIndex.build();
+
+        usernameIndex.add(getUser(6L, "ivo"));
+        usernameIndex.add(getUser(3L, "ivan2"));
+        usernameIndex.remove(getUser(2L, null));
+
+        assertThat(usernames(usernameIndex.suggest("iv", 10))).containsExactly("ivan", "ivan2", "ivo", "iv\u00e1n");
+        assertThat(usernameIndex.suggest("ig", 10)).isEmpty();
+    }
+
+    @Test
+    void testRenameInDelta() {
+        usernameIndex.build();
+
+        usernameIndex.add(getUser(6L, "ivo"));
+        usernameIndex.add(getUser(6L, "ivonne"));
+
+        assertThat(usernames(usernameIndex.suggest("ivo", 10))).containsExactly("ivonne");
+    }
+
+    @Test
+    void testAddWithoutUsernameIsIgnored() {
+        usernameIndex.build();
+
+        usernameIndex.add(getUser(1L, null));
+
+        assertThat(usernames(usernameIndex.suggest("ivan", 10))).containsExactly("ivan", "Ivana");
+    }
+
+    @Test
+    void testChangesDuringBuildAreKept() {
+        willAnswer(invocation -> {
+            Consumer<User> action = invocation.getArgument(0);
+            action.accept(getUser(1L, "ivan"));
+            // Saved and deleted while the table is read
+            usernameIndex.add(getUser(1L, "ivan2"));
+            usernameIndex.remove(getUser(2L, null));
+            action.accept(getUser(2L, "Ivana"));
+            return null;
+        }).given(userRepository).forEachUser(any());
+
+        usernameIndex.build();
+
+        assertThat(usernames(usernameIndex.suggest("iv", 10))).containsExactly("ivan2");
+    }
+
+    @Test
+    void testCompactionKeepsSuggestions() {
+        usernameIndex.build();
+
+        usernameIndex.add(getUser(6L, "ivo"));
+        usernameIndex.add(getUser(3L, "ivan2"));
+        // The third change reaches the threshold and merges the delta
+        usernameIndex.remove(getUser(2L, null));
+        usernameIndex.add(getUser(7L, "ivy"));
+
+        assertThat(usernames(usernameIndex.suggest("iv", 10)))
+                .containsExactly("ivan", "ivan2", "ivo", "ivy", "iv\u00e1n");
+        assertThat(usernames(usernameIndex.suggest("m", 10))).containsExactly("mario");
+    }
+
+    private static List<String> usernames(List<UsernameSuggestion> suggestions) {
+        return suggestions.stream().map(UsernameSuggestion::getUsername).collect(Collectors.toList());
+    }
+
+    private static User getUser(Long id, String username) {
+        User user = new User(username, username + "@test", null);
+        user.setId(id);
+        return user;
+    }
+}